@@ -0,0 +1,118 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+* Sets the deadline of each HTTP Request before it is handled.
+* Clients may ask for a shorter deadline with the X-Request-Timeout header,
+* in milliseconds.  Otherwise the endpoint's default applies, which is read
+* from server.http.deadline.{Controller}.{method} if set, and from
+* server.http.deadline.default if not.
+*/
+@Component
+public class DeadlineInterceptor extends HandlerInterceptorAdapter {
+
+  // Header a client may send its own timeout in
+  public static final String TIMEOUT_HEADER = "X-Request-Timeout";
+
+  // Prefix of the per-endpoint deadline properties
+  private static final String DEADLINE_PROPERTY = "server.http.deadline.";
+
+  // How many milliseconds a request may take, unless its endpoint says otherwise
+  @Value("${server.http.deadline.default}")
+  private long defaultDeadline;
+
+  // Environment, which holds the per-endpoint deadlines
+  @Autowired
+  Environment env;
+
+  // Deadline Interceptor Logger
+  private static final Logger logger =
+      LogManager.getLogger("adrestia.DeadlineInterceptor");
+
+  /**
+  * Default empty DeadlineInterceptor constructor.
+  */
+  public DeadlineInterceptor() {
+    super();
+  }
+
+  // Find the default deadline for the endpoint handling a request
+  private long endpointDeadline(Object handler) {
+    if (handler instanceof HandlerMethod) {
+      HandlerMethod method = (HandlerMethod) handler;
+      Long deadline = env.getProperty(DEADLINE_PROPERTY
+          + method.getBeanType().getSimpleName() + "."
+          + method.getMethod().getName(), Long.class);
+      if (deadline != null) {
+        return deadline;
+      }
+    }
+    return defaultDeadline;
+  }
+
+  /**
+  * Set the deadline of the request on the servlet thread.
+  */
+  @Override
+  public boolean preHandle(HttpServletRequest request, HttpServletResponse response,
+      Object handler) {
+    long deadline = endpointDeadline(handler);
+    String requested = request.getHeader(TIMEOUT_HEADER);
+    if (requested != null) {
+      try {
+        deadline = Math.min(deadline, Long.parseLong(requested.trim()));
+      } catch (NumberFormatException e) {
+        logger.warn("Ignoring invalid " + TIMEOUT_HEADER + " header: " + requested);
+      }
+    }
+    RequestDeadline.setCurrent(RequestDeadline.after(Math.max(0, deadline)));
+    return true;
+  }
+
+  /**
+  * Clear the deadline once the servlet thread is released by an async request.
+  */
+  @Override
+  public void afterConcurrentHandlingStarted(HttpServletRequest request,
+      HttpServletResponse response, Object handler) {
+    RequestDeadline.setCurrent(null);
+  }
+
+  /**
+  * Clear the deadline once the request is complete.
+  */
+  @Override
+  public void afterCompletion(HttpServletRequest request, HttpServletResponse response,
+      Object handler, Exception ex) {
+    RequestDeadline.setCurrent(null);
+  }
+}
@@ -22,8 +22,10 @@ import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import javax.annotation.PreDestroy;
 
@@ -43,10 +45,13 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 /**
 * Rest Controller defining the Object API.
 * Responsible for handling and responding to all Object API Requests.
+* Each request is built up from asynchronous calls to Clyman, and its
+* response is deferred until they complete.
 */
 @RestController
 @RequestMapping(path = "/v1/scene/{scn_name}/object")
@@ -60,25 +65,33 @@ public class ObjectController {
   @Autowired
   UtilityProviderInterface utils;
 
+  // Async Response Provider, which hands responses back to the servlet container
+  @Autowired
+  AsyncResponseProvider responses;
+
+  // Buffers updates to existing Objects, when enabled
+  @Autowired
+  ObjectUpdateCoalescer updates;
+
   // Object Controller Logger
   private static final Logger logger =
       LogManager.getLogger("adrestia.ObjectController");
 
   // Save an Object to Clyman
-  private ObjectList saveObject(ObjectDocument inpDoc, boolean docExists) {
+  private CompletableFuture<ObjectList> saveObject(ObjectDocument inpDoc, boolean docExists) {
     if (docExists) {
-      return objData.update(inpDoc);
+      return objData.updateAsync(inpDoc);
     }
-    return objData.create(inpDoc);
+    return objData.createAsync(inpDoc);
   }
 
   // Query Clyman
-  private ObjectList objectQuery(String sceneName, String objName) {
+  private CompletableFuture<ObjectList> objectQuery(String sceneName, String objName) {
     // Execute a query against Clyman
     ObjectDocument queryObj = new ObjectDocument();
     queryObj.setName(objName);
     queryObj.setScene(sceneName);
-    return objData.query(queryObj);
+    return objData.queryAsync(queryObj);
   }
 
   // Determine if a response from Clyman is a response or failure
@@ -90,25 +103,25 @@ public class ObjectController {
     return false;
   }
 
-  /**
-  * Object Retrieval.
-  * Object name & object name input as path variables, no Request Parameters accepted.
-  */
-  @RequestMapping(path = "/{obj_name}", method = RequestMethod.GET)
-  public ResponseEntity<ObjectDocument> getObject(@PathVariable("scn_name") String sceneName,
-      @PathVariable("obj_name") String objName) {
-    logger.info("Responding to Object Get Request");
-    // Set up our response objects
-    ObjectDocument returnObj = new ObjectDocument();
-    HttpStatus returnCode = HttpStatus.OK;
+  // Build an HTTP Response
+  private ResponseEntity<ObjectDocument> buildResponse(ObjectDocument returnObj,
+      HttpStatus returnCode) {
+    // Set up a response header to return a valid HTTP Response
+    HttpHeaders responseHeaders = new HttpHeaders();
+    responseHeaders.set("Content-Type", "application/json");
 
-    // Retrieve the object requested
-    ObjectList clymanResponse = objectQuery(sceneName, objName);
+    // Create and return the new HTTP Response
+    return new ResponseEntity<ObjectDocument>(returnObj, responseHeaders, returnCode);
+  }
 
-    // If we have a successful response, then we pull the first value and
-    // the error code
+  // Build an HTTP Response from a Clyman response.
+  // If we have a successful response, then we pull the first value and
+  // the error code
+  private ResponseEntity<ObjectDocument> buildResponse(ObjectList clymanResponse) {
+    ObjectDocument returnObj = new ObjectDocument();
+    HttpStatus returnCode = HttpStatus.OK;
     if (isSuccessResponse(clymanResponse)) {
-      returnObj = clymanResponse.getDocuments()[0];
+      returnObj = clymanResponse.getDocument(0);
       returnCode = utils.translateDvsError(clymanResponse.getErrorCode());
     } else {
       returnCode = HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
@@ -116,13 +129,96 @@ public class ObjectController {
       logger.debug(clymanResponse.getNumRecords());
       logger.debug(clymanResponse.getErrorCode());
     }
+    return buildResponse(returnObj, returnCode);
+  }
 
-    // Set up a response header to return a valid HTTP Response
-    HttpHeaders responseHeaders = new HttpHeaders();
-    responseHeaders.set("Content-Type", "application/json");
+  // Convert a future Clyman response into a future HTTP Response
+  private CompletableFuture<ResponseEntity<ObjectDocument>> toResponse(
+      CompletableFuture<ObjectList> clymanResponse) {
+    return clymanResponse.thenApply(new Function<ObjectList, ResponseEntity<ObjectDocument>>() {
+      @Override
+      public ResponseEntity<ObjectDocument> apply(ObjectList response) {
+        return buildResponse(response);
+      }
+    });
+  }
 
-    // Create and return the new HTTP Response
-    return new ResponseEntity<ObjectDocument>(returnObj, responseHeaders, returnCode);
+  // Find the key of an Object, then buffer an update to it and acknowledge it
+  // straight away.  Objects which don't exist yet are created as usual
+  private CompletableFuture<ResponseEntity<ObjectDocument>> coalescedUpdate(
+      final String sceneName, final String objName, final ObjectDocument inpObject) {
+    return objData.findKeyAsync(sceneName, objName, false).thenCompose(
+        new Function<String, CompletableFuture<ResponseEntity<ObjectDocument>>>() {
+          @Override
+          public CompletableFuture<ResponseEntity<ObjectDocument>> apply(String clymanKey) {
+            inpObject.setName(objName);
+            inpObject.setScene(sceneName);
+            if (clymanKey == null) {
+              return toResponse(saveObject(inpObject, false));
+            }
+            logger.debug("Buffering update to Object Key: " + clymanKey);
+            inpObject.setKey(clymanKey);
+            updates.submit(inpObject);
+            return CompletableFuture.completedFuture(
+                buildResponse(inpObject, HttpStatus.ACCEPTED));
+          }
+        });
+  }
+
+  // Find the key of an Object, then run an operation against it.
+  // The operation is handed a null key if the Object isn't found.  A cached key
+  // may have gone stale, so if the operation fails, the key is looked up again,
+  // and the operation retried once if the key has changed
+  private CompletableFuture<ObjectList> withObjectKey(final String sceneName,
+      final String objName, final Function<String, CompletableFuture<ObjectList>> operation) {
+    return objData.findKeyAsync(sceneName, objName, false).thenCompose(
+        new Function<String, CompletableFuture<ObjectList>>() {
+          @Override
+          public CompletableFuture<ObjectList> apply(final String docKey) {
+            return operation.apply(docKey).thenCompose(
+                new Function<ObjectList, CompletableFuture<ObjectList>>() {
+                  @Override
+                  public CompletableFuture<ObjectList> apply(final ObjectList clymanResponse) {
+                    if (docKey == null || clymanResponse == null
+                        || isSuccessResponse(clymanResponse)) {
+                      return CompletableFuture.completedFuture(clymanResponse);
+                    }
+                    return retryWithFreshKey(sceneName, objName, docKey, clymanResponse,
+                        operation);
+                  }
+                });
+          }
+        });
+  }
+
+  // Look up the key of an Object again, and retry an operation if it has changed
+  private CompletableFuture<ObjectList> retryWithFreshKey(String sceneName, String objName,
+      final String staleKey, final ObjectList clymanResponse,
+      final Function<String, CompletableFuture<ObjectList>> operation) {
+    return objData.findKeyAsync(sceneName, objName, true).thenCompose(
+        new Function<String, CompletableFuture<ObjectList>>() {
+          @Override
+          public CompletableFuture<ObjectList> apply(String docKey) {
+            if (staleKey.equals(docKey)) {
+              return CompletableFuture.completedFuture(clymanResponse);
+            }
+            logger.debug("Cached Object Key was stale, retrying with: " + docKey);
+            return operation.apply(docKey);
+          }
+        });
+  }
+
+  /**
+  * Object Retrieval.
+  * Object name & object name input as path variables, no Request Parameters accepted.
+  */
+  @RequestMapping(path = "/{obj_name}", method = RequestMethod.GET)
+  public DeferredResult<ResponseEntity<ObjectDocument>> getObject(
+      @PathVariable("scn_name") String sceneName,
+      @PathVariable("obj_name") String objName) {
+    logger.info("Responding to Object Get Request");
+    // Retrieve the object requested
+    return responses.defer(toResponse(objectQuery(sceneName, objName)));
   }
 
   /**
@@ -133,52 +229,35 @@ public class ObjectController {
   @RequestMapping(path = "/{obj_name}",
       headers = "Content-Type=application/json",
       method = RequestMethod.POST)
-  public ResponseEntity<ObjectDocument> updateObject(
-      @PathVariable("scn_name") String sceneName,
-      @PathVariable("obj_name") String objName,
-      @RequestBody ObjectDocument inpObject) {
+  public DeferredResult<ResponseEntity<ObjectDocument>> updateObject(
+      @PathVariable("scn_name") final String sceneName,
+      @PathVariable("obj_name") final String objName,
+      @RequestBody final ObjectDocument inpObject) {
     logger.info("Responding to Object Save Request");
-    ObjectDocument returnObj = new ObjectDocument();
-    HttpStatus returnCode = HttpStatus.OK;
-
-    // See if we can find the Object requested
-    ObjectList clymanResponse = objectQuery(sceneName, objName);
-
-    // If we have a successful response, then the Object exists
-    boolean objectExists = false;
-    if (isSuccessResponse(clymanResponse)) {
-      objectExists = true;
-      logger.debug("Existing Object found in Clyman");
-      // Set the key on the input Object to the key from the response
-      String clymanRespKey = clymanResponse.getDocuments()[0].getKey();
-      if (clymanRespKey != null && !clymanRespKey.isEmpty()) {
-        inpObject.setKey(clymanRespKey);
-        logger.debug("Clyman Response Key: " + clymanRespKey);
-      }
+    if (updates.isEnabled()) {
+      return responses.defer(coalescedUpdate(sceneName, objName, inpObject));
     }
 
-    // Update the Object
-    inpObject.setName(objName);
-    inpObject.setScene(sceneName);
-    ObjectList updateResponse = saveObject(inpObject, objectExists);
-
-    // If we have a successful response, then we pull the first value
-    if (isSuccessResponse(updateResponse)) {
-      returnObj = updateResponse.getDocuments()[0];
-      returnCode = utils.translateDvsError(updateResponse.getErrorCode());
-    } else {
-      returnCode = HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
-      logger.debug("Failure Registered.  Clyman Response Error Code and Length:");
-      logger.debug(updateResponse.getNumRecords());
-      logger.debug(updateResponse.getErrorCode());
-    }
-
-    // Set up a response header to return a valid HTTP Response
-    HttpHeaders responseHeaders = new HttpHeaders();
-    responseHeaders.set("Content-Type", "application/json");
-
-    // Create and return the new HTTP Response
-    return new ResponseEntity<ObjectDocument>(returnObj, responseHeaders, returnCode);
+    // Find the key of the Object requested, then save it
+    CompletableFuture<ObjectList> updateResponse = withObjectKey(sceneName, objName,
+        new Function<String, CompletableFuture<ObjectList>>() {
+          @Override
+          public CompletableFuture<ObjectList> apply(String clymanKey) {
+            // If we have a key, then the Object exists
+            boolean objectExists = false;
+            if (clymanKey != null) {
+              objectExists = true;
+              logger.debug("Existing Object Key: " + clymanKey);
+              inpObject.setKey(clymanKey);
+            }
+
+            // Update the Object
+            inpObject.setName(objName);
+            inpObject.setScene(sceneName);
+            return saveObject(inpObject, objectExists);
+          }
+        });
+    return responses.defer(toResponse(updateResponse));
   }
 
   /**
@@ -188,51 +267,36 @@ public class ObjectController {
   @RequestMapping(path = "/{obj_name}",
       headers = "Content-Type=application/json",
       method = RequestMethod.DELETE)
-  public ResponseEntity<ObjectDocument> deleteObject(
+  public DeferredResult<ResponseEntity<ObjectDocument>> deleteObject(
       @PathVariable("scn_name") String sceneName,
       @PathVariable("obj_name") String objName) {
     logger.info("Responding to Object Delete Request");
-    ObjectDocument returnObj = new ObjectDocument();
-    HttpStatus returnCode = HttpStatus.OK;
-
-    // See if we can find the Object requested
-    ObjectList clymanResponse = objectQuery(sceneName, objName);
-
-    // If we have a successful response, then the Object exists
-    boolean objectExists = false;
-    if (isSuccessResponse(clymanResponse)) {
-      objectExists = true;
-      logger.debug("Existing Object found in Clyman");
-      // Set the key on the input Object to the key from the response
-      String clymanRespKey = clymanResponse.getDocuments()[0].getKey();
-      if (clymanRespKey != null && !clymanRespKey.isEmpty()) {
-        logger.debug("Clyman Response Key: " + clymanRespKey);
-        ObjectList deleteResponse = objData.destroy(clymanRespKey);
-        // If we have a successful response, then set a success code
-        if (isSuccessResponse(deleteResponse)) {
-          returnObj = deleteResponse.getDocuments()[0];
-          returnCode = utils.translateDvsError(deleteResponse.getErrorCode());
-        } else {
-          returnCode = HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
-          logger.debug("Failure Registered.  Clyman Response Error Code and Length:");
-          logger.debug(deleteResponse.getNumRecords());
-          logger.debug(deleteResponse.getErrorCode());
-        }
-      }
-    } else {
-      // Delete request for non-existing object
-      returnCode = HttpStatus.INTERNAL_SERVER_ERROR;
-      logger.debug("Key not found in Clyman response");
-      logger.debug(clymanResponse.getNumRecords());
-      logger.debug(clymanResponse.getErrorCode());
-    }
-
-    // Set up a response header to return a valid HTTP Response
-    HttpHeaders responseHeaders = new HttpHeaders();
-    responseHeaders.set("Content-Type", "application/json");
 
-    // Create and return the new HTTP Response
-    return new ResponseEntity<ObjectDocument>(returnObj, responseHeaders, returnCode);
+    // Find the key of the Object requested, then delete it
+    CompletableFuture<ObjectList> clymanDelete = withObjectKey(sceneName, objName,
+        new Function<String, CompletableFuture<ObjectList>>() {
+          @Override
+          public CompletableFuture<ObjectList> apply(String clymanKey) {
+            if (clymanKey == null) {
+              return CompletableFuture.completedFuture(null);
+            }
+            logger.debug("Existing Object Key: " + clymanKey);
+            return objData.destroyAsync(clymanKey);
+          }
+        });
+    CompletableFuture<ResponseEntity<ObjectDocument>> deleteResponse = clymanDelete.thenApply(
+        new Function<ObjectList, ResponseEntity<ObjectDocument>>() {
+          @Override
+          public ResponseEntity<ObjectDocument> apply(ObjectList clymanResponse) {
+            if (clymanResponse == null) {
+              // Delete request for non-existing object
+              logger.debug("Object not found in Clyman");
+              return buildResponse(new ObjectDocument(), HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+            return buildResponse(clymanResponse);
+          }
+        });
+    return responses.defer(deleteResponse);
   }
 
   /**
@@ -240,14 +304,12 @@ public class ObjectController {
   * Object Name & Scene name input as path variable, Request Parameters accepted.
   */
   @RequestMapping(method = RequestMethod.GET)
-  public ResponseEntity<ObjectDocument> queryObject(
+  public DeferredResult<ResponseEntity<ObjectDocument>> queryObject(
       @PathVariable("scn_name") String sceneName,
       @RequestParam(value = "type", defaultValue = "") String type,
       @RequestParam(value = "subtype", defaultValue = "") String subtype,
       @RequestParam(value = "owner", defaultValue = "") String owner) {
     logger.info("Responding to Object Query");
-    ObjectDocument returnObj = new ObjectDocument();
-    HttpStatus returnCode = HttpStatus.OK;
 
     // Execute a query against Clyman
     ObjectDocument queryObj = new ObjectDocument();
@@ -261,69 +323,41 @@ public class ObjectController {
     if (!(owner.isEmpty())) {
       queryObj.setOwner(owner);
     }
-    ObjectList clymanResponse = objData.query(queryObj);
 
     // Update our HTTP Response based on the Clyman response
-    if (isSuccessResponse(clymanResponse)) {
-      returnObj = clymanResponse.getDocuments()[0];
-      returnCode = utils.translateDvsError(clymanResponse.getErrorCode());
-    } else {
-      returnCode = HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
-      logger.debug("Failure Registered.  Clyman Response Error Code and Length:");
-      logger.debug(clymanResponse.getNumRecords());
-      logger.debug(clymanResponse.getErrorCode());
-    }
-
-    // Set up a response header to return a valid HTTP Response
-    HttpHeaders responseHeaders = new HttpHeaders();
-    responseHeaders.set("Content-Type", "application/json");
-
-    // Create and return the new HTTP Response
-    return new ResponseEntity<ObjectDocument>(returnObj, responseHeaders, returnCode);
+    return responses.defer(toResponse(objData.queryAsync(queryObj)));
   }
 
-  private ResponseEntity<ObjectDocument> lockTransaction(String sceneName,
-      String objName, String owner, boolean isLocking) {
+  private DeferredResult<ResponseEntity<ObjectDocument>> lockTransaction(String sceneName,
+      String objName, final String owner, final boolean isLocking) {
     logger.info("Object Lock Transaction");
-    ObjectDocument returnObj = new ObjectDocument();
-    HttpStatus returnCode = HttpStatus.OK;
-
-    // Execute a query against Clyman
-    ObjectDocument queryObj = new ObjectDocument();
-    queryObj.setScene(sceneName);
-    queryObj.setName(objName);
-    ObjectList clymanResponse = objData.query(queryObj);
-
-    if (isSuccessResponse(clymanResponse)) {
-      // Execute the lock transaction
-      ObjectList lockResponse = null;
-      if (isLocking) {
-        lockResponse = objData.lock(clymanResponse.getDocuments()[0].getKey(), owner);
-      } else {
-        lockResponse = objData.unlock(clymanResponse.getDocuments()[0].getKey(), owner);
-      }
-      if (isSuccessResponse(lockResponse)) {
-        returnObj = lockResponse.getDocuments()[0];
-        returnCode = utils.translateDvsError(lockResponse.getErrorCode());
-      } else {
-        returnCode = HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
-        logger.debug("Failure Registered.  Clyman Response Error Code and Length:");
-        logger.debug(clymanResponse.getNumRecords());
-        logger.debug(clymanResponse.getErrorCode());
-      }
-    } else {
-      returnCode = HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
-      logger.debug("Failure Registered.  Clyman Response Error Code and Length:");
-      logger.debug(clymanResponse.getNumRecords());
-      logger.debug(clymanResponse.getErrorCode());
-    }
 
-    // Set up a response header to return a valid HTTP Response
-    HttpHeaders responseHeaders = new HttpHeaders();
-    responseHeaders.set("Content-Type", "application/json");
-
-    // Create and return the new HTTP Response
-    return new ResponseEntity<ObjectDocument>(returnObj, responseHeaders, returnCode);
+    // Find the key of the Object, then execute the lock transaction
+    CompletableFuture<ObjectList> clymanLock = withObjectKey(sceneName, objName,
+        new Function<String, CompletableFuture<ObjectList>>() {
+          @Override
+          public CompletableFuture<ObjectList> apply(String docKey) {
+            if (docKey == null) {
+              return CompletableFuture.completedFuture(null);
+            }
+            if (isLocking) {
+              return objData.lockAsync(docKey, owner);
+            }
+            return objData.unlockAsync(docKey, owner);
+          }
+        });
+    CompletableFuture<ResponseEntity<ObjectDocument>> lockResponse = clymanLock.thenApply(
+        new Function<ObjectList, ResponseEntity<ObjectDocument>>() {
+          @Override
+          public ResponseEntity<ObjectDocument> apply(ObjectList clymanResponse) {
+            if (clymanResponse == null) {
+              return buildResponse(new ObjectDocument(),
+                  HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+            }
+            return buildResponse(clymanResponse);
+          }
+        });
+    return responses.defer(lockResponse);
   }
 
   /**
@@ -332,7 +366,7 @@ public class ObjectController {
   */
   @RequestMapping(path = "/{obj_name}/lock",
       method = RequestMethod.GET)
-  public ResponseEntity<ObjectDocument> lockObject(
+  public DeferredResult<ResponseEntity<ObjectDocument>> lockObject(
       @PathVariable("scn_name") String sceneName,
       @PathVariable("obj_name") String objName,
       @RequestParam(value = "owner", defaultValue = "") String owner) {
@@ -345,7 +379,7 @@ public class ObjectController {
   */
   @RequestMapping(path = "/{obj_name}/lock",
       method = RequestMethod.DELETE)
-  public ResponseEntity<ObjectDocument> unlockObject(
+  public DeferredResult<ResponseEntity<ObjectDocument>> unlockObject(
       @PathVariable("scn_name") String sceneName,
       @PathVariable("obj_name") String objName,
       @RequestParam(value = "owner", defaultValue = "") String owner) {
@@ -22,8 +22,10 @@ import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import javax.annotation.PreDestroy;
 
@@ -43,6 +45,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 /**
 * Rest Controller defining the Scene Registration API.
@@ -60,29 +63,19 @@ public class RegistrationController {
   @Autowired
   UtilityProviderInterface utils;
 
+  // Async Response Provider, which hands responses back to the servlet container
+  @Autowired
+  AsyncResponseProvider responses;
+
   // Scene Controller Logger
   private static final Logger logger =
       LogManager.getLogger("adrestia.RegistrationController");
 
-  // Process a registration request
-  private ResponseEntity<Scene> processRegistration(String name,
-      String device, String deviceHost, int devicePort,
-      Transform inpTransform, int registrationMsgType) {
+  // Build an HTTP Response from a Crazy Ivan response
+  private ResponseEntity<Scene> buildResponse(SceneList ivanResponse) {
     Scene returnScn = new Scene();
     HttpStatus returnCode = HttpStatus.OK;
 
-    // Get a response based on the msg type we've been passed in
-    SceneList ivanResponse = null;
-    switch (registrationMsgType) {
-      case 4: ivanResponse = scnData.register(name, device, deviceHost, devicePort, inpTransform);
-              break;
-      case 5: ivanResponse = scnData.deregister(name, device);
-              break;
-      case 6: ivanResponse = scnData.synchronize(name, device, inpTransform);
-              break;
-      default: ivanResponse = null;
-    }
-
     // If we have a successful response, then we pull the first value
     if (ivanResponse.getNumRecords() > 0
         && ivanResponse.getErrorCode() == 100) {
@@ -103,11 +96,37 @@ public class RegistrationController {
     return new ResponseEntity<Scene>(returnScn, responseHeaders, returnCode);
   }
 
+  // Process a registration request
+  private DeferredResult<ResponseEntity<Scene>> processRegistration(String name,
+      String device, String deviceHost, int devicePort,
+      Transform inpTransform, int registrationMsgType) {
+    // Get a response based on the msg type we've been passed in
+    CompletableFuture<SceneList> ivanResponse = null;
+    switch (registrationMsgType) {
+      case 4: ivanResponse =
+                  scnData.registerAsync(name, device, deviceHost, devicePort, inpTransform);
+              break;
+      case 5: ivanResponse = scnData.deregisterAsync(name, device);
+              break;
+      case 6: ivanResponse = scnData.synchronizeAsync(name, device, inpTransform);
+              break;
+      default: ivanResponse = null;
+    }
+
+    return responses.defer(ivanResponse.thenApply(
+        new Function<SceneList, ResponseEntity<Scene>>() {
+          @Override
+          public ResponseEntity<Scene> apply(SceneList response) {
+            return buildResponse(response);
+          }
+        }));
+  }
+
   /**
   * Scene Registration.
   */
   @RequestMapping(path = "/{name}/registration", method = RequestMethod.PUT)
-  public ResponseEntity<Scene> register(@PathVariable("name") String name,
+  public DeferredResult<ResponseEntity<Scene>> register(@PathVariable("name") String name,
       @RequestParam(value = "device_id", defaultValue = "") String device,
       @RequestParam(value = "device_host", defaultValue = "") String deviceHost,
       @RequestParam(value = "device_port", defaultValue = "0") int devicePort,
@@ -120,7 +139,7 @@ public class RegistrationController {
   * Scene De-Registration.
   */
   @RequestMapping(path = "/{name}/registration", method = RequestMethod.DELETE)
-  public ResponseEntity<Scene> deregister(@PathVariable("name") String name,
+  public DeferredResult<ResponseEntity<Scene>> deregister(@PathVariable("name") String name,
       @RequestParam(value = "device_id", defaultValue = "") String device) {
     logger.info("Responding to Scene De-Registration Request");
     return processRegistration(name, device, "", 0, null, 5);
@@ -130,7 +149,7 @@ public class RegistrationController {
   * Scene-Device Synchronization.
   */
   @RequestMapping(path = "/{name}/registration", method = RequestMethod.POST)
-  public ResponseEntity<Scene> synchronize(@PathVariable("name") String name,
+  public DeferredResult<ResponseEntity<Scene>> synchronize(@PathVariable("name") String name,
       @RequestParam(value = "device_id", defaultValue = "") String device,
       @RequestBody(required = false) Transform inpTransform) {
     logger.info("Responding to Scene Synchronization Request");
@@ -22,8 +22,10 @@ import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import javax.annotation.PreDestroy;
 
@@ -43,10 +45,13 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 /**
 * Rest Controller defining the Scene API.
 * Responsible for handling and responding to all Scene API Requests.
+* Each request is built up from asynchronous calls to Crazy Ivan, and its
+* response is deferred until they complete.
 */
 @RestController
 @RequestMapping(path = "/v1/scene")
@@ -60,32 +65,46 @@ public class SceneController {
   @Autowired
   UtilityProviderInterface utils;
 
+  // Async Response Provider, which hands responses back to the servlet container
+  @Autowired
+  AsyncResponseProvider responses;
+
+  // Shared JSON Message Codec, used to inspect Crazy Ivan replies in pass-through mode
+  @Autowired
+  MessageCodec codec;
+
+  // Return the Crazy Ivan reply to the client without decoding it, for reads
+  @Value("${server.http.passthrough.enabled}")
+  private boolean passthroughEnabled;
+
   // Scene Controller Logger
   private static final Logger logger =
       LogManager.getLogger("adrestia.SceneController");
 
   // Save a scene to Crazy Ivan
-  private SceneList saveScene(Scene inpScene, boolean sceneExists) {
+  private CompletableFuture<SceneList> saveScene(Scene inpScene, boolean sceneExists) {
     if (sceneExists) {
-      return scnData.update(inpScene);
+      return scnData.updateAsync(inpScene);
     }
-    return scnData.create(inpScene);
+    return scnData.createAsync(inpScene);
   }
 
-  /**
-  * Scene Retrieval.
-  * Scene name input as path variable, no Request Parameters accepted.
-  */
-  @RequestMapping(path = "/{name}", method = RequestMethod.GET)
-  public ResponseEntity<Scene> getScene(@PathVariable("name") String name) {
-    logger.info("Responding to Scene Get Request");
-    Scene returnScn = new Scene();
-    HttpStatus returnCode = HttpStatus.OK;
+  // Build an HTTP Response
+  private <T> ResponseEntity<T> buildResponse(T returnValue, HttpStatus returnCode) {
+    // Set up a response header to return a valid HTTP Response
+    HttpHeaders responseHeaders = new HttpHeaders();
+    responseHeaders.set("Content-Type", "application/json");
 
-    SceneList ivanResponse = scnData.get(name);
+    // Create and return the new HTTP Response
+    return new ResponseEntity<T>(returnValue, responseHeaders, returnCode);
+  }
 
-    // If we have a successful response, then we pull the first value and
-    // the error code
+  // Build an HTTP Response from a Crazy Ivan response.
+  // If we have a successful response, then we pull the first value and
+  // the error code
+  private ResponseEntity<Scene> buildResponse(SceneList ivanResponse) {
+    Scene returnScn = new Scene();
+    HttpStatus returnCode = HttpStatus.OK;
     if (ivanResponse.getNumRecords() > 0
         && ivanResponse.getErrorCode() == 100) {
       returnScn = ivanResponse.getSceneList()[0];
@@ -96,13 +115,120 @@ public class SceneController {
       logger.debug(ivanResponse.getNumRecords());
       logger.debug(ivanResponse.getErrorCode());
     }
+    return buildResponse(returnScn, returnCode);
+  }
 
-    // Set up a response header to return a valid HTTP Response
-    HttpHeaders responseHeaders = new HttpHeaders();
-    responseHeaders.set("Content-Type", "application/json");
+  // Convert a future Crazy Ivan response into a future HTTP Response
+  private CompletableFuture<ResponseEntity<Scene>> toResponse(
+      CompletableFuture<SceneList> ivanResponse) {
+    return ivanResponse.thenApply(new Function<SceneList, ResponseEntity<Scene>>() {
+      @Override
+      public ResponseEntity<Scene> apply(SceneList response) {
+        return buildResponse(response);
+      }
+    });
+  }
 
-    // Create and return the new HTTP Response
-    return new ResponseEntity<Scene>(returnScn, responseHeaders, returnCode);
+  // Determine if a response from Crazy Ivan holds at least one Scene
+  private boolean isSuccessResponse(SceneList ivanResponse) {
+    return ivanResponse.getNumRecords() > 0 && ivanResponse.getErrorCode() == 100;
+  }
+
+  // Find the key of a Scene, then run an operation against it.
+  // The operation is handed a null key if the Scene isn't found.  A cached key
+  // may have gone stale, so if the operation fails, the key is looked up again,
+  // and the operation retried once if the key has changed
+  private CompletableFuture<SceneList> withSceneKey(final String name,
+      final Function<String, CompletableFuture<SceneList>> operation) {
+    return scnData.findKeyAsync(name, false).thenCompose(
+        new Function<String, CompletableFuture<SceneList>>() {
+          @Override
+          public CompletableFuture<SceneList> apply(final String sceneKey) {
+            return operation.apply(sceneKey).thenCompose(
+                new Function<SceneList, CompletableFuture<SceneList>>() {
+                  @Override
+                  public CompletableFuture<SceneList> apply(final SceneList ivanResponse) {
+                    if (sceneKey == null || ivanResponse == null
+                        || isSuccessResponse(ivanResponse)) {
+                      return CompletableFuture.completedFuture(ivanResponse);
+                    }
+                    return retryWithFreshKey(name, sceneKey, ivanResponse, operation);
+                  }
+                });
+          }
+        });
+  }
+
+  // Look up the key of a Scene again, and retry an operation if it has changed
+  private CompletableFuture<SceneList> retryWithFreshKey(String name, final String staleKey,
+      final SceneList ivanResponse,
+      final Function<String, CompletableFuture<SceneList>> operation) {
+    return scnData.findKeyAsync(name, true).thenCompose(
+        new Function<String, CompletableFuture<SceneList>>() {
+          @Override
+          public CompletableFuture<SceneList> apply(String sceneKey) {
+            if (staleKey.equals(sceneKey)) {
+              return CompletableFuture.completedFuture(ivanResponse);
+            }
+            logger.debug("Cached Scene Key was stale, retrying with: " + sceneKey);
+            return operation.apply(sceneKey);
+          }
+        });
+  }
+
+  // Summarize an encoded Crazy Ivan response, or return null if it can't be read
+  private MessageSummary summarize(byte[] ivanResponse) {
+    try {
+      return codec.summarize(ivanResponse, "scenes");
+    } catch (Exception e) {
+      logger.error("Error Reading Crazy Ivan Response: ", e);
+    }
+    return null;
+  }
+
+  // Build an HTTP Response from an encoded Crazy Ivan response, passing the
+  // first Scene through as it was received
+  private ResponseEntity<byte[]> buildRawResponse(byte[] ivanResponse) {
+    MessageSummary summary = summarize(ivanResponse);
+    if (summary != null && summary.getNumRecords() > 0
+        && summary.getErrorCode() == 100 && summary.hasFirstRecord()) {
+      return buildResponse(summary.getFirstRecord(),
+          utils.translateDvsError(summary.getErrorCode()));
+    }
+    if (summary != null) {
+      logger.debug("Failure Registered.  Ivan Response Error Code and Length:");
+      logger.debug(summary.getNumRecords());
+      logger.debug(summary.getErrorCode());
+    }
+    try {
+      return buildResponse(codec.writeScene(new Scene()),
+          HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+    } catch (Exception e) {
+      logger.error("Error Encoding Empty Scene: ", e);
+    }
+    return buildResponse(new byte[0], HttpStatus.INTERNAL_SERVER_ERROR);
+  }
+
+  /**
+  * Scene Retrieval.
+  * Scene name input as path variable, no Request Parameters accepted.
+  * In pass-through mode, the Scene is returned exactly as Crazy Ivan sent it.
+  */
+  @RequestMapping(path = "/{name}", method = RequestMethod.GET)
+  public DeferredResult<? extends ResponseEntity<?>> getScene(
+      @PathVariable("name") String name) {
+    logger.info("Responding to Scene Get Request");
+    if (passthroughEnabled) {
+      CompletableFuture<ResponseEntity<byte[]>> getResponse = scnData.getRawAsync(name).thenApply(
+          new Function<byte[], ResponseEntity<byte[]>>() {
+            @Override
+            public ResponseEntity<byte[]> apply(byte[] ivanResponse) {
+              return buildRawResponse(ivanResponse);
+            }
+          });
+      return responses.defer(getResponse);
+    }
+    return responses.defer(toResponse(scnData.getAsync(name)));
   }
 
   /**
@@ -113,52 +239,30 @@ public class SceneController {
   @RequestMapping(path = "/{name}",
       headers = "Content-Type=application/json",
       method = RequestMethod.POST)
-  public ResponseEntity<Scene> updateScene(
-      @PathVariable("name") String name,
-      @RequestBody Scene inpScene) {
+  public DeferredResult<ResponseEntity<Scene>> updateScene(
+      @PathVariable("name") final String name,
+      @RequestBody final Scene inpScene) {
     logger.info("Responding to Scene Save Request");
-    Scene returnScn = new Scene();
-    HttpStatus returnCode = HttpStatus.OK;
-
-    // See if we can find the scene requested
-    SceneList ivanResponse = scnData.get(name);
 
-    // If we have a successful response, then the scene exists
-    boolean sceneExists = false;
-    if (ivanResponse.getNumRecords() > 0
-        && ivanResponse.getErrorCode() == 100) {
-      sceneExists = true;
-      logger.debug("Existing Scene found in Crazy Ivan");
-      // Set the key on the input scene to the key from the response
-      String ivanRespKey = ivanResponse.getSceneList()[0].getKey();
-      if (ivanRespKey != null && !ivanRespKey.isEmpty()) {
-        inpScene.setKey(ivanRespKey);
-        logger.debug("Ivan Response Key: " + ivanRespKey);
-      }
-    }
-
-    // Update the scene
-    inpScene.setName(name);
-    SceneList updateResponse = saveScene(inpScene, sceneExists);
-
-    // If we have a successful response, then we pull the first value
-    if (updateResponse.getNumRecords() > 0
-        && updateResponse.getErrorCode() == 100) {
-      returnScn = updateResponse.getSceneList()[0];
-      returnCode = utils.translateDvsError(updateResponse.getErrorCode());
-    } else {
-      returnCode = HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
-      logger.debug("Failure Registered.  Ivan Response Error Code and Length:");
-      logger.debug(ivanResponse.getNumRecords());
-      logger.debug(ivanResponse.getErrorCode());
-    }
-
-    // Set up a response header to return a valid HTTP Response
-    HttpHeaders responseHeaders = new HttpHeaders();
-    responseHeaders.set("Content-Type", "application/json");
-
-    // Create and return the new HTTP Response
-    return new ResponseEntity<Scene>(returnScn, responseHeaders, returnCode);
+    // Find the key of the scene requested, then save it
+    CompletableFuture<SceneList> updateResponse = withSceneKey(name,
+        new Function<String, CompletableFuture<SceneList>>() {
+          @Override
+          public CompletableFuture<SceneList> apply(String ivanKey) {
+            // If we have a key, then the scene exists
+            boolean sceneExists = false;
+            if (ivanKey != null) {
+              sceneExists = true;
+              logger.debug("Existing Scene Key: " + ivanKey);
+              inpScene.setKey(ivanKey);
+            }
+
+            // Update the scene
+            inpScene.setName(name);
+            return saveScene(inpScene, sceneExists);
+          }
+        });
+    return responses.defer(toResponse(updateResponse));
   }
 
   /**
@@ -166,90 +270,100 @@ public class SceneController {
   * Scene name input as path variable, no Request Parameters accepted.
   */
   @RequestMapping(path = "/{name}", method = RequestMethod.DELETE)
-  public ResponseEntity<Scene> deleteScene(@PathVariable("name") String name) {
+  public DeferredResult<ResponseEntity<Scene>> deleteScene(
+      @PathVariable("name") String name) {
     logger.info("Responding to Scene Delete Request");
-    Scene returnScn = new Scene();
-    HttpStatus returnCode = HttpStatus.OK;
-
-    // See if we can find the scene requested
-    // We need to find the key in order to delete the scene
-    SceneList ivanResponse = scnData.get(name);
-
-    // If we have a successful response, then the scene exists
-    boolean sceneExists = false;
-    String ivanRespKey = null;
-    if (ivanResponse.getNumRecords() > 0
-        && ivanResponse.getErrorCode() == 100) {
-      sceneExists = true;
-      // Set the key on the input scene to the key from the response
-      ivanRespKey = ivanResponse.getSceneList()[0].getKey();
-      returnCode = utils.translateDvsError(ivanResponse.getErrorCode());
-      if (ivanRespKey != null && !ivanRespKey.isEmpty()) {
-        sceneExists = true;
-        logger.debug("Existing Scene found in Crazy Ivan");
-      }
-    }
 
-    // Delete the scene
-    SceneList deleteResponse = null;
-    if (sceneExists) {
-      deleteResponse = scnData.destroy(ivanRespKey);
-    }
-
-    // If we have a successful response, then we pull the first value
-    if (deleteResponse != null) {
-      if (deleteResponse.getNumRecords() > 0
-          && deleteResponse.getErrorCode() == 100) {
-        returnScn = deleteResponse.getSceneList()[0];
-      } else {
-        returnCode = HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
-        logger.debug("Failure Registered.  Ivan Response Err Code and Length:");
-        logger.debug(ivanResponse.getNumRecords());
-        logger.debug(ivanResponse.getErrorCode());
-      }
-    }
-
-    // Set up a response header to return a valid HTTP Response
-    HttpHeaders responseHeaders = new HttpHeaders();
-    responseHeaders.set("Content-Type", "application/json");
-
-    // Create and return the new HTTP Response
-    return new ResponseEntity<Scene>(returnScn, responseHeaders, returnCode);
+    // Find the key of the scene requested, which we need in order to delete it
+    CompletableFuture<SceneList> ivanDelete = withSceneKey(name,
+        new Function<String, CompletableFuture<SceneList>>() {
+          @Override
+          public CompletableFuture<SceneList> apply(String ivanKey) {
+            if (ivanKey == null) {
+              return CompletableFuture.completedFuture(null);
+            }
+            logger.debug("Existing Scene Key: " + ivanKey);
+            return scnData.destroyAsync(ivanKey);
+          }
+        });
+    CompletableFuture<ResponseEntity<Scene>> deleteResponse = ivanDelete.thenApply(
+        new Function<SceneList, ResponseEntity<Scene>>() {
+          @Override
+          public ResponseEntity<Scene> apply(SceneList ivanResponse) {
+            if (ivanResponse == null) {
+              // Nothing to delete
+              return buildResponse(new Scene(), HttpStatus.OK);
+            }
+            // If we have a successful response, then we pull the first value
+            if (isSuccessResponse(ivanResponse)) {
+              return buildResponse(ivanResponse.getSceneList()[0],
+                  utils.translateDvsError(ivanResponse.getErrorCode()));
+            }
+            logger.debug("Failure Registered.  Ivan Response Err Code and Length:");
+            logger.debug(ivanResponse.getNumRecords());
+            logger.debug(ivanResponse.getErrorCode());
+            return buildResponse(new Scene(), HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+          }
+        });
+    return responses.defer(deleteResponse);
   }
 
   /**
   * Scene Query.
   * No Request Parameters accepted.
   * POST Data read in with scene data.
+  * In pass-through mode, the Scene List is returned exactly as Crazy Ivan sent it.
   */
   @RequestMapping(path = "/data",
       headers = "Content-Type=application/json",
       method = RequestMethod.POST)
-  public ResponseEntity<SceneList> queryScene(@RequestBody Scene inpScene) {
+  public DeferredResult<? extends ResponseEntity<?>> queryScene(@RequestBody Scene inpScene) {
     logger.info("Responding to Scene Query Request");
-    Scene returnScn = new Scene();
-    HttpStatus returnCode = HttpStatus.OK;
 
-    // Send the Scene to Crazy Ivan and get the response
-    SceneList ivanResponse = scnData.query(inpScene);
-
-    // If we have a failure response, then return a failure error code
-    if (ivanResponse.getNumRecords() == 0
-        || ivanResponse.getErrorCode() > 100) {
-      returnCode = HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
-      logger.debug("Failure Registered.  Response Error Code and Length:");
-      logger.debug(ivanResponse.getNumRecords());
-      logger.debug(ivanResponse.getErrorCode());
-    } else {
-      returnCode = utils.translateDvsError(ivanResponse.getErrorCode());
+    if (passthroughEnabled) {
+      CompletableFuture<byte[]> rawQuery = scnData.queryRawAsync(inpScene);
+      CompletableFuture<ResponseEntity<byte[]>> rawResponse = rawQuery.thenApply(
+          new Function<byte[], ResponseEntity<byte[]>>() {
+            @Override
+            public ResponseEntity<byte[]> apply(byte[] ivanResponse) {
+              // Choose the response code from the error code and length alone
+              MessageSummary summary = summarize(ivanResponse);
+              HttpStatus returnCode = HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
+              if (summary == null) {
+                returnCode = HttpStatus.INTERNAL_SERVER_ERROR;
+              } else if (summary.getNumRecords() > 0 && summary.getErrorCode() <= 100) {
+                returnCode = utils.translateDvsError(summary.getErrorCode());
+              } else {
+                logger.debug("Failure Registered.  Response Error Code and Length:");
+                logger.debug(summary.getNumRecords());
+                logger.debug(summary.getErrorCode());
+              }
+              return buildResponse(ivanResponse, returnCode);
+            }
+          });
+      return responses.defer(rawResponse);
     }
 
-    // Set up a response header to return a valid HTTP Response
-    HttpHeaders responseHeaders = new HttpHeaders();
-    responseHeaders.set("Content-Type", "application/json");
-
-    // Create and return the new HTTP Response
-    return new ResponseEntity<SceneList>(
-        ivanResponse, responseHeaders, returnCode);
+    // Send the Scene to Crazy Ivan and get the response
+    CompletableFuture<SceneList> ivanQuery = scnData.queryAsync(inpScene);
+    CompletableFuture<ResponseEntity<SceneList>> queryResponse = ivanQuery.thenApply(
+        new Function<SceneList, ResponseEntity<SceneList>>() {
+          @Override
+          public ResponseEntity<SceneList> apply(SceneList ivanResponse) {
+            HttpStatus returnCode = HttpStatus.OK;
+            // If we have a failure response, then return a failure error code
+            if (ivanResponse.getNumRecords() == 0
+                || ivanResponse.getErrorCode() > 100) {
+              returnCode = HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
+              logger.debug("Failure Registered.  Response Error Code and Length:");
+              logger.debug(ivanResponse.getNumRecords());
+              logger.debug(ivanResponse.getErrorCode());
+            } else {
+              returnCode = utils.translateDvsError(ivanResponse.getErrorCode());
+            }
+            return buildResponse(ivanResponse, returnCode);
+          }
+        });
+    return responses.defer(queryResponse);
   }
 }
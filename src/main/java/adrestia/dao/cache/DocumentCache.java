@@ -0,0 +1,170 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* A bounded near cache of documents, by key.
+* Documents are loaded by the caller, which asks for a load token before
+* sending its read, and hands the token back with the document.  Any
+* invalidation in between retires the token, so a read which raced a write
+* never caches what it found.
+* Cached documents are shared between readers, and must not be modified.
+*/
+public class DocumentCache<T> {
+
+  // Name of the service the documents belong to
+  private final String name;
+  // Documents by key
+  private final Cache<String, T> docs;
+  // Bumped on every invalidation, retiring outstanding load tokens
+  private final AtomicLong generation = new AtomicLong(0);
+  // Number of loads which completed, and the nanoseconds they took in total
+  private final AtomicLong loads = new AtomicLong(0);
+  private final AtomicLong loadNanos = new AtomicLong(0);
+
+  /**
+  * DocumentCache constructor.
+  * @param name The Name of the Service the documents belong to
+  * @param maxSize The most documents to keep, least recently used are evicted first
+  * @param ttl How many milliseconds a document is kept after it is loaded
+  */
+  public DocumentCache(String name, long maxSize, long ttl) {
+    this.name = name;
+    this.docs = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+        .recordStats()
+        .build();
+  }
+
+  /**
+  * Get a document.
+  * @param docKey The key of the document
+  * @return The cached document, or null if it isn't cached
+  */
+  public T get(String docKey) {
+    return docs.getIfPresent(docKey);
+  }
+
+  /**
+  * Start loading a document, before the read is sent.
+  * @return A token to hand back to put
+  */
+  public long startLoad() {
+    return generation.get();
+  }
+
+  /**
+  * Cache a loaded document, unless the cache was invalidated while it loaded.
+  * @param docKey The key of the document
+  * @param doc The document
+  * @param token The token returned by startLoad, before the read was sent
+  * @param elapsed How many nanoseconds the load took
+  */
+  public void put(String docKey, T doc, long token, long elapsed) {
+    loads.incrementAndGet();
+    loadNanos.addAndGet(elapsed);
+    if (docKey == null || doc == null) {
+      return;
+    }
+    if (token == generation.get()) {
+      docs.put(docKey, doc);
+      // An invalidation may have slipped in after the check
+      if (token != generation.get()) {
+        docs.invalidate(docKey);
+      }
+    }
+  }
+
+  /**
+  * Forget a document, once it has been written.
+  * @param docKey The key of the document
+  */
+  public void invalidate(String docKey) {
+    generation.incrementAndGet();
+    if (docKey != null) {
+      docs.invalidate(docKey);
+    }
+  }
+
+  /**
+  * Get the name of the service the documents belong to.
+  * @return The Name of the Service
+  */
+  public String getName() {
+    return name;
+  }
+
+  /**
+  * Get the number of reads answered from the cache.
+  * @return The number of reads which found a document
+  */
+  public long getHits() {
+    return docs.stats().hitCount();
+  }
+
+  /**
+  * Get the number of reads which had to go to the service.
+  * @return The number of reads which found no document
+  */
+  public long getMisses() {
+    return docs.stats().missCount();
+  }
+
+  /**
+  * Get the fraction of reads answered from the cache.
+  * @return The hit rate, between 0 and 1
+  */
+  public double getHitRate() {
+    return docs.stats().hitRate();
+  }
+
+  /**
+  * Get the number of documents evicted to stay within the size, or once expired.
+  * @return The number of evictions
+  */
+  public long getEvictions() {
+    return docs.stats().evictionCount();
+  }
+
+  /**
+  * Get the average time taken to load a document from the service.
+  * @return The average load time in milliseconds, or 0 if nothing has loaded
+  */
+  public double getAverageLoadTime() {
+    long count = loads.get();
+    if (count == 0) {
+      return 0.0;
+    }
+    return loadNanos.get() / (count * 1000000.0);
+  }
+
+  /**
+  * Get the number of documents cached.
+  * @return The approximate number of documents in the cache
+  */
+  public long size() {
+    return docs.size();
+  }
+}
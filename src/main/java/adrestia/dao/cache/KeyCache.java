@@ -0,0 +1,122 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+* A bounded cache of the keys of documents, by name.
+* Lets a write learn the key of the document it targets without a query
+* first.  Entries expire a while after they are written, so a key that went
+* stale in another Adrestia instance is only used for so long.
+*/
+public class KeyCache {
+
+  // Name of the service the keys belong to
+  private final String name;
+  // Document keys by name
+  private final Cache<String, String> keys;
+
+  /**
+  * KeyCache constructor.
+  * @param name The Name of the Service the keys belong to
+  * @param maxSize The most keys to keep, least recently used are evicted first
+  * @param ttl How many milliseconds a key is kept after it is written
+  */
+  public KeyCache(String name, long maxSize, long ttl) {
+    this.name = name;
+    this.keys = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+        .recordStats()
+        .build();
+  }
+
+  /**
+  * Get the key of a document.
+  * @param docName The name the document is found by
+  * @return The key of the document, or null if it isn't cached
+  */
+  public String get(String docName) {
+    return keys.getIfPresent(docName);
+  }
+
+  /**
+  * Remember the key of a document.
+  * @param docName The name the document is found by
+  * @param docKey The key of the document
+  */
+  public void put(String docName, String docKey) {
+    if (docName != null && docKey != null && !docKey.isEmpty()) {
+      keys.put(docName, docKey);
+    }
+  }
+
+  /**
+  * Forget the key of a document, by name.
+  * @param docName The name the document is found by
+  */
+  public void invalidate(String docName) {
+    keys.invalidate(docName);
+  }
+
+  /**
+  * Forget a key, whatever name it was cached under.
+  * @param docKey The key of the document
+  */
+  public void invalidateKey(String docKey) {
+    if (docKey != null) {
+      keys.asMap().values().remove(docKey);
+    }
+  }
+
+  /**
+  * Get the name of the service the keys belong to.
+  * @return The Name of the Service
+  */
+  public String getName() {
+    return name;
+  }
+
+  /**
+  * Get the number of lookups answered from the cache.
+  * @return The number of lookups which found a key
+  */
+  public long getHits() {
+    return keys.stats().hitCount();
+  }
+
+  /**
+  * Get the number of lookups which had to go to the service.
+  * @return The number of lookups which found no key
+  */
+  public long getMisses() {
+    return keys.stats().missCount();
+  }
+
+  /**
+  * Get the number of keys cached.
+  * @return The approximate number of keys in the cache
+  */
+  public long size() {
+    return keys.size();
+  }
+}
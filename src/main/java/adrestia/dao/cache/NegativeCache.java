@@ -0,0 +1,148 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package adrestia;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* A short-lived cache of lookups which found nothing, by name.
+* Repeated lookups of a document which doesn't exist yet are answered with
+* the reply cached here, rather than by the service.  As with the
+* DocumentCache, a load token is taken before the lookup is sent, and any
+* invalidation in between retires it, so a lookup which raced a create never
+* caches its miss.
+* Cached replies are shared between readers, and must not be modified.
+*/
+public class NegativeCache<T> {
+
+  // Name of the service the lookups are sent to
+  private final String name;
+  // Replies to lookups which found nothing, by name
+  private final Cache<String, T> misses;
+  // Bumped on every invalidation, retiring outstanding load tokens
+  private final AtomicLong generation = new AtomicLong(0);
+
+  /**
+  * NegativeCache constructor.
+  * @param name The Name of the Service the lookups are sent to
+  * @param maxSize The most misses to keep, least recently used are evicted first
+  * @param ttl How many milliseconds a miss is kept after it is found
+  */
+  public NegativeCache(String name, long maxSize, long ttl) {
+    this.name = name;
+    this.misses = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+        .recordStats()
+        .build();
+  }
+
+  /**
+  * Get the reply to a lookup which found nothing.
+  * @param docName The name the document is looked up by
+  * @return The cached reply, or null if the lookup has to go to the service
+  */
+  public T get(String docName) {
+    return misses.getIfPresent(docName);
+  }
+
+  /**
+  * Start a lookup, before it is sent.
+  * @return A token to hand back to put
+  */
+  public long startLoad() {
+    return generation.get();
+  }
+
+  /**
+  * Cache the reply to a lookup which found nothing, unless the cache was
+  * invalidated while it was in flight.
+  * @param docName The name the document is looked up by
+  * @param reply The reply from the service
+  * @param token The token returned by startLoad, before the lookup was sent
+  */
+  public void put(String docName, T reply, long token) {
+    if (docName == null || reply == null) {
+      return;
+    }
+    if (token == generation.get()) {
+      misses.put(docName, reply);
+      // An invalidation may have slipped in after the check
+      if (token != generation.get()) {
+        misses.invalidate(docName);
+      }
+    }
+  }
+
+  /**
+  * Forget a miss, once a document may have been written under the name.
+  * @param docName The name the document is looked up by
+  */
+  public void invalidate(String docName) {
+    generation.incrementAndGet();
+    if (docName != null) {
+      misses.invalidate(docName);
+    }
+  }
+
+  /**
+  * Forget every miss, once a document may have been written under a name
+  * which isn't known.
+  */
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    misses.invalidateAll();
+  }
+
+  /**
+  * Get the name of the service the lookups are sent to.
+  * @return The Name of the Service
+  */
+  public String getName() {
+    return name;
+  }
+
+  /**
+  * Get the number of lookups answered from the cache.
+  * @return The number of lookups which found a cached miss
+  */
+  public long getHits() {
+    return misses.stats().hitCount();
+  }
+
+  /**
+  * Get the number of lookups which had to go to the service.
+  * @return The number of lookups which found no cached miss
+  */
+  public long getMisses() {
+    return misses.stats().missCount();
+  }
+
+  /**
+  * Get the number of misses cached.
+  * @return The approximate number of misses in the cache
+  */
+  public long size() {
+    return misses.size();
+  }
+}
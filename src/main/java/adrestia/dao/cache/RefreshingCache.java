@@ -0,0 +1,333 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* A bounded cache of documents by name, which serves stale documents while
+* they are refreshed in the background.
+* A document is fresh for a while after it is loaded, then stale for a grace
+* window, during which it is still served while a single refresh runs.
+* Past that it is only served while the service can't be reached, until it
+* expires altogether.
+* Documents are loaded by the caller, which asks for a load token before
+* sending its read, and hands the token back with the document.  Any
+* invalidation in between retires the token, so a read which raced a write
+* never caches what it found.
+*/
+public class RefreshingCache<T> {
+
+  // A cached document, and when it was loaded
+  private static class Entry<T> {
+    // Key of the document
+    private final String docKey;
+    // The document
+    private final T value;
+    // When the document was loaded, from System.nanoTime
+    private final long loadedAt;
+    // Is a refresh of the document running
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    Entry(String docKey, T value) {
+      this.docKey = docKey;
+      this.value = value;
+      this.loadedAt = System.nanoTime();
+    }
+
+    // How many milliseconds ago the document was loaded
+    long age() {
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadedAt);
+    }
+  }
+
+  // Name of the service the documents belong to
+  private final String name;
+  // How many milliseconds a document is fresh for
+  private final long ttl;
+  // How many milliseconds a document may be served stale, while it is refreshed
+  private final long grace;
+  // Documents by name
+  private final Cache<String, Entry<T>> docs;
+  // Bumped on every invalidation, retiring outstanding load tokens
+  private final AtomicLong generation = new AtomicLong(0);
+  // Reads answered with a fresh document, a stale one, or one kept for an outage
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong staleHits = new AtomicLong(0);
+  private final AtomicLong outageHits = new AtomicLong(0);
+  // Reads which had to go to the service, and the background refreshes started
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong refreshes = new AtomicLong(0);
+  // Number of loads which completed, and the nanoseconds they took in total
+  private final AtomicLong loads = new AtomicLong(0);
+  private final AtomicLong loadNanos = new AtomicLong(0);
+
+  /**
+  * RefreshingCache constructor.
+  * @param name The Name of the Service the documents belong to
+  * @param maxSize The most documents to keep, least recently used are evicted first
+  * @param ttl How many milliseconds a document is fresh for
+  * @param grace How many milliseconds a document may be served stale, while it is refreshed
+  * @param outage How many milliseconds a document is kept, to serve while the
+  *     service can't be reached
+  */
+  public RefreshingCache(String name, long maxSize, long ttl, long grace, long outage) {
+    this.name = name;
+    this.ttl = ttl;
+    this.grace = grace;
+    this.docs = CacheBuilder.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(Math.max(outage, ttl + grace), TimeUnit.MILLISECONDS)
+        .recordStats()
+        .build();
+  }
+
+  /**
+  * Get a document, if it may be served.
+  * @param docName The name the document is found by
+  * @param serviceAvailable Can the service be reached.  If not, documents past
+  *     their grace window are served as well
+  * @return The document, or null if it must be loaded
+  */
+  public T get(String docName, boolean serviceAvailable) {
+    Entry<T> entry = docs.getIfPresent(docName);
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    long age = entry.age();
+    if (age < ttl) {
+      hits.incrementAndGet();
+      return entry.value;
+    }
+    if (age < ttl + grace) {
+      staleHits.incrementAndGet();
+      return entry.value;
+    }
+    if (!serviceAvailable) {
+      outageHits.incrementAndGet();
+      return entry.value;
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+  * Get a document only if it is fresh, for reads which must not act on a
+  * stale copy, such as finding the key of a document to write to.
+  * @param docName The name the document is found by
+  * @return The document, or null if it must be loaded
+  */
+  public T getFresh(String docName) {
+    Entry<T> entry = docs.getIfPresent(docName);
+    if (entry == null || entry.age() >= ttl) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return entry.value;
+  }
+
+  /**
+  * Get a document however old it is, when the service failed to answer a read.
+  * @param docName The name the document is found by
+  * @return The document, or null if none is kept
+  */
+  public T getFallback(String docName) {
+    Entry<T> entry = docs.getIfPresent(docName);
+    if (entry == null) {
+      return null;
+    }
+    outageHits.incrementAndGet();
+    return entry.value;
+  }
+
+  /**
+  * Claim the refresh of a stale document.
+  * @param docName The name the document is found by
+  * @return True if the document is stale, and no other refresh is running
+  */
+  public boolean tryRefresh(String docName) {
+    Entry<T> entry = docs.getIfPresent(docName);
+    if (entry == null || entry.age() < ttl || !entry.refreshing.compareAndSet(false, true)) {
+      return false;
+    }
+    refreshes.incrementAndGet();
+    return true;
+  }
+
+  /**
+  * Let another refresh of a document be claimed, after one failed.
+  * @param docName The name the document is found by
+  */
+  public void refreshFailed(String docName) {
+    Entry<T> entry = docs.getIfPresent(docName);
+    if (entry != null) {
+      entry.refreshing.set(false);
+    }
+  }
+
+  /**
+  * Start loading a document, before the read is sent.
+  * @return A token to hand back to put
+  */
+  public long startLoad() {
+    return generation.get();
+  }
+
+  /**
+  * Cache a loaded document, unless the cache was invalidated while it loaded.
+  * @param docName The name the document is found by
+  * @param docKey The key of the document
+  * @param doc The document
+  * @param token The token returned by startLoad, before the read was sent
+  * @param elapsed How many nanoseconds the load took
+  */
+  public void put(String docName, String docKey, T doc, long token, long elapsed) {
+    loads.incrementAndGet();
+    loadNanos.addAndGet(elapsed);
+    if (docName == null || doc == null) {
+      return;
+    }
+    if (token == generation.get()) {
+      docs.put(docName, new Entry<T>(docKey, doc));
+      // An invalidation may have slipped in after the check
+      if (token != generation.get()) {
+        docs.invalidate(docName);
+      }
+    }
+  }
+
+  /**
+  * Forget a document, by name, once it has been written.
+  * @param docName The name the document is found by
+  */
+  public void invalidate(String docName) {
+    generation.incrementAndGet();
+    if (docName != null) {
+      docs.invalidate(docName);
+    }
+  }
+
+  /**
+  * Forget a document which the service no longer has.
+  * @param docName The name the document is found by
+  */
+  public void evict(String docName) {
+    docs.invalidate(docName);
+  }
+
+  /**
+  * Forget a document, by key, once it has been written.
+  * @param docKey The key of the document
+  */
+  public void invalidateKey(String docKey) {
+    generation.incrementAndGet();
+    if (docKey == null) {
+      return;
+    }
+    Iterator<Entry<T>> entries = docs.asMap().values().iterator();
+    while (entries.hasNext()) {
+      if (docKey.equals(entries.next().docKey)) {
+        entries.remove();
+      }
+    }
+  }
+
+  /**
+  * Get the name of the service the documents belong to.
+  * @return The Name of the Service
+  */
+  public String getName() {
+    return name;
+  }
+
+  /**
+  * Get the number of reads answered with a fresh document.
+  * @return The number of fresh hits
+  */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+  * Get the number of reads answered with a stale document, while it was refreshed.
+  * @return The number of stale hits
+  */
+  public long getStaleHits() {
+    return staleHits.get();
+  }
+
+  /**
+  * Get the number of reads answered with a document kept for an outage.
+  * @return The number of reads served while the service couldn't be reached
+  */
+  public long getOutageHits() {
+    return outageHits.get();
+  }
+
+  /**
+  * Get the number of reads which had to go to the service.
+  * @return The number of misses
+  */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+  * Get the number of background refreshes started.
+  * @return The number of refreshes
+  */
+  public long getRefreshes() {
+    return refreshes.get();
+  }
+
+  /**
+  * Get the number of documents evicted to stay within the size, or once expired.
+  * @return The number of evictions
+  */
+  public long getEvictions() {
+    return docs.stats().evictionCount();
+  }
+
+  /**
+  * Get the average time taken to load a document from the service.
+  * @return The average load time in milliseconds, or 0 if nothing has loaded
+  */
+  public double getAverageLoadTime() {
+    long count = loads.get();
+    if (count == 0) {
+      return 0.0;
+    }
+    return loadNanos.get() / (count * 1000000.0);
+  }
+
+  /**
+  * Get the number of documents cached.
+  * @return The approximate number of documents in the cache
+  */
+  public long size() {
+    return docs.size();
+  }
+}
@@ -0,0 +1,286 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.springframework.stereotype.Component;
+
+/**
+* Encodes and decodes the JSON messages exchanged with Crazy Ivan and CLyman.
+* Readers and Writers are built once from a single ObjectMapper, and are
+* immutable and thread-safe, so every transaction shares them along with
+* the serializer caches behind them.
+*/
+@Component
+public class MessageCodec {
+
+  // Shared Object Mapper, which owns the serializer caches
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  // Readers and Writers for each message type
+  private final ObjectReader objectListReader = mapper.readerFor(ObjectList.class);
+  private final ObjectReader objectDocumentReader = mapper.readerFor(ObjectDocument.class);
+  private final ObjectWriter objectListWriter = mapper.writerFor(ObjectList.class);
+  private final ObjectReader sceneListReader = mapper.readerFor(SceneList.class);
+  private final ObjectWriter sceneListWriter = mapper.writerFor(SceneList.class);
+  private final ObjectWriter sceneWriter = mapper.writerFor(Scene.class);
+
+  // Message Codec Logger
+  private static final Logger logger = LogManager.getLogger("adrestia.MessageCodec");
+
+  /**
+  * Default empty MessageCodec constructor.
+  */
+  public MessageCodec() {
+    super();
+  }
+
+  /**
+  * Warm up the serializer caches, so that the first transactions don't pay
+  * for building them.
+  */
+  @PostConstruct
+  public void warmUp() {
+    try {
+      ObjectDocument[] docs = {new ObjectDocument()};
+      readObjectList(writeObjectList(new ObjectList(0, 1, docs, 100, "", "")));
+      Scene scn = new Scene();
+      scn.setDevices(new UserDevice[] {new UserDevice()});
+      Scene[] scns = {scn};
+      readSceneList(writeSceneList(new SceneList(0, scns)));
+    } catch (Exception e) {
+      logger.warn("Error warming up Message Codec: ", e);
+    }
+  }
+
+  /**
+  * Encode an Object List.
+  * @param inpObject The Object List to encode
+  * @return The UTF-8 JSON encoded message
+  */
+  public byte[] writeObjectList(ObjectList inpObject) throws JsonProcessingException {
+    return objectListWriter.writeValueAsBytes(inpObject);
+  }
+
+  /**
+  * Encode an Object List as a String.
+  * @param inpObject The Object List to encode
+  * @return The JSON encoded message
+  */
+  public String writeObjectListAsString(ObjectList inpObject) throws JsonProcessingException {
+    return objectListWriter.writeValueAsString(inpObject);
+  }
+
+  /**
+  * Decode an Object List.
+  * @param msg The UTF-8 JSON encoded message
+  * @return The decoded Object List
+  */
+  public ObjectList readObjectList(byte[] msg) throws IOException {
+    return objectListReader.readValue(msg);
+  }
+
+  /**
+  * Decode an Object List from a String.
+  * @param msg The JSON encoded message
+  * @return The decoded Object List
+  */
+  public ObjectList readObjectList(String msg) throws IOException {
+    return objectListReader.readValue(msg);
+  }
+
+  /**
+  * Decode the envelope of an Object List, leaving the documents encoded
+  * until they are asked for.
+  * @param msg The UTF-8 JSON encoded message
+  * @return The decoded Object List, which decodes its documents on demand
+  */
+  public ObjectList readObjectListLazily(byte[] msg) throws IOException {
+    ObjectList objList = null;
+    int numDocs = 0;
+    int[] docStarts = new int[8];
+    int[] docEnds = new int[8];
+    boolean hasDocs = false;
+    JsonParser parser = mapper.getFactory().createParser(msg);
+    try {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException(parser, "Expected a JSON Object");
+      }
+      int msgType = 0;
+      long numRecords = 0;
+      int errorCode = 0;
+      String errorMessage = null;
+      String transactionId = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String fieldName = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if ("msg_type".equals(fieldName)) {
+          msgType = parser.getValueAsInt();
+        } else if ("num_records".equals(fieldName)) {
+          numRecords = parser.getValueAsLong();
+        } else if ("err_code".equals(fieldName)) {
+          errorCode = parser.getValueAsInt();
+        } else if ("err_msg".equals(fieldName)) {
+          errorMessage = parser.getValueAsString();
+        } else if ("transaction_id".equals(fieldName)) {
+          transactionId = parser.getValueAsString();
+        } else if ("objects".equals(fieldName) && value == JsonToken.START_ARRAY) {
+          // Note where each document starts and ends, without decoding it
+          hasDocs = true;
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            if (numDocs == docStarts.length) {
+              docStarts = Arrays.copyOf(docStarts, numDocs * 2);
+              docEnds = Arrays.copyOf(docEnds, numDocs * 2);
+            }
+            docStarts[numDocs] = (int) parser.getTokenLocation().getByteOffset();
+            parser.skipChildren();
+            docEnds[numDocs] = (int) parser.getCurrentLocation().getByteOffset();
+            numDocs++;
+          }
+          if (parser.getCurrentToken() != JsonToken.END_ARRAY) {
+            throw new JsonParseException(parser, "Expected a JSON Object in objects");
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+      if (hasDocs) {
+        objList = new LazyObjectList(msg, Arrays.copyOf(docStarts, numDocs),
+            Arrays.copyOf(docEnds, numDocs), objectDocumentReader);
+      } else {
+        objList = new ObjectList();
+      }
+      objList.setMsgType(msgType);
+      objList.setNumRecords(numRecords);
+      objList.setErrorCode(errorCode);
+      objList.setErrorMessage(errorMessage);
+      objList.setTransactionId(transactionId);
+    } finally {
+      parser.close();
+    }
+    return objList;
+  }
+
+  /**
+  * Encode a Scene List.
+  * @param inpScene The Scene List to encode
+  * @return The UTF-8 JSON encoded message
+  */
+  public byte[] writeSceneList(SceneList inpScene) throws JsonProcessingException {
+    return sceneListWriter.writeValueAsBytes(inpScene);
+  }
+
+  /**
+  * Encode a Scene List as a String.
+  * @param inpScene The Scene List to encode
+  * @return The JSON encoded message
+  */
+  public String writeSceneListAsString(SceneList inpScene) throws JsonProcessingException {
+    return sceneListWriter.writeValueAsString(inpScene);
+  }
+
+  /**
+  * Decode a Scene List.
+  * @param msg The UTF-8 JSON encoded message
+  * @return The decoded Scene List
+  */
+  public SceneList readSceneList(byte[] msg) throws IOException {
+    return sceneListReader.readValue(msg);
+  }
+
+  /**
+  * Decode a Scene List from a String.
+  * @param msg The JSON encoded message
+  * @return The decoded Scene List
+  */
+  public SceneList readSceneList(String msg) throws IOException {
+    return sceneListReader.readValue(msg);
+  }
+
+  /**
+  * Encode a single Scene.
+  * @param inpScene The Scene to encode
+  * @return The UTF-8 JSON encoded Scene
+  */
+  public byte[] writeScene(Scene inpScene) throws JsonProcessingException {
+    return sceneWriter.writeValueAsBytes(inpScene);
+  }
+
+  /**
+  * Read the Error Code, Number of Records and the position of the first
+  * record from a message with a streaming parser.  Nothing else in the
+  * message is decoded.
+  * @param msg The UTF-8 JSON encoded message
+  * @param listName The name of the field holding the list of records
+  * @return The summary of the message
+  */
+  public MessageSummary summarize(byte[] msg, String listName) throws IOException {
+    int errorCode = 0;
+    long numRecords = 0;
+    int firstRecordStart = -1;
+    int firstRecordEnd = -1;
+    JsonParser parser = mapper.getFactory().createParser(msg);
+    try {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException(parser, "Expected a JSON Object");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String fieldName = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if ("err_code".equals(fieldName)) {
+          errorCode = parser.getValueAsInt();
+        } else if ("num_records".equals(fieldName)) {
+          numRecords = parser.getValueAsLong();
+        } else if (listName.equals(fieldName) && value == JsonToken.START_ARRAY) {
+          // Note where the first record starts and ends, and skip the rest
+          JsonToken element = parser.nextToken();
+          if (element == JsonToken.START_OBJECT) {
+            firstRecordStart = (int) parser.getTokenLocation().getByteOffset();
+            parser.skipChildren();
+            firstRecordEnd = (int) parser.getCurrentLocation().getByteOffset();
+            element = parser.nextToken();
+          }
+          while (element != null && element != JsonToken.END_ARRAY) {
+            parser.skipChildren();
+            element = parser.nextToken();
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+    } finally {
+      parser.close();
+    }
+    return new MessageSummary(msg, errorCode, numRecords, firstRecordStart, firstRecordEnd);
+  }
+}
@@ -0,0 +1,96 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.Arrays;
+
+/**
+* The fields of an encoded message needed to choose an HTTP Response,
+* read without decoding the rest of the message.
+*/
+public class MessageSummary {
+
+  // The encoded message
+  private final byte[] msg;
+  // Error Code and Number of Records from the message
+  private final int errorCode;
+  private final long numRecords;
+  // Byte range of the first record in the message, or -1 if there is none
+  private final int firstRecordStart;
+  private final int firstRecordEnd;
+
+  /**
+  * Complete MessageSummary constructor.
+  * @param msg The encoded message
+  * @param errorCode The Error Code of the message
+  * @param numRecords The Number of Records in the message
+  * @param firstRecordStart The offset of the first record in the message
+  * @param firstRecordEnd The offset just past the end of the first record
+  */
+  public MessageSummary(byte[] msg, int errorCode, long numRecords,
+      int firstRecordStart, int firstRecordEnd) {
+    this.msg = msg;
+    this.errorCode = errorCode;
+    this.numRecords = numRecords;
+    this.firstRecordStart = firstRecordStart;
+    this.firstRecordEnd = firstRecordEnd;
+  }
+
+  /**
+  * Get the encoded message.
+  * @return The encoded message, as it was received
+  */
+  public byte[] getMessage() {
+    return this.msg;
+  }
+
+  /**
+  * Get the Error Code.
+  * @return The Integer Error Code for the message.
+  */
+  public int getErrorCode() {
+    return this.errorCode;
+  }
+
+  /**
+  * Get the Number of Records.
+  * @return The Number of Records reported by the message.
+  */
+  public long getNumRecords() {
+    return this.numRecords;
+  }
+
+  /**
+  * Does the message contain at least one record.
+  * @return True if the first record can be retrieved
+  */
+  public boolean hasFirstRecord() {
+    return this.firstRecordStart >= 0;
+  }
+
+  /**
+  * Get the first record of the message, still encoded.
+  * @return The encoded first record, or null if there is none
+  */
+  public byte[] getFirstRecord() {
+    if (!hasFirstRecord()) {
+      return null;
+    }
+    return Arrays.copyOfRange(msg, firstRecordStart, firstRecordEnd);
+  }
+}
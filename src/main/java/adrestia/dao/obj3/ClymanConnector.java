@@ -21,30 +21,107 @@ import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.stereotype.Component;
 
+import org.zeromq.ZMQ;
+
 /**
 * Dao Implementation for Object Documents using Clyman.
+* Blocking methods wait on their Async counterparts.
+* The keys of Objects are cached by Scene and name, so that writes by name
+* don't need to query for the key first.  Objects read by key, or looked up by
+* Scene and name, are cached as well, and dropped whenever they are written
+* through this connector.  Lookups by Scene and name which find nothing are
+* remembered briefly, until an Object is created or updated under that name.
+* Creates and updates may be gathered into multi-document messages.
 */
 @Component
-public class ClymanConnector implements ObjectDao {
+public class ClymanConnector implements ObjectDao, PublicMetrics {
+
+  // Sends messages, collapsing identical reads which are in flight together
+  @Autowired
+  RequestCoalescer requests;
 
+  // Shared JSON Message Codec
   @Autowired
-  ZmqConnection zmqConn;
+  MessageCodec codec;
+
+  // ZMQ Reactor, whose timer sends batched writes
+  @Autowired
+  ZmqReactor reactor;
 
   // How many retries should we attempt prior to reporting a failure
   @Value("${server.zmq.retries}")
   private int requestRetries;
-  // How many milliseconds to wait for a reply
+  // How many milliseconds to wait for a reply, at most
   @Value("${server.zmq.timeout}")
   private int requestTimeout;
+  // Cache the keys of Objects by Scene and name
+  @Value("${server.cache.keys.enabled}")
+  private boolean keyCacheEnabled;
+  // The most keys to cache
+  @Value("${server.cache.keys.size}")
+  private long keyCacheSize;
+  // How many milliseconds a key is cached for
+  @Value("${server.cache.keys.ttl}")
+  private long keyCacheTtl;
+
+  // Cache Objects read from Clyman
+  @Value("${server.cache.objects.enabled}")
+  private boolean docCacheEnabled;
+  // The most Objects to cache
+  @Value("${server.cache.objects.size}")
+  private long docCacheSize;
+  // How many milliseconds an Object is cached for
+  @Value("${server.cache.objects.ttl}")
+  private long docCacheTtl;
+
+  // Remember lookups by Scene and name which found no Object
+  @Value("${server.cache.misses.enabled}")
+  private boolean missCacheEnabled;
+  // The most lookups to remember
+  @Value("${server.cache.misses.size}")
+  private long missCacheSize;
+  // How many milliseconds a lookup which found nothing is remembered for
+  @Value("${server.cache.misses.ttl}")
+  private long missCacheTtl;
+
+  // Gather creates and updates into multi-document messages
+  @Value("${server.objects.batch.enabled}")
+  private boolean writeBatchEnabled;
+  // The most documents to send in one message
+  @Value("${server.objects.batch.size}")
+  private int writeBatchSize;
+  // How many milliseconds to wait for more documents before sending
+  @Value("${server.objects.batch.window}")
+  private long writeBatchWindow;
+
+  // Object Keys by Scene and name, or null if they aren't cached
+  private KeyCache keyCache = null;
+  // Objects by key, or null if they aren't cached
+  private DocumentCache<ObjectDocument> docCache = null;
+  // Error Codes of lookups by Scene and name which found nothing, or null if
+  // they aren't cached
+  private NegativeCache<Integer> missCache = null;
+  // Gathers creates and updates into batches, or null if they are sent on their own
+  private ObjectWriteBatcher writeBatcher = null;
 
   // Clyman Connection Logger
   private static final Logger logger =
@@ -57,33 +134,218 @@ public class ClymanConnector implements ObjectDao {
     super();
   }
 
-  // Send a message to Clyman, return the response.
-  private ObjectList transaction(ObjectList inpObject) {
-    // Set up a default return ObjectDocument List
+  /**
+  * Set up the Key, Document and Miss Caches, and the Write Batcher, if they
+  * are enabled.
+  */
+  @PostConstruct
+  public void start() {
+    if (keyCacheEnabled) {
+      keyCache = new KeyCache("Clyman", keyCacheSize, keyCacheTtl);
+    }
+    if (docCacheEnabled) {
+      docCache = new DocumentCache<ObjectDocument>("Clyman", docCacheSize, docCacheTtl);
+    }
+    if (missCacheEnabled) {
+      missCache = new NegativeCache<Integer>("Clyman", missCacheSize, missCacheTtl);
+    }
+    if (writeBatchEnabled) {
+      Function<ObjectList, CompletableFuture<ObjectList>> sender =
+          new Function<ObjectList, CompletableFuture<ObjectList>>() {
+            @Override
+            public CompletableFuture<ObjectList> apply(ObjectList batch) {
+              return transactionAsync(batch);
+            }
+          };
+      writeBatcher = new ObjectWriteBatcher(sender, reactor, writeBatchSize, writeBatchWindow);
+    }
+  }
+
+  // The name an Object's key is cached under.  The length of the Scene name
+  // keeps Scene and Object names from running into each other
+  private static String cacheName(String sceneName, String objName) {
+    return sceneName.length() + ":" + sceneName + objName;
+  }
+
+  // Determine if a response from Clyman holds at least one document
+  private static boolean isSuccessResponse(ObjectList clymanResponse) {
+    return clymanResponse.getNumRecords() > 0 && clymanResponse.getErrorCode() == 100;
+  }
+
+  // Determine if a response from Clyman found nothing, as opposed to failing
+  private static boolean isMissResponse(ObjectList clymanResponse) {
+    return clymanResponse.getErrorCode() == 102
+        || (clymanResponse.getErrorCode() == 100 && clymanResponse.getNumRecords() == 0);
+  }
+
+  // Forget any lookup which found nothing under the name an Object is written with
+  private void forgetMiss(ObjectDocument inpObject) {
+    if (inpObject.getScene() != null && inpObject.getName() != null) {
+      missCache.invalidate(cacheName(inpObject.getScene(), inpObject.getName()));
+    } else if (inpObject.getScene() != null || inpObject.getName() != null) {
+      // Part of the name may change, so any miss could be out of date
+      missCache.invalidateAll();
+    }
+  }
+
+  // Cache the key of an Object once it has been created
+  private CompletableFuture<ObjectList> rememberKey(CompletableFuture<ObjectList> response,
+      final ObjectDocument inpObject) {
+    if (keyCache == null || inpObject.getScene() == null || inpObject.getName() == null) {
+      return response;
+    }
+    return response.thenApply(new Function<ObjectList, ObjectList>() {
+      @Override
+      public ObjectList apply(ObjectList clymanResponse) {
+        if (isSuccessResponse(clymanResponse)) {
+          keyCache.put(cacheName(inpObject.getScene(), inpObject.getName()),
+              clymanResponse.getDocument(0).getKey());
+        }
+        return clymanResponse;
+      }
+    });
+  }
+
+  // Determine if a query only looks an Object up by Scene and name
+  private static boolean isNameLookup(ObjectDocument query) {
+    return query.getKey() == null && query.getType() == null && query.getSubtype() == null
+        && query.getOwner() == null && query.getScene() != null && query.getName() != null;
+  }
+
+  // Build the response to a read from a cached Object
+  private static ObjectList cachedResponse(ObjectDocument doc, int msgType) {
+    ObjectDocument[] docs = {doc};
+    return new ObjectList(msgType, 1, docs, 100, "", "");
+  }
+
+  // Build the response to a lookup from a cached miss
+  private static ObjectList missResponse(int errorCode, int msgType) {
+    return new ObjectList(msgType, 0, new ObjectDocument[0], errorCode, "", "");
+  }
+
+  // Read from Clyman, caching the Object found if there is exactly one, or
+  // remembering that a lookup by Scene and name found nothing
+  private CompletableFuture<ObjectList> loadAsync(ObjectDocument inpObject, int msgType) {
+    final String missName;
+    if (missCache != null && isNameLookup(inpObject)) {
+      missName = cacheName(inpObject.getScene(), inpObject.getName());
+    } else {
+      missName = null;
+    }
+    if (docCache == null && missName == null) {
+      return crudTransactionAsync(inpObject, msgType);
+    }
+    final long token = docCache == null ? 0 : docCache.startLoad();
+    final long missToken = missName == null ? 0 : missCache.startLoad();
+    final long start = System.nanoTime();
+    return crudTransactionAsync(inpObject, msgType).thenApply(
+        new Function<ObjectList, ObjectList>() {
+          @Override
+          public ObjectList apply(ObjectList clymanResponse) {
+            if (missName != null && isMissResponse(clymanResponse)) {
+              missCache.put(missName, clymanResponse.getErrorCode(), missToken);
+            } else if (docCache != null && clymanResponse.getNumRecords() == 1
+                && clymanResponse.getErrorCode() == 100) {
+              ObjectDocument doc = clymanResponse.getDocument(0);
+              docCache.put(doc.getKey(), doc, token, System.nanoTime() - start);
+              if (keyCache != null && doc.getScene() != null && doc.getName() != null) {
+                keyCache.put(cacheName(doc.getScene(), doc.getName()), doc.getKey());
+              }
+            }
+            return clymanResponse;
+          }
+        });
+  }
+
+  // Write an Object to Clyman.  The Object, and any miss under its name, are
+  // dropped from the caches both before the write is sent and once it is
+  // answered, so that no read which overlapped the write is cached
+  private CompletableFuture<ObjectList> writeAsync(final ObjectDocument inpObject,
+      int msgType) {
+    final String docKey = inpObject.getKey();
+    final boolean dropDoc = docCache != null && docKey != null;
+    if (!dropDoc && missCache == null) {
+      return crudTransactionAsync(inpObject, msgType);
+    }
+    dropObject(inpObject, dropDoc);
+    return crudTransactionAsync(inpObject, msgType).whenComplete(
+        new BiConsumer<ObjectList, Throwable>() {
+          @Override
+          public void accept(ObjectList clymanResponse, Throwable e) {
+            dropObject(inpObject, dropDoc);
+          }
+        });
+  }
+
+  // Drop an Object being written from the Document Cache, and any miss under its name
+  private void dropObject(ObjectDocument inpObject, boolean dropDoc) {
+    if (dropDoc) {
+      docCache.invalidate(inpObject.getKey());
+    }
+    if (missCache != null) {
+      forgetMiss(inpObject);
+    }
+  }
+
+  // Build the default error response for a message
+  private ObjectList errorResponse(ObjectList inpObject) {
     ObjectDocument[] baseReturnObjs = new ObjectDocument[0];
-    ObjectList returnObjectList = new ObjectList(inpObject.getMsgType(),
+    return new ObjectList(inpObject.getMsgType(),
         1, baseReturnObjs, 120, "Error Processing Request", "");
+  }
+
+  // Gets and queries only read, so they may be sent to more than one instance
+  private static boolean isRead(int msgType) {
+    return msgType == 2 || msgType == 4;
+  }
 
+  // Send a message to Clyman, return a future response.
+  // Any failure other than an exceeded deadline completes the future with the
+  // default error response.
+  private CompletableFuture<ObjectList> transactionAsync(final ObjectList inpObject) {
     // Send the information to Clyman
     try {
       // Construct our JSON from the ObjectDocument List
-      ObjectMapper mapper = new ObjectMapper();
-      String clymanMsg = mapper.writeValueAsString(inpObject);
-      logger.debug("Clyman Message: " + clymanMsg);
+      byte[] clymanMsg = codec.writeObjectList(inpObject);
+      if (logger.isDebugEnabled()) {
+        logger.debug("Clyman Message: " + new String(clymanMsg, ZMQ.CHARSET));
+      }
 
       // Send the message to Clyman
-      String replyString =
-          zmqConn.send(clymanMsg, requestTimeout, requestRetries, "Clyman");
-      logger.debug("Clyman Response: " + replyString);
-
-      // Convert the Response back to a ObjectDocument List
-      if (replyString != null) {
-        returnObjectList = mapper.readValue(replyString, ObjectList.class);
-      }
+      return requests.sendAsync(new ZmqRequest(clymanMsg, inpObject.getMsgType(),
+          requestTimeout, requestRetries, "Clyman", isRead(inpObject.getMsgType()),
+          RequestDeadline.current()))
+          .thenApply(new Function<byte[], ObjectList>() {
+            @Override
+            public ObjectList apply(byte[] reply) {
+              if (logger.isDebugEnabled() && reply != null) {
+                logger.debug("Clyman Response: " + new String(reply, ZMQ.CHARSET));
+              }
+              // Convert the Response back to a ObjectDocument List
+              if (reply != null) {
+                try {
+                  return codec.readObjectListLazily(reply);
+                } catch (Exception e) {
+                  logger.error("Error Retrieving Value from Clyman: ", e);
+                }
+              }
+              return errorResponse(inpObject);
+            }
+          }).exceptionally(new Function<Throwable, ObjectList>() {
+            @Override
+            public ObjectList apply(Throwable e) {
+              if (DeadlineExceededException.isCauseOf(e)) {
+                // Out of time, so let the controller answer with a Gateway Timeout
+                throw new CompletionException(e);
+              }
+              logger.error("Error Retrieving Value from Clyman: ", e);
+              return errorResponse(inpObject);
+            }
+          });
     } catch (Exception e) {
       logger.error("Error Retrieving Value from Clyman: ", e);
     }
-    return returnObjectList;
+    return CompletableFuture.completedFuture(errorResponse(inpObject));
   }
 
   // Convenience method to turn a ObjectDocument into a ObjectDocument List
@@ -92,19 +354,22 @@ public class ClymanConnector implements ObjectDao {
     return new ObjectList(msgType, 1, baseInpScns, 100, "", "");
   }
 
-  // Execute a CRUD Transaction with Clyman
-  private ObjectList crudTransaction(ObjectDocument inpObject, int msgType) {
-    // Construct a ObjectDocument List, which we will then convert to JSON
-    ObjectList inpObjectList = buildObjectList(inpObject, msgType);
-    // Send the ObjectDocument List to Clyman and get the response
-    return transaction(inpObjectList);
+  // Execute a CRUD Transaction with Clyman, without blocking.  Creates and
+  // updates are batched, if enabled
+  private CompletableFuture<ObjectList> crudTransactionAsync(ObjectDocument inpObject,
+      int msgType) {
+    if (writeBatcher != null && (msgType == 0 || msgType == 1)) {
+      return writeBatcher.submit(inpObject, msgType);
+    }
+    return transactionAsync(buildObjectList(inpObject, msgType));
   }
 
-  private ObjectList lockTransaction(String docKey, String ownerKey, int msgType) {
+  // Build the document for a lock or unlock message
+  private ObjectDocument buildLockDocument(String docKey, String ownerKey) {
     ObjectDocument msgDocument = new ObjectDocument();
     msgDocument.setKey(docKey);
     msgDocument.setOwner(ownerKey);
-    return crudTransaction(msgDocument, msgType);
+    return msgDocument;
   }
 
   /**
@@ -112,7 +377,7 @@ public class ClymanConnector implements ObjectDao {
   */
   @Override
   public ObjectList create(ObjectDocument inpObject) {
-    return crudTransaction(inpObject, 0);
+    return createAsync(inpObject).join();
   }
 
   /**
@@ -120,7 +385,7 @@ public class ClymanConnector implements ObjectDao {
   */
   @Override
   public ObjectList update(ObjectDocument inpObject) {
-    return crudTransaction(inpObject, 1);
+    return updateAsync(inpObject).join();
   }
 
   /**
@@ -128,9 +393,7 @@ public class ClymanConnector implements ObjectDao {
   */
   @Override
   public ObjectList get(String docKey) {
-    ObjectDocument obj = new ObjectDocument();
-    obj.setKey(docKey);
-    return crudTransaction(obj, 2);
+    return getAsync(docKey).join();
   }
 
   /**
@@ -138,9 +401,7 @@ public class ClymanConnector implements ObjectDao {
   */
   @Override
   public ObjectList destroy(String docKey) {
-    ObjectDocument obj = new ObjectDocument();
-    obj.setKey(docKey);
-    return crudTransaction(obj, 3);
+    return destroyAsync(docKey).join();
   }
 
   /**
@@ -148,7 +409,7 @@ public class ClymanConnector implements ObjectDao {
   */
   @Override
   public ObjectList query(ObjectDocument inpObject) {
-    return crudTransaction(inpObject, 4);
+    return queryAsync(inpObject).join();
   }
 
   /**
@@ -156,7 +417,7 @@ public class ClymanConnector implements ObjectDao {
   */
   @Override
   public ObjectList lock(String docKey, String ownerKey) {
-    return lockTransaction(docKey, ownerKey, 5);
+    return lockAsync(docKey, ownerKey).join();
   }
 
   /**
@@ -164,7 +425,185 @@ public class ClymanConnector implements ObjectDao {
   */
   @Override
   public ObjectList unlock(String docKey, String ownerKey) {
-    return lockTransaction(docKey, ownerKey, 6);
+    return unlockAsync(docKey, ownerKey).join();
+  }
+
+  /**
+  * Create an ObjectDocument, without blocking.
+  */
+  @Override
+  public CompletableFuture<ObjectList> createAsync(ObjectDocument inpObject) {
+    return rememberKey(writeAsync(inpObject, 0), inpObject);
+  }
+
+  /**
+  * Update an ObjectDocument, without blocking.
+  */
+  @Override
+  public CompletableFuture<ObjectList> updateAsync(ObjectDocument inpObject) {
+    return writeAsync(inpObject, 1);
+  }
+
+  /**
+  * Retrieve an ObjectDocument, without blocking.
+  */
+  @Override
+  public CompletableFuture<ObjectList> getAsync(String docKey) {
+    if (docCache != null) {
+      ObjectDocument doc = docCache.get(docKey);
+      if (doc != null) {
+        return CompletableFuture.completedFuture(cachedResponse(doc, 2));
+      }
+    }
+    ObjectDocument obj = new ObjectDocument();
+    obj.setKey(docKey);
+    return loadAsync(obj, 2);
+  }
+
+  /**
+  * Remove an ObjectDocument, without blocking.
+  */
+  @Override
+  public CompletableFuture<ObjectList> destroyAsync(final String docKey) {
+    ObjectDocument obj = new ObjectDocument();
+    obj.setKey(docKey);
+    if (keyCache == null) {
+      return writeAsync(obj, 3);
+    }
+    keyCache.invalidateKey(docKey);
+    return writeAsync(obj, 3).thenApply(new Function<ObjectList, ObjectList>() {
+      @Override
+      public ObjectList apply(ObjectList clymanResponse) {
+        // Forget the key again, in case a lookup cached it while the delete was in flight
+        keyCache.invalidateKey(docKey);
+        return clymanResponse;
+      }
+    });
+  }
+
+  /**
+  * Query for one or more Objects, without blocking.
+  */
+  @Override
+  public CompletableFuture<ObjectList> queryAsync(ObjectDocument inpObject) {
+    if (!isNameLookup(inpObject)) {
+      return crudTransactionAsync(inpObject, 4);
+    }
+    String cacheName = cacheName(inpObject.getScene(), inpObject.getName());
+    if (missCache != null) {
+      Integer errorCode = missCache.get(cacheName);
+      if (errorCode != null) {
+        return CompletableFuture.completedFuture(missResponse(errorCode, 4));
+      }
+    }
+    if (docCache != null && keyCache != null) {
+      // Look the Object up by Scene and name, then by key
+      String docKey = keyCache.get(cacheName);
+      if (docKey != null) {
+        ObjectDocument doc = docCache.get(docKey);
+        if (doc != null && inpObject.getName().equals(doc.getName())
+            && inpObject.getScene().equals(doc.getScene())) {
+          return CompletableFuture.completedFuture(cachedResponse(doc, 4));
+        }
+      }
+    }
+    return loadAsync(inpObject, 4);
+  }
+
+  /**
+  * Lock an ObjectDocument, without blocking.
+  */
+  @Override
+  public CompletableFuture<ObjectList> lockAsync(String docKey, String ownerKey) {
+    return writeAsync(buildLockDocument(docKey, ownerKey), 5);
+  }
+
+  /**
+  * Unlock an ObjectDocument, without blocking.
+  */
+  @Override
+  public CompletableFuture<ObjectList> unlockAsync(String docKey, String ownerKey) {
+    return writeAsync(buildLockDocument(docKey, ownerKey), 6);
   }
 
+  /**
+  * Find the key of an Object by name, without blocking.
+  */
+  @Override
+  public CompletableFuture<String> findKeyAsync(String sceneName, String objName,
+      boolean refresh) {
+    final String cacheName = cacheName(sceneName, objName);
+    if (refresh && missCache != null) {
+      missCache.invalidate(cacheName);
+    }
+    if (keyCache != null) {
+      if (refresh) {
+        keyCache.invalidate(cacheName);
+      } else {
+        String docKey = keyCache.get(cacheName);
+        if (docKey != null) {
+          return CompletableFuture.completedFuture(docKey);
+        }
+      }
+    }
+    // Query Clyman for the key
+    ObjectDocument queryObj = new ObjectDocument();
+    queryObj.setName(objName);
+    queryObj.setScene(sceneName);
+    return queryAsync(queryObj).thenApply(new Function<ObjectList, String>() {
+      @Override
+      public String apply(ObjectList clymanResponse) {
+        if (!isSuccessResponse(clymanResponse)) {
+          return null;
+        }
+        String docKey = clymanResponse.getDocument(0).getKey();
+        if (docKey == null || docKey.isEmpty()) {
+          return null;
+        }
+        if (keyCache != null) {
+          keyCache.put(cacheName, docKey);
+        }
+        return docKey;
+      }
+    });
+  }
+
+  /**
+  * Expose the hits and misses of the Key, Document and Miss Caches, and their sizes.
+  * The number of batched writes sent, and documents in them, are exposed as well.
+  * The Document Cache also reports its evictions and average load time.
+  * @return A set of metrics for each cache
+  */
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+    if (keyCache != null) {
+      String prefix = "adrestia.cache.keys." + keyCache.getName() + ".";
+      metrics.add(new Metric<Long>(prefix + "hits", keyCache.getHits()));
+      metrics.add(new Metric<Long>(prefix + "misses", keyCache.getMisses()));
+      metrics.add(new Metric<Long>(prefix + "size", keyCache.size()));
+    }
+    if (docCache != null) {
+      String prefix = "adrestia.cache.objects." + docCache.getName() + ".";
+      metrics.add(new Metric<Long>(prefix + "hits", docCache.getHits()));
+      metrics.add(new Metric<Long>(prefix + "misses", docCache.getMisses()));
+      metrics.add(new Metric<Double>(prefix + "hitRate", docCache.getHitRate()));
+      metrics.add(new Metric<Long>(prefix + "evictions", docCache.getEvictions()));
+      metrics.add(new Metric<Double>(prefix + "loadTime", docCache.getAverageLoadTime()));
+      metrics.add(new Metric<Long>(prefix + "size", docCache.size()));
+    }
+    if (missCache != null) {
+      String prefix = "adrestia.cache.misses." + missCache.getName() + ".";
+      metrics.add(new Metric<Long>(prefix + "hits", missCache.getHits()));
+      metrics.add(new Metric<Long>(prefix + "misses", missCache.getMisses()));
+      metrics.add(new Metric<Long>(prefix + "size", missCache.size()));
+    }
+    if (writeBatcher != null) {
+      metrics.add(new Metric<Long>("adrestia.batch.Clyman.batches",
+          writeBatcher.getBatchesSent()));
+      metrics.add(new Metric<Long>("adrestia.batch.Clyman.documents",
+          writeBatcher.getDocumentsSent()));
+    }
+    return metrics;
+  }
 }
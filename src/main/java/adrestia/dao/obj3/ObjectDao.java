@@ -20,10 +20,14 @@ package adrestia;
 import adrestia.ObjectDocument;
 import adrestia.ObjectList;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.springframework.stereotype.Service;
 
 /**
 * Data Access for Objects.
+* Each method has an Async variant, which returns a future instead of
+* blocking the calling thread.
 */
 @Service
 public interface ObjectDao {
@@ -75,4 +79,64 @@ public interface ObjectDao {
   * @return  A ObjectList object, returned from the service implementing the DAO
   */
   public ObjectList unlock(String docKey, String ownerKey);
+
+  /**
+  * Create a ObjectDocument, without blocking.
+  * @param inpDocument A ObjectDocument Object to create
+  * @return  A future ObjectList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<ObjectList> createAsync(ObjectDocument inpDocument);
+
+  /**
+  * Update a ObjectDocument, without blocking.
+  * @param inpDocument A ObjectDocument Object to save
+  * @return  A future ObjectList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<ObjectList> updateAsync(ObjectDocument inpDocument);
+
+  /**
+  * Retrieve a ObjectDocument, without blocking.
+  * @param docKey The key of the doc to retrieve
+  * @return  A future ObjectList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<ObjectList> getAsync(String docKey);
+
+  /**
+  * Remove a ObjectDocument, without blocking.
+  * @param docKey The key of the ObjectDocument to destroy
+  * @return  A future ObjectList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<ObjectList> destroyAsync(String docKey);
+
+  /**
+  * Query for one or more Objects, without blocking.
+  * @param inpDocument A ObjectDocument Object, whos fields represent the desired query
+  * @return  A future ObjectList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<ObjectList> queryAsync(ObjectDocument inpDocument);
+
+  /**
+  * Lock a ObjectDocument, without blocking.
+  * @param docKey The name of the doc to get a lock on
+  * @return  A future ObjectList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<ObjectList> lockAsync(String docKey, String ownerKey);
+
+  /**
+  * Unlock a ObjectDocument, without blocking.
+  * @param docKey The name of the doc to release a lock on
+  * @return  A future ObjectList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<ObjectList> unlockAsync(String docKey, String ownerKey);
+
+  /**
+  * Find the key of an Object by name, without blocking.
+  * The key is served from a cache when it can be, and queried for otherwise.
+  * @param sceneName The name of the Scene the Object belongs to
+  * @param objName The name of the Object
+  * @param refresh Query for the key, even if it is cached
+  * @return  A future key, completed with null if no Object is found
+  */
+  public CompletableFuture<String> findKeyAsync(String sceneName, String objName,
+      boolean refresh);
 }
@@ -0,0 +1,211 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package adrestia;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+* Buffers updates to Objects, and sends only the latest update to each Object
+* once a short window has passed (last writer wins).
+* An Object has at most one update in flight to Clyman, and at most one sent
+* per window, however often it is updated.  Callers are not told the outcome
+* of the update, so this is only used when server.objects.coalesce.enabled is set.
+*/
+@Component
+public class ObjectUpdateCoalescer implements PublicMetrics {
+
+  // Buffer updates to Objects, rather than sending each one
+  @Value("${server.objects.coalesce.enabled}")
+  private boolean coalesceEnabled;
+  // How many milliseconds to buffer updates to an Object for
+  @Value("${server.objects.coalesce.window}")
+  private long coalesceWindow;
+
+  // DAO Object allowing access to object data
+  @Autowired
+  ObjectDao objData;
+
+  // ZMQ Reactor, whose timer sends the buffered updates
+  @Autowired
+  ZmqReactor reactor;
+
+  // Buffered updates, by Object key
+  private final ConcurrentMap<String, PendingUpdate> pending =
+      new ConcurrentHashMap<String, PendingUpdate>();
+
+  // Number of updates received, sent to Clyman, and which failed
+  private final AtomicLong updatesReceived = new AtomicLong(0);
+  private final AtomicLong updatesSent = new AtomicLong(0);
+  private final AtomicLong updatesFailed = new AtomicLong(0);
+
+  // Object Update Coalescer Logger
+  private static final Logger logger =
+      LogManager.getLogger("adrestia.ObjectUpdateCoalescer");
+
+  /**
+  * The buffered update to a single Object.
+  * Guarded by its own lock, and dropped from the buffer once it has nothing
+  * left to send.
+  */
+  private static class PendingUpdate {
+    // Latest update which hasn't been sent, or null if there is none
+    private ObjectDocument latest = null;
+    // Set while a send is scheduled, or an update is in flight
+    private boolean scheduled = false;
+    private boolean inFlight = false;
+    // Set once dropped from the buffer, after which it takes no more updates
+    private boolean retired = false;
+  }
+
+  /**
+  * Default empty ObjectUpdateCoalescer constructor.
+  */
+  public ObjectUpdateCoalescer() {
+    super();
+  }
+
+  /**
+  * Are updates to Objects buffered.
+  * @return True if updates should be handed to submit, rather than sent
+  */
+  public boolean isEnabled() {
+    return coalesceEnabled;
+  }
+
+  /**
+  * Buffer an update to an Object, replacing any update to it not yet sent.
+  * @param inpObject The updated Object, which must have its key set
+  */
+  public void submit(ObjectDocument inpObject) {
+    final String docKey = inpObject.getKey();
+    updatesReceived.incrementAndGet();
+    while (true) {
+      PendingUpdate update = pending.get(docKey);
+      if (update == null) {
+        update = new PendingUpdate();
+        PendingUpdate existing = pending.putIfAbsent(docKey, update);
+        if (existing != null) {
+          update = existing;
+        }
+      }
+      synchronized (update) {
+        if (update.retired) {
+          // Dropped from the buffer as we found it, so start again
+          continue;
+        }
+        update.latest = inpObject;
+        if (!update.scheduled && !update.inFlight) {
+          update.scheduled = true;
+          schedule(docKey, update);
+        }
+        return;
+      }
+    }
+  }
+
+  // Send the latest update to an Object once the window has passed
+  private void schedule(final String docKey, final PendingUpdate update) {
+    reactor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        send(docKey, update);
+      }
+    }, coalesceWindow);
+  }
+
+  // Send the latest update to an Object.  Any update which arrives while it is
+  // in flight is sent once it is answered, so updates to an Object stay in order
+  private void send(final String docKey, final PendingUpdate update) {
+    final ObjectDocument inpObject;
+    synchronized (update) {
+      inpObject = update.latest;
+      update.latest = null;
+      update.scheduled = false;
+      update.inFlight = true;
+    }
+    updatesSent.incrementAndGet();
+    try {
+      objData.updateAsync(inpObject).whenComplete(new BiConsumer<ObjectList, Throwable>() {
+        @Override
+        public void accept(ObjectList clymanResponse, Throwable e) {
+          if (e != null || clymanResponse == null || clymanResponse.getErrorCode() != 100) {
+            reportFailure(inpObject, e);
+          }
+          sent(docKey, update);
+        }
+      });
+    } catch (RuntimeException e) {
+      reportFailure(inpObject, e);
+      sent(docKey, update);
+    }
+  }
+
+  // Once an update is answered, send the next or drop the Object from the buffer
+  private void sent(String docKey, PendingUpdate update) {
+    synchronized (update) {
+      update.inFlight = false;
+      if (update.latest != null) {
+        update.scheduled = true;
+        schedule(docKey, update);
+        return;
+      }
+      update.retired = true;
+      pending.remove(docKey, update);
+    }
+  }
+
+  // Nobody is waiting on the update, so log the failure and look up the key of
+  // the Object again, in case the update failed on a stale key
+  private void reportFailure(ObjectDocument inpObject, Throwable e) {
+    updatesFailed.incrementAndGet();
+    logger.warn("Coalesced update to Object " + inpObject.getKey() + " failed", e);
+    if (inpObject.getScene() != null && inpObject.getName() != null) {
+      objData.findKeyAsync(inpObject.getScene(), inpObject.getName(), true);
+    }
+  }
+
+  /**
+  * Expose the number of updates received and sent, failed, and Objects buffered.
+  * @return The update coalescing metrics
+  */
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+    metrics.add(new Metric<Long>("adrestia.coalesce.updates.received", updatesReceived.get()));
+    metrics.add(new Metric<Long>("adrestia.coalesce.updates.sent", updatesSent.get()));
+    metrics.add(new Metric<Long>("adrestia.coalesce.updates.failed", updatesFailed.get()));
+    metrics.add(new Metric<Integer>("adrestia.coalesce.updates.pending", pending.size()));
+    return metrics;
+  }
+}
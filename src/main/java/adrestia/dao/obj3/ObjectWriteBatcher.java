@@ -0,0 +1,218 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package adrestia;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+* Gathers creates and updates made at about the same time into a single
+* multi-document Object List, and splits the reply back to each caller.
+* A batch is sent once its window has passed, or once it is full.  The reply
+* is only split if it holds one document for each document sent; otherwise
+* every caller in the batch gets its Error Code.
+*/
+public class ObjectWriteBatcher {
+
+  // Sends a batch, and decodes its reply
+  private final Function<ObjectList, CompletableFuture<ObjectList>> sender;
+  // ZMQ Reactor, whose timer sends batches once their window has passed
+  private final ZmqReactor reactor;
+  // Most documents in a batch
+  private final int maxSize;
+  // How many milliseconds a batch waits for more documents
+  private final long window;
+
+  // Batches still taking documents, by Message Type.  Guarded by this
+  private final Map<Integer, Batch> openBatches = new HashMap<Integer, Batch>();
+
+  // Number of batches and documents sent
+  private final AtomicLong batchesSent = new AtomicLong(0);
+  private final AtomicLong docsSent = new AtomicLong(0);
+
+  /**
+  * Documents of a single Message Type, and the callers waiting on them.
+  */
+  private static class Batch {
+    private final int msgType;
+    private final List<ObjectDocument> docs = new ArrayList<ObjectDocument>();
+    private final List<CompletableFuture<ObjectList>> responses =
+        new ArrayList<CompletableFuture<ObjectList>>();
+    private final List<RequestDeadline> deadlines = new ArrayList<RequestDeadline>();
+    // Deadline of the batch, which is the latest of its callers
+    private RequestDeadline deadline = null;
+
+    Batch(int msgType) {
+      this.msgType = msgType;
+    }
+
+    void add(ObjectDocument doc, CompletableFuture<ObjectList> response,
+        RequestDeadline callerDeadline) {
+      deadline = docs.isEmpty() ? callerDeadline
+          : RequestDeadline.latest(deadline, callerDeadline);
+      docs.add(doc);
+      responses.add(response);
+      deadlines.add(callerDeadline);
+    }
+  }
+
+  /**
+  * ObjectWriteBatcher constructor.
+  * @param sender Sends an Object List to Clyman, and decodes the reply
+  * @param reactor The ZMQ Reactor, whose timer sends the batches
+  * @param maxSize The most documents to send in a batch
+  * @param window How many milliseconds a batch waits for more documents
+  */
+  public ObjectWriteBatcher(Function<ObjectList, CompletableFuture<ObjectList>> sender,
+      ZmqReactor reactor, int maxSize, long window) {
+    this.sender = sender;
+    this.reactor = reactor;
+    this.maxSize = Math.max(1, maxSize);
+    this.window = window;
+  }
+
+  /**
+  * Add a document to the next batch of its Message Type.
+  * @param inpObject The document to create or update
+  * @param msgType The Message Type of the write
+  * @return A future completed with the reply for this document alone
+  */
+  public CompletableFuture<ObjectList> submit(ObjectDocument inpObject, int msgType) {
+    CompletableFuture<ObjectList> response = new CompletableFuture<ObjectList>();
+    Batch fullBatch = null;
+    synchronized (this) {
+      Batch batch = openBatches.get(msgType);
+      if (batch == null) {
+        batch = new Batch(msgType);
+        openBatches.put(msgType, batch);
+        schedule(batch);
+      }
+      batch.add(inpObject, response, RequestDeadline.current());
+      if (batch.docs.size() >= maxSize) {
+        openBatches.remove(msgType);
+        fullBatch = batch;
+      }
+    }
+    if (fullBatch != null) {
+      send(fullBatch);
+    }
+    return response;
+  }
+
+  // Send a batch once its window has passed, unless it filled up first
+  private void schedule(final Batch batch) {
+    reactor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (ObjectWriteBatcher.this) {
+          if (openBatches.get(batch.msgType) != batch) {
+            return;
+          }
+          openBatches.remove(batch.msgType);
+        }
+        send(batch);
+      }
+    }, window);
+  }
+
+  // Send a batch within its deadline, then split the reply between its callers
+  private void send(final Batch batch) {
+    batchesSent.incrementAndGet();
+    docsSent.addAndGet(batch.docs.size());
+    ObjectDocument[] docs = batch.docs.toArray(new ObjectDocument[batch.docs.size()]);
+    final ObjectList batchMsg = new ObjectList(batch.msgType, docs.length, docs, 100, "", "");
+    RequestDeadline.runWithin(batch.deadline, new Runnable() {
+      @Override
+      public void run() {
+        CompletableFuture<ObjectList> reply;
+        try {
+          reply = sender.apply(batchMsg);
+        } catch (RuntimeException e) {
+          reply = new CompletableFuture<ObjectList>();
+          reply.completeExceptionally(e);
+        }
+        reply.whenComplete(new BiConsumer<ObjectList, Throwable>() {
+          @Override
+          public void accept(ObjectList clymanResponse, Throwable e) {
+            split(batch, clymanResponse, e);
+          }
+        });
+      }
+    });
+  }
+
+  // Hand each caller its part of the reply, within its own deadline
+  private void split(Batch batch, ObjectList clymanResponse, final Throwable err) {
+    int size = batch.responses.size();
+    ObjectDocument[] replyDocs = null;
+    if (err == null && size > 1 && clymanResponse.getErrorCode() == 100
+        && clymanResponse.getNumRecords() == size) {
+      replyDocs = clymanResponse.getDocuments();
+    }
+    for (int i = 0; i < size; i++) {
+      final CompletableFuture<ObjectList> response = batch.responses.get(i);
+      final ObjectList result;
+      if (err != null || size == 1) {
+        result = clymanResponse;
+      } else if (replyDocs != null && replyDocs.length == size) {
+        ObjectDocument[] doc = {replyDocs[i]};
+        result = new ObjectList(batch.msgType, 1, doc, 100, "",
+            clymanResponse.getTransactionId());
+      } else {
+        // The reply can't be matched to the documents sent
+        int errorCode = clymanResponse.getErrorCode() == 100 ? 120
+            : clymanResponse.getErrorCode();
+        result = new ObjectList(batch.msgType, 0, new ObjectDocument[0], errorCode,
+            clymanResponse.getErrorMessage(), clymanResponse.getTransactionId());
+      }
+      RequestDeadline.runWithin(batch.deadlines.get(i), new Runnable() {
+        @Override
+        public void run() {
+          if (err != null) {
+            response.completeExceptionally(err);
+          } else {
+            response.complete(result);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+  * Get the number of batches sent.
+  * @return The number of Object Lists sent for batched writes
+  */
+  public long getBatchesSent() {
+    return batchesSent.get();
+  }
+
+  /**
+  * Get the number of documents sent in batches.
+  * @return The number of batched creates and updates sent
+  */
+  public long getDocumentsSent() {
+    return docsSent.get();
+  }
+}
@@ -18,33 +18,110 @@ limitations under the License.
 package adrestia;
 
 import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.stereotype.Component;
 
+import org.zeromq.ZMQ;
+
 /**
 * Dao Implementation for Scene Objects using Crazy Ivan.
+* Blocking methods wait on their Async counterparts.
+* The keys of Scenes are cached by name, so that writes and registrations by
+* name don't need to retrieve the Scene first.  Scenes retrieved by name are
+* cached as well, served stale while they are refreshed in the background,
+* and served however old they are while Crazy Ivan can't be reached.
+* Retrievals which find no Scene are remembered briefly, until a Scene is
+* written under that name.
 */
 @Component
-public class CrazyIvanConnector implements SceneDao {
+public class CrazyIvanConnector implements SceneDao, PublicMetrics {
+
+  // Sends messages, collapsing identical reads which are in flight together
+  @Autowired
+  RequestCoalescer requests;
 
+  // Shared JSON Message Codec
   @Autowired
-  ZmqConnection zmqConn;
+  MessageCodec codec;
+
+  // Service Manager, which knows whether any Crazy Ivan instance can be reached
+  @Autowired
+  ServiceManagerInterface serviceManager;
 
   // How many retries should we attempt prior to reporting a failure
   @Value("${server.zmq.retries}")
   private int requestRetries;
-  // How many milliseconds to wait for a reply
+  // How many milliseconds to wait for a reply, at most
   @Value("${server.zmq.timeout}")
   private int requestTimeout;
+  // Cache the keys of Scenes by name
+  @Value("${server.cache.keys.enabled}")
+  private boolean keyCacheEnabled;
+  // The most keys to cache
+  @Value("${server.cache.keys.size}")
+  private long keyCacheSize;
+  // How many milliseconds a key is cached for
+  @Value("${server.cache.keys.ttl}")
+  private long keyCacheTtl;
+
+  // Cache Scenes retrieved from Crazy Ivan by name
+  @Value("${server.cache.scenes.enabled}")
+  private boolean sceneCacheEnabled;
+  // The most Scenes to cache
+  @Value("${server.cache.scenes.size}")
+  private long sceneCacheSize;
+  // How many milliseconds a Scene is fresh for
+  @Value("${server.cache.scenes.ttl}")
+  private long sceneCacheTtl;
+  // How many milliseconds a stale Scene is served for, while it is refreshed
+  @Value("${server.cache.scenes.grace}")
+  private long sceneCacheGrace;
+  // How many milliseconds a Scene is kept, to serve while Crazy Ivan can't be reached
+  @Value("${server.cache.scenes.outage}")
+  private long sceneCacheOutage;
+
+  // Remember retrievals by name which found no Scene
+  @Value("${server.cache.misses.enabled}")
+  private boolean missCacheEnabled;
+  // The most retrievals to remember
+  @Value("${server.cache.misses.size}")
+  private long missCacheSize;
+  // How many milliseconds a retrieval which found nothing is remembered for
+  @Value("${server.cache.misses.ttl}")
+  private long missCacheTtl;
+
+  // Scene Keys by name, or null if they aren't cached
+  private KeyCache keyCache = null;
+  // Encoded replies to Scene retrievals by name, or null if they aren't cached
+  private RefreshingCache<byte[]> sceneCache = null;
+  // Encoded replies to Scene retrievals by name which found nothing, or null
+  // if they aren't cached
+  private NegativeCache<byte[]> missCache = null;
+
+  // Fallback error response, if the default one cannot be encoded
+  private static final byte[] RAW_ERROR_RESPONSE =
+      "{\"num_records\":1,\"err_code\":120}".getBytes(ZMQ.CHARSET);
 
   // Crazy Ivan Connection Logger
   private static final Logger logger =
@@ -57,33 +134,334 @@ public class CrazyIvanConnector implements SceneDao {
     super();
   }
 
-  // Send a message to Crazy Ivan, return the response.
-  private SceneList transaction(SceneList inpScene) {
-    // Set up a default return Scene List
+  /**
+  * Set up the Key, Scene and Miss Caches, if they are enabled.
+  */
+  @PostConstruct
+  public void start() {
+    if (keyCacheEnabled) {
+      keyCache = new KeyCache("Ivan", keyCacheSize, keyCacheTtl);
+    }
+    if (sceneCacheEnabled) {
+      sceneCache = new RefreshingCache<byte[]>("Ivan", sceneCacheSize, sceneCacheTtl,
+          sceneCacheGrace, sceneCacheOutage);
+    }
+    if (missCacheEnabled) {
+      missCache = new NegativeCache<byte[]>("Ivan", missCacheSize, missCacheTtl);
+    }
+  }
+
+  // Determine if a response from Crazy Ivan holds at least one Scene
+  private static boolean isSuccessResponse(SceneList ivanResponse) {
+    return ivanResponse.getNumRecords() > 0 && ivanResponse.getErrorCode() == 100;
+  }
+
+  // Determine if a response from Crazy Ivan found nothing, as opposed to failing
+  private static boolean isMissResponse(SceneList ivanResponse) {
+    return ivanResponse.getErrorCode() == 102
+        || (ivanResponse.getErrorCode() == 100 && ivanResponse.getNumRecords() == 0);
+  }
+
+  // Cache the key of a Scene once Crazy Ivan has replied with it
+  private CompletableFuture<SceneList> rememberKey(CompletableFuture<SceneList> response,
+      final String sceneName) {
+    if (keyCache == null || sceneName == null) {
+      return response;
+    }
+    return response.thenApply(new Function<SceneList, SceneList>() {
+      @Override
+      public SceneList apply(SceneList ivanResponse) {
+        if (isSuccessResponse(ivanResponse)) {
+          keyCache.put(sceneName, ivanResponse.getSceneList()[0].getKey());
+        }
+        return ivanResponse;
+      }
+    });
+  }
+
+  // Build the default error response for a message
+  private SceneList errorResponse(SceneList inpScene) {
     Scene[] baseReturnScns = new Scene[0];
-    SceneList returnSceneList = new SceneList(inpScene.getMsgType(),
+    return new SceneList(inpScene.getMsgType(),
         1, baseReturnScns, 120, "Error Processing Request", "");
+  }
 
+  // Send a message to Crazy Ivan, return the response.
+  private SceneList transaction(SceneList inpScene) {
+    return transactionAsync(inpScene).join();
+  }
+
+  // Gets and queries only read, so they may be sent to more than one instance
+  private static boolean isRead(int msgType) {
+    return msgType == 2;
+  }
+
+  // Encode a message and send it to Crazy Ivan, return the future raw reply
+  private CompletableFuture<byte[]> sendAsync(SceneList inpScene)
+      throws JsonProcessingException {
+    return sendAsync(inpScene, RequestDeadline.current());
+  }
+
+  // Encode a message and send it to Crazy Ivan within a deadline, return the
+  // future raw reply
+  private CompletableFuture<byte[]> sendAsync(SceneList inpScene, RequestDeadline deadline)
+      throws JsonProcessingException {
+    // Construct our JSON from the Scene List
+    byte[] ivanMsg = codec.writeSceneList(inpScene);
+    if (logger.isDebugEnabled()) {
+      logger.debug("Crazy Ivan Message: " + new String(ivanMsg, ZMQ.CHARSET));
+    }
+    // Send the message to Crazy Ivan
+    return requests.sendAsync(new ZmqRequest(ivanMsg, inpScene.getMsgType(), requestTimeout,
+        requestRetries, "Ivan", isRead(inpScene.getMsgType()), deadline));
+  }
+
+  // Send a message to Crazy Ivan, return a future response.
+  // Any failure other than an exceeded deadline completes the future with the
+  // default error response.
+  private CompletableFuture<SceneList> transactionAsync(SceneList inpScene) {
     // Send the information to Crazy Ivan
     try {
-      // Construct our JSON from the Scene List
-      ObjectMapper mapper = new ObjectMapper();
-      String ivanMsg = mapper.writeValueAsString(inpScene);
-      logger.debug("Crazy Ivan Message: " + ivanMsg);
-
-      // Send the message to Crazy Ivan
-      String replyString =
-          zmqConn.send(ivanMsg, requestTimeout, requestRetries, "Ivan");
-      logger.debug("Crazy Ivan Response: " + replyString);
-
-      // Convert the Response back to a Scene List
-      if (replyString != null) {
-        returnSceneList = mapper.readValue(replyString, SceneList.class);
+      return decodeAsync(sendAsync(inpScene), inpScene);
+    } catch (Exception e) {
+      logger.error("Error Retrieving Value from Crazy Ivan: ", e);
+    }
+    return CompletableFuture.completedFuture(errorResponse(inpScene));
+  }
+
+  // Decode a future reply from Crazy Ivan.
+  // Any failure other than an exceeded deadline completes the future with the
+  // default error response.
+  private CompletableFuture<SceneList> decodeAsync(CompletableFuture<byte[]> ivanReply,
+      final SceneList inpScene) {
+    return ivanReply.thenApply(new Function<byte[], SceneList>() {
+      @Override
+      public SceneList apply(byte[] reply) {
+        if (logger.isDebugEnabled() && reply != null) {
+          logger.debug("Crazy Ivan Response: " + new String(reply, ZMQ.CHARSET));
+        }
+        // Convert the Response back to a Scene List
+        if (reply != null) {
+          try {
+            return codec.readSceneList(reply);
+          } catch (Exception e) {
+            logger.error("Error Retrieving Value from Crazy Ivan: ", e);
+          }
+        }
+        return errorResponse(inpScene);
       }
+    }).exceptionally(new Function<Throwable, SceneList>() {
+      @Override
+      public SceneList apply(Throwable e) {
+        if (DeadlineExceededException.isCauseOf(e)) {
+          // Out of time, so let the controller answer with a Gateway Timeout
+          throw new CompletionException(e);
+        }
+        logger.error("Error Retrieving Value from Crazy Ivan: ", e);
+        return errorResponse(inpScene);
+      }
+    });
+  }
+
+  // Build the default error response for a message, encoded
+  private byte[] rawErrorResponse(SceneList inpScene) {
+    try {
+      return codec.writeSceneList(errorResponse(inpScene));
+    } catch (Exception e) {
+      logger.error("Error Encoding Error Response: ", e);
+    }
+    return RAW_ERROR_RESPONSE;
+  }
+
+  // Send a message to Crazy Ivan, return the future reply without decoding it.
+  // Any failure other than an exceeded deadline completes the future with the
+  // encoded default error response.
+  private CompletableFuture<byte[]> rawTransactionAsync(SceneList inpScene) {
+    try {
+      return rawReplyAsync(sendAsync(inpScene), inpScene);
     } catch (Exception e) {
       logger.error("Error Retrieving Value from Crazy Ivan: ", e);
     }
-    return returnSceneList;
+    return CompletableFuture.completedFuture(rawErrorResponse(inpScene));
+  }
+
+  // Check a future reply from Crazy Ivan, without decoding it.
+  // Any failure other than an exceeded deadline completes the future with the
+  // encoded default error response.
+  private CompletableFuture<byte[]> rawReplyAsync(CompletableFuture<byte[]> ivanReply,
+      final SceneList inpScene) {
+    return ivanReply.thenApply(new Function<byte[], byte[]>() {
+      @Override
+      public byte[] apply(byte[] reply) {
+        if (reply != null) {
+          if (logger.isDebugEnabled()) {
+            logger.debug("Crazy Ivan Response: " + new String(reply, ZMQ.CHARSET));
+          }
+          return reply;
+        }
+        return rawErrorResponse(inpScene);
+      }
+    }).exceptionally(new Function<Throwable, byte[]>() {
+      @Override
+      public byte[] apply(Throwable e) {
+        if (DeadlineExceededException.isCauseOf(e)) {
+          // Out of time, so let the controller answer with a Gateway Timeout
+          throw new CompletionException(e);
+        }
+        logger.error("Error Retrieving Value from Crazy Ivan: ", e);
+        return rawErrorResponse(inpScene);
+      }
+    });
+  }
+
+  // Retrieve a Scene by name, from the Scene or Miss Cache if it may be served
+  // from there.  A stale Scene is served while a single background refresh runs
+  private CompletableFuture<byte[]> readSceneAsync(final String sceneName) {
+    if (missCache != null) {
+      byte[] miss = missCache.get(sceneName);
+      if (miss != null) {
+        return CompletableFuture.completedFuture(miss);
+      }
+    }
+    if (sceneCache == null) {
+      return loadSceneAsync(sceneName, RequestDeadline.current(), false);
+    }
+    boolean ivanAvailable = serviceManager.isAvailable("Ivan");
+    byte[] cached = sceneCache.get(sceneName, ivanAvailable);
+    if (cached == null) {
+      return loadSceneAsync(sceneName, RequestDeadline.current(), true);
+    }
+    if (ivanAvailable && sceneCache.tryRefresh(sceneName)) {
+      logger.debug("Refreshing stale Scene: " + sceneName);
+      // The refresh isn't bound by the deadline of the request which found the Scene stale
+      loadSceneAsync(sceneName, null, false).whenComplete(new BiConsumer<byte[], Throwable>() {
+        @Override
+        public void accept(byte[] reply, Throwable e) {
+          if (reply == null) {
+            sceneCache.refreshFailed(sceneName);
+          }
+        }
+      });
+    }
+    return CompletableFuture.completedFuture(cached);
+  }
+
+  // Retrieve a Scene by name to find its key for a write.  Only a fresh Scene
+  // is taken from the Scene Cache, as a stale or outage copy may hold the key
+  // of a Scene which has since been deleted or replaced
+  private CompletableFuture<byte[]> readFreshSceneAsync(String sceneName) {
+    if (missCache != null) {
+      byte[] miss = missCache.get(sceneName);
+      if (miss != null) {
+        return CompletableFuture.completedFuture(miss);
+      }
+    }
+    byte[] cached = sceneCache.getFresh(sceneName);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    return loadSceneAsync(sceneName, RequestDeadline.current(), false);
+  }
+
+  // Retrieve a Scene by name from Crazy Ivan, caching the reply if it holds the
+  // Scene, or if it found nothing.  If Crazy Ivan can't be reached and fallBack
+  // is set, any cached copy is returned instead, however old it is
+  private CompletableFuture<byte[]> loadSceneAsync(final String sceneName,
+      RequestDeadline deadline, final boolean fallBack) {
+    Scene scn = new Scene();
+    scn.setName(sceneName);
+    final long token = sceneCache == null ? 0 : sceneCache.startLoad();
+    final long missToken = missCache == null ? 0 : missCache.startLoad();
+    final long start = System.nanoTime();
+    CompletableFuture<byte[]> ivanReply;
+    try {
+      ivanReply = sendAsync(buildSceneList(scn, 2), deadline);
+    } catch (Exception e) {
+      ivanReply = new CompletableFuture<byte[]>();
+      ivanReply.completeExceptionally(e);
+    }
+    return ivanReply.handle(new BiFunction<byte[], Throwable, byte[]>() {
+      @Override
+      public byte[] apply(byte[] reply, Throwable e) {
+        if (reply != null) {
+          cacheScene(sceneName, reply, token, missToken, System.nanoTime() - start);
+          return reply;
+        }
+        if (fallBack) {
+          byte[] cached = sceneCache.getFallback(sceneName);
+          if (cached != null) {
+            logger.warn("Crazy Ivan unavailable, serving cached Scene: " + sceneName);
+            return cached;
+          }
+        }
+        if (e instanceof CompletionException) {
+          throw (CompletionException) e;
+        } else if (e != null) {
+          throw new CompletionException(e);
+        }
+        return null;
+      }
+    });
+  }
+
+  // Cache a reply to the retrieval of a Scene by name, or drop the Scene if
+  // Crazy Ivan no longer has it and remember that it found nothing
+  private void cacheScene(String sceneName, byte[] reply, long token, long missToken,
+      long elapsed) {
+    SceneList ivanResponse = null;
+    try {
+      ivanResponse = codec.readSceneList(reply);
+    } catch (Exception e) {
+      logger.error("Error Reading Crazy Ivan Response: ", e);
+      return;
+    }
+    if (isSuccessResponse(ivanResponse)) {
+      if (sceneCache != null) {
+        String sceneKey = ivanResponse.getSceneList()[0].getKey();
+        sceneCache.put(sceneName, sceneKey, reply, token, elapsed);
+        if (keyCache != null) {
+          keyCache.put(sceneName, sceneKey);
+        }
+      }
+      return;
+    }
+    if (sceneCache != null) {
+      sceneCache.evict(sceneName);
+    }
+    if (missCache != null && isMissResponse(ivanResponse)) {
+      missCache.put(sceneName, reply, missToken);
+    }
+  }
+
+  // Send a write to Crazy Ivan.  The Scene, and any miss under its name, are
+  // dropped from the caches both before the write is sent and once it is
+  // answered, so that no retrieval which overlapped the write is cached
+  private CompletableFuture<SceneList> writeAsync(SceneList inpSceneList,
+      final String sceneName, final String sceneKey) {
+    if (sceneCache == null && missCache == null) {
+      return transactionAsync(inpSceneList);
+    }
+    dropScene(sceneName, sceneKey);
+    return transactionAsync(inpSceneList).whenComplete(new BiConsumer<SceneList, Throwable>() {
+      @Override
+      public void accept(SceneList ivanResponse, Throwable e) {
+        dropScene(sceneName, sceneKey);
+      }
+    });
+  }
+
+  // Drop a Scene from the Scene Cache by name and by key, and forget any miss
+  // under its name
+  private void dropScene(String sceneName, String sceneKey) {
+    if (sceneCache != null) {
+      sceneCache.invalidate(sceneName);
+      if (sceneKey != null) {
+        sceneCache.invalidateKey(sceneKey);
+      }
+    }
+    if (missCache != null && sceneName != null) {
+      missCache.invalidate(sceneName);
+    }
   }
 
   // Convenience method to turn a Scene into a Scene List
@@ -100,12 +478,17 @@ public class CrazyIvanConnector implements SceneDao {
     return transaction(inpSceneList);
   }
 
+  // Execute a CRUD Transaction with Crazy Ivan, without blocking
+  private CompletableFuture<SceneList> crudTransactionAsync(Scene inpScene, int msgType) {
+    return transactionAsync(buildSceneList(inpScene, msgType));
+  }
+
   /**
   * Create a Scene.
   */
   @Override
   public SceneList create(Scene inpScene) {
-    return crudTransaction(inpScene, 0);
+    return createAsync(inpScene).join();
   }
 
   /**
@@ -113,7 +496,7 @@ public class CrazyIvanConnector implements SceneDao {
   */
   @Override
   public SceneList update(Scene inpScene) {
-    return crudTransaction(inpScene, 1);
+    return updateAsync(inpScene).join();
   }
 
   /**
@@ -121,9 +504,7 @@ public class CrazyIvanConnector implements SceneDao {
   */
   @Override
   public SceneList get(String sceneName) {
-    Scene scn = new Scene();
-    scn.setName(sceneName);
-    return crudTransaction(scn, 2);
+    return getAsync(sceneName).join();
   }
 
   /**
@@ -131,9 +512,7 @@ public class CrazyIvanConnector implements SceneDao {
   */
   @Override
   public SceneList destroy(String sceneKey) {
-    Scene scn = new Scene();
-    scn.setKey(sceneKey);
-    return crudTransaction(scn, 3);
+    return destroyAsync(sceneKey).join();
   }
 
   /**
@@ -155,6 +534,21 @@ public class CrazyIvanConnector implements SceneDao {
   private SceneList registrationTransaction(String sceneName,
       String deviceId, String deviceHost, int devicePort,
       Transform inpTransform, int registerMsgType) {
+    return registrationTransactionAsync(sceneName, deviceId, deviceHost, devicePort,
+        inpTransform, registerMsgType).join();
+  }
+
+  // Execute a Registration Transaction with Crazy Ivan, without blocking
+  private CompletableFuture<SceneList> registrationTransactionAsync(String sceneName,
+      String deviceId, Transform inpTransform, int registerMsgType) {
+    return registrationTransactionAsync(sceneName, deviceId, "", 999999,
+        inpTransform, registerMsgType);
+  }
+
+  // Execute a Registration Transaction with Crazy Ivan, without blocking
+  private CompletableFuture<SceneList> registrationTransactionAsync(final String sceneName,
+      String deviceId, String deviceHost, int devicePort,
+      Transform inpTransform, final int registerMsgType) {
     logger.debug("Scene Registration Name: " + sceneName);
     logger.debug("Scene Registration Device " + deviceId);
 
@@ -178,16 +572,49 @@ public class CrazyIvanConnector implements SceneDao {
     }
     UserDevice[] devices = {ud};
     // Construct a scene
-    Scene scn = new Scene();
+    final Scene scn = new Scene();
     scn.setName(sceneName);
     scn.setDevices(devices);
-    // Get any existing scenes
-    SceneList existingScenes = get(sceneName);
-    if (existingScenes.getErrorCode() == 100) {
+    // Find the key of any existing scene, then send the registration.
+    // A cached key may have gone stale, so if the registration fails, the key
+    // is looked up again, and the registration retried once if it has changed
+    return findKeyAsync(sceneName, false).thenCompose(
+        new Function<String, CompletableFuture<SceneList>>() {
+          @Override
+          public CompletableFuture<SceneList> apply(final String sceneKey) {
+            return registrationAsync(scn, sceneKey, registerMsgType).thenCompose(
+                new Function<SceneList, CompletableFuture<SceneList>>() {
+                  @Override
+                  public CompletableFuture<SceneList> apply(final SceneList ivanResponse) {
+                    if (sceneKey == null || ivanResponse.getErrorCode() == 100) {
+                      return CompletableFuture.completedFuture(ivanResponse);
+                    }
+                    return findKeyAsync(sceneName, true).thenCompose(
+                        new Function<String, CompletableFuture<SceneList>>() {
+                          @Override
+                          public CompletableFuture<SceneList> apply(String freshKey) {
+                            if (sceneKey.equals(freshKey)) {
+                              return CompletableFuture.completedFuture(ivanResponse);
+                            }
+                            logger.debug("Cached Scene Key was stale, retrying");
+                            return registrationAsync(scn, freshKey, registerMsgType);
+                          }
+                        });
+                  }
+                });
+          }
+        });
+  }
+
+  // Send a registration for a Scene, with the key of the existing scene if there is one
+  private CompletableFuture<SceneList> registrationAsync(Scene scn, String sceneKey,
+      int registerMsgType) {
+    if (sceneKey != null) {
       // We have an existing scene, use the key for it
-      scn.setKey(existingScenes.getSceneList()[0].getKey());
-      logger.debug("Found existing scene: " + existingScenes.getSceneList()[0].getKey());
+      scn.setKey(sceneKey);
+      logger.debug("Found existing scene: " + sceneKey);
     } else {
+      scn.setKey(null);
       logger.debug("Processing Registration without existing scene");
     }
 
@@ -195,7 +622,7 @@ public class CrazyIvanConnector implements SceneDao {
     Scene[] scnArray = {scn};
     SceneList inpSceneList = new SceneList(registerMsgType, scnArray);
     // Send the Scene List to Crazy Ivan and get the response
-    return transaction(inpSceneList);
+    return rememberKey(writeAsync(inpSceneList, scn.getName(), null), scn.getName());
   }
 
   /**
@@ -230,4 +657,206 @@ public class CrazyIvanConnector implements SceneDao {
   public SceneList synchronize(String sceneName, String deviceId, Transform inpTransform) {
     return registrationTransaction(sceneName, deviceId, inpTransform, 6);
   }
+
+  /**
+  * Create a Scene, without blocking.
+  */
+  @Override
+  public CompletableFuture<SceneList> createAsync(Scene inpScene) {
+    return rememberKey(writeAsync(buildSceneList(inpScene, 0), inpScene.getName(), null),
+        inpScene.getName());
+  }
+
+  /**
+  * Update a Scene, without blocking.
+  */
+  @Override
+  public CompletableFuture<SceneList> updateAsync(Scene inpScene) {
+    return writeAsync(buildSceneList(inpScene, 1), inpScene.getName(), inpScene.getKey());
+  }
+
+  /**
+  * Retrieve a Scene, without blocking.
+  */
+  @Override
+  public CompletableFuture<SceneList> getAsync(String sceneName) {
+    Scene scn = new Scene();
+    scn.setName(sceneName);
+    if (sceneCache == null && missCache == null) {
+      return crudTransactionAsync(scn, 2);
+    }
+    return decodeAsync(readSceneAsync(sceneName), buildSceneList(scn, 2));
+  }
+
+  /**
+  * Remove a Scene, without blocking.
+  */
+  @Override
+  public CompletableFuture<SceneList> destroyAsync(final String sceneKey) {
+    Scene scn = new Scene();
+    scn.setKey(sceneKey);
+    SceneList inpSceneList = buildSceneList(scn, 3);
+    if (keyCache == null) {
+      return writeAsync(inpSceneList, null, sceneKey);
+    }
+    keyCache.invalidateKey(sceneKey);
+    return writeAsync(inpSceneList, null, sceneKey).thenApply(new Function<SceneList, SceneList>() {
+      @Override
+      public SceneList apply(SceneList ivanResponse) {
+        // Forget the key again, in case a lookup cached it while the delete was in flight
+        keyCache.invalidateKey(sceneKey);
+        return ivanResponse;
+      }
+    });
+  }
+
+  /**
+  * Query for one or more Scenes, without blocking.
+  */
+  @Override
+  public CompletableFuture<SceneList> queryAsync(Scene inpScene) {
+    return crudTransactionAsync(inpScene, 2);
+  }
+
+  /**
+  * Register a Device to a Scene, without blocking.
+  */
+  @Override
+  public CompletableFuture<SceneList> registerAsync(String sceneName, String deviceId,
+      Transform inpTransform) {
+    return registrationTransactionAsync(sceneName, deviceId, inpTransform, 4);
+  }
+
+  /**
+  * Register a Device to a Scene with connectivity information, without blocking.
+  */
+  @Override
+  public CompletableFuture<SceneList> registerAsync(String sceneName, String deviceId,
+      String hostName, int portNumber, Transform inpTransform) {
+    return registrationTransactionAsync(sceneName, deviceId, hostName, portNumber,
+        inpTransform, 4);
+  }
+
+  /**
+  * Deregister a Device from a Scene, without blocking.
+  */
+  @Override
+  public CompletableFuture<SceneList> deregisterAsync(String sceneName, String deviceId) {
+    return registrationTransactionAsync(sceneName, deviceId, null, 5);
+  }
+
+  /**
+  * Synchronize an Object and Scene transformation, without blocking.
+  */
+  @Override
+  public CompletableFuture<SceneList> synchronizeAsync(String sceneName, String deviceId,
+      Transform inpTransform) {
+    return registrationTransactionAsync(sceneName, deviceId, inpTransform, 6);
+  }
+
+  /**
+  * Retrieve a Scene, without blocking or decoding the reply.
+  */
+  @Override
+  public CompletableFuture<byte[]> getRawAsync(String sceneName) {
+    Scene scn = new Scene();
+    scn.setName(sceneName);
+    if (sceneCache == null && missCache == null) {
+      return rawTransactionAsync(buildSceneList(scn, 2));
+    }
+    return rawReplyAsync(readSceneAsync(sceneName), buildSceneList(scn, 2));
+  }
+
+  /**
+  * Query for one or more Scenes, without blocking or decoding the reply.
+  */
+  @Override
+  public CompletableFuture<byte[]> queryRawAsync(Scene inpScene) {
+    return rawTransactionAsync(buildSceneList(inpScene, 2));
+  }
+
+  /**
+  * Find the key of a Scene by name, without blocking.
+  */
+  @Override
+  public CompletableFuture<String> findKeyAsync(final String sceneName, boolean refresh) {
+    if (refresh && missCache != null) {
+      missCache.invalidate(sceneName);
+    }
+    if (refresh && sceneCache != null) {
+      // The cached Scene holds the key which is suspected to be stale
+      sceneCache.invalidate(sceneName);
+    }
+    if (keyCache != null) {
+      if (refresh) {
+        keyCache.invalidate(sceneName);
+      } else {
+        String sceneKey = keyCache.get(sceneName);
+        if (sceneKey != null) {
+          return CompletableFuture.completedFuture(sceneKey);
+        }
+      }
+    }
+    // Retrieve the Scene from Crazy Ivan
+    CompletableFuture<SceneList> found;
+    if (sceneCache == null) {
+      found = getAsync(sceneName);
+    } else {
+      Scene scn = new Scene();
+      scn.setName(sceneName);
+      found = decodeAsync(readFreshSceneAsync(sceneName), buildSceneList(scn, 2));
+    }
+    return found.thenApply(new Function<SceneList, String>() {
+      @Override
+      public String apply(SceneList ivanResponse) {
+        if (!isSuccessResponse(ivanResponse)) {
+          return null;
+        }
+        String sceneKey = ivanResponse.getSceneList()[0].getKey();
+        if (sceneKey == null || sceneKey.isEmpty()) {
+          return null;
+        }
+        if (keyCache != null) {
+          keyCache.put(sceneName, sceneKey);
+        }
+        return sceneKey;
+      }
+    });
+  }
+
+  /**
+  * Expose the hits and misses of the Key, Scene and Miss Caches, and their sizes.
+  * The Scene Cache also reports the Scenes served stale or during an outage,
+  * its background refreshes, evictions and average load time.
+  * @return A set of metrics for each cache
+  */
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+    if (keyCache != null) {
+      String prefix = "adrestia.cache.keys." + keyCache.getName() + ".";
+      metrics.add(new Metric<Long>(prefix + "hits", keyCache.getHits()));
+      metrics.add(new Metric<Long>(prefix + "misses", keyCache.getMisses()));
+      metrics.add(new Metric<Long>(prefix + "size", keyCache.size()));
+    }
+    if (sceneCache != null) {
+      String prefix = "adrestia.cache.scenes." + sceneCache.getName() + ".";
+      metrics.add(new Metric<Long>(prefix + "hits", sceneCache.getHits()));
+      metrics.add(new Metric<Long>(prefix + "staleHits", sceneCache.getStaleHits()));
+      metrics.add(new Metric<Long>(prefix + "outageHits", sceneCache.getOutageHits()));
+      metrics.add(new Metric<Long>(prefix + "misses", sceneCache.getMisses()));
+      metrics.add(new Metric<Long>(prefix + "refreshes", sceneCache.getRefreshes()));
+      metrics.add(new Metric<Long>(prefix + "evictions", sceneCache.getEvictions()));
+      metrics.add(new Metric<Double>(prefix + "loadTime",
+          sceneCache.getAverageLoadTime()));
+      metrics.add(new Metric<Long>(prefix + "size", sceneCache.size()));
+    }
+    if (missCache != null) {
+      String prefix = "adrestia.cache.misses." + missCache.getName() + ".";
+      metrics.add(new Metric<Long>(prefix + "hits", missCache.getHits()));
+      metrics.add(new Metric<Long>(prefix + "misses", missCache.getMisses()));
+      metrics.add(new Metric<Long>(prefix + "size", missCache.size()));
+    }
+    return metrics;
+  }
 }
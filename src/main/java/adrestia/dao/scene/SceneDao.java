@@ -17,10 +17,14 @@ limitations under the License.
 
 package adrestia;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.springframework.stereotype.Service;
 
 /**
 * Data Access for Scenes.
+* Each method has an Async variant, which returns a future instead of
+* blocking the calling thread.
 */
 @Service
 public interface SceneDao {
@@ -97,4 +101,102 @@ public interface SceneDao {
   * @return  A SceneList object, returned from the service implementing the DAO
   */
   public SceneList synchronize(String sceneName, String deviceId, Transform inpTransform);
+
+  /**
+  * Create a Scene, without blocking.
+  * @param inpScene A Scene Object to create
+  * @return  A future SceneList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<SceneList> createAsync(Scene inpScene);
+
+  /**
+  * Update a Scene, without blocking.
+  * @param inpScene A Scene Object to save
+  * @return  A future SceneList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<SceneList> updateAsync(Scene inpScene);
+
+  /**
+  * Retrieve a Scene, without blocking.
+  * @param sceneName The name of the scene to retrieve
+  * @return  A future SceneList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<SceneList> getAsync(String sceneName);
+
+  /**
+  * Remove a Scene, without blocking.
+  * @param sceneKey The key of the Scene to destroy
+  * @return  A future SceneList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<SceneList> destroyAsync(String sceneKey);
+
+  /**
+  * Query for one or more Scenes, without blocking.
+  * @param inpScene A Scene Object, whos fields represent the desired query
+  * @return  A future SceneList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<SceneList> queryAsync(Scene inpScene);
+
+  /**
+  * Register a Device to a Scene, without blocking.
+  * @param sceneName The name of the scene being registered to
+  * @param deviceId The key of the Device being registered
+  * @param inpTransform The transform from Scene to Local Axis, can be null
+  * @return  A future SceneList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<SceneList> registerAsync(String sceneName, String deviceId,
+      Transform inpTransform);
+
+  /**
+  * Register a Device to a Scene, with connectivity information, without blocking.
+  * @param sceneName The name of the scene being registered to
+  * @param deviceId The key of the Device being registered
+  * @param hostName The hostname of the device being registered
+  * @param portNumber The port of the device being registered
+  * @param inpTransform The transform from Scene to Local Axis, can be null
+  * @return  A future SceneList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<SceneList> registerAsync(String sceneName, String deviceId,
+      String hostName, int portNumber, Transform inpTransform);
+
+  /**
+  * Deregister a Device from a Scene, without blocking.
+  * @param sceneName The name of the scene being deregistered from
+  * @param deviceId The key of the Device being deregistered
+  * @return  A future SceneList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<SceneList> deregisterAsync(String sceneName, String deviceId);
+
+  /**
+  * Synchronize an Object and Scene transformation, without blocking.
+  * @param sceneName The name of the scene being registered to
+  * @param deviceId The key of the Device being registered
+  * @param inpTransform The corrected transform from Scene to Local Axis
+  * @return  A future SceneList object, returned from the service implementing the DAO
+  */
+  public CompletableFuture<SceneList> synchronizeAsync(String sceneName, String deviceId,
+      Transform inpTransform);
+
+  /**
+  * Retrieve a Scene, without blocking or decoding the reply.
+  * @param sceneName The name of the scene to retrieve
+  * @return  A future encoded SceneList, as returned from the service implementing the DAO
+  */
+  public CompletableFuture<byte[]> getRawAsync(String sceneName);
+
+  /**
+  * Query for one or more Scenes, without blocking or decoding the reply.
+  * @param inpScene A Scene Object, whos fields represent the desired query
+  * @return  A future encoded SceneList, as returned from the service implementing the DAO
+  */
+  public CompletableFuture<byte[]> queryRawAsync(Scene inpScene);
+
+  /**
+  * Find the key of a Scene by name, without blocking.
+  * The key is served from a cache when it can be, and retrieved otherwise.
+  * @param sceneName The name of the scene
+  * @param refresh Retrieve the key, even if it is cached
+  * @return  A future key, completed with null if no Scene is found
+  */
+  public CompletableFuture<String> findKeyAsync(String sceneName, boolean refresh);
 }
@@ -0,0 +1,269 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+* Circuit Breaker for a single Service Instance.
+* Outcomes of the most recent requests are kept in a sliding window.  When
+* enough of them fail, or are slow, the breaker opens and the instance is
+* ejected.  After a wait, a limited number of trial requests are let through
+* in the half-open state, and their outcomes decide whether the instance is
+* let back in, or ejected again.
+*/
+public class CircuitBreaker {
+
+  /**
+  * States of a Circuit Breaker.
+  */
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  // Name of the instance, used when reporting metrics
+  private final String name;
+
+  // Number of outcomes kept in the sliding window
+  private final int windowSize;
+  // Minimum number of outcomes before the rates are evaluated
+  private final int minimumCalls;
+  // Percentage of failed requests at which the breaker opens
+  private final int failureRateThreshold;
+  // Percentage of slow requests at which the breaker opens
+  private final int slowCallRateThreshold;
+  // Requests slower than this many nanoseconds count as slow
+  private final long slowCallDuration;
+  // How many nanoseconds the breaker stays open before trial requests
+  private final long openDuration;
+  // Number of trial requests let through while half-open
+  private final int halfOpenCalls;
+
+  // Sliding window of outcomes, as a ring buffer
+  private final boolean[] failedCalls;
+  private final boolean[] slowCalls;
+  private int windowPosition = 0;
+  private int numCalls = 0;
+  private int numFailedCalls = 0;
+  private int numSlowCalls = 0;
+
+  // Current state, and when it was entered
+  private State state = State.CLOSED;
+  private long stateChangeTime = System.nanoTime();
+  // Trial requests let through, and completed, since going half-open
+  private int trialsStarted = 0;
+  private int trialsCompleted = 0;
+  private int trialsFailed = 0;
+  private int trialsSlow = 0;
+
+  // Number of times the breaker has opened
+  private long timesOpened = 0;
+
+  /**
+  * Complete CircuitBreaker constructor.
+  * @param name The name of the instance guarded by the breaker
+  * @param windowSize The number of outcomes kept in the sliding window
+  * @param minimumCalls The minimum number of outcomes before rates are evaluated
+  * @param failureRateThreshold The percentage of failed requests at which the breaker opens
+  * @param slowCallRateThreshold The percentage of slow requests at which the breaker opens
+  * @param slowCallDuration Requests slower than this many milliseconds count as slow
+  * @param openDuration How many milliseconds the breaker stays open before trial requests
+  * @param halfOpenCalls The number of trial requests let through while half-open
+  */
+  public CircuitBreaker(String name, int windowSize, int minimumCalls,
+      int failureRateThreshold, int slowCallRateThreshold, long slowCallDuration,
+      long openDuration, int halfOpenCalls) {
+    this.name = name;
+    this.windowSize = windowSize;
+    this.minimumCalls = Math.min(minimumCalls, windowSize);
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallRateThreshold = slowCallRateThreshold;
+    this.slowCallDuration = TimeUnit.MILLISECONDS.toNanos(slowCallDuration);
+    this.openDuration = TimeUnit.MILLISECONDS.toNanos(openDuration);
+    this.halfOpenCalls = halfOpenCalls;
+    this.failedCalls = new boolean[windowSize];
+    this.slowCalls = new boolean[windowSize];
+  }
+
+  // Move to a new state
+  private void transition(State newState) {
+    state = newState;
+    stateChangeTime = System.nanoTime();
+    trialsStarted = 0;
+    trialsCompleted = 0;
+    trialsFailed = 0;
+    trialsSlow = 0;
+    if (newState == State.OPEN) {
+      timesOpened++;
+    } else if (newState == State.CLOSED) {
+      windowPosition = 0;
+      numCalls = 0;
+      numFailedCalls = 0;
+      numSlowCalls = 0;
+    }
+  }
+
+  // Move from open to half-open once the open duration has passed
+  private void checkOpenDuration() {
+    if (state == State.OPEN && System.nanoTime() - stateChangeTime >= openDuration) {
+      transition(State.HALF_OPEN);
+    }
+  }
+
+  // Does a count reach a percentage threshold of a total
+  private static boolean exceeds(int count, int total, int threshold) {
+    return total > 0 && count * 100 >= threshold * total;
+  }
+
+  /**
+  * Can a request be sent through the breaker.
+  * Doesn't use up a trial request while half-open.
+  * @return True if the breaker is closed, or has trial requests left
+  */
+  public synchronized boolean isAvailable() {
+    checkOpenDuration();
+    if (state == State.OPEN) {
+      return false;
+    }
+    return state == State.CLOSED || trialsStarted < halfOpenCalls;
+  }
+
+  /**
+  * Take permission to send a request through the breaker.
+  * Uses up a trial request while half-open.
+  * @return True if the request may be sent
+  */
+  public synchronized boolean tryAcquire() {
+    checkOpenDuration();
+    if (state == State.CLOSED) {
+      return true;
+    }
+    if (state == State.HALF_OPEN && trialsStarted < halfOpenCalls) {
+      trialsStarted++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+  * Hand back permission which was never used to send a request.
+  * Gives back a trial request while half-open, so that the breaker isn't
+  * left waiting on the outcome of a request which was never sent.
+  */
+  public synchronized void release() {
+    if (state == State.HALF_OPEN && trialsStarted > trialsCompleted) {
+      trialsStarted--;
+    }
+  }
+
+  /**
+  * Record the outcome of a request, once for each request let through.
+  * @param success Did the request get a reply
+  * @param latency How many nanoseconds the request took
+  */
+  public synchronized void record(boolean success, long latency) {
+    boolean slow = latency >= slowCallDuration;
+    if (state == State.CLOSED) {
+      // Replace the oldest outcome in the window
+      if (numCalls == windowSize) {
+        if (failedCalls[windowPosition]) {
+          numFailedCalls--;
+        }
+        if (slowCalls[windowPosition]) {
+          numSlowCalls--;
+        }
+      } else {
+        numCalls++;
+      }
+      failedCalls[windowPosition] = !success;
+      slowCalls[windowPosition] = slow;
+      if (!success) {
+        numFailedCalls++;
+      }
+      if (slow) {
+        numSlowCalls++;
+      }
+      windowPosition = (windowPosition + 1) % windowSize;
+      if (numCalls >= minimumCalls
+          && (exceeds(numFailedCalls, numCalls, failureRateThreshold)
+          || exceeds(numSlowCalls, numCalls, slowCallRateThreshold))) {
+        transition(State.OPEN);
+      }
+    } else if (state == State.HALF_OPEN && trialsCompleted < trialsStarted) {
+      trialsCompleted++;
+      if (!success) {
+        trialsFailed++;
+      }
+      if (slow) {
+        trialsSlow++;
+      }
+      // Once the trials are done, let the instance back in if they went well
+      if (trialsCompleted >= halfOpenCalls) {
+        if (exceeds(trialsFailed, trialsCompleted, failureRateThreshold)
+            || exceeds(trialsSlow, trialsCompleted, slowCallRateThreshold)) {
+          transition(State.OPEN);
+        } else {
+          transition(State.CLOSED);
+        }
+      }
+    }
+    // Outcomes of requests sent before the breaker opened, and of any
+    // request not let through as a trial, are ignored
+  }
+
+  /**
+  * Get the name of the instance guarded by the breaker.
+  * @return The name of the instance
+  */
+  public String getName() {
+    return name;
+  }
+
+  /**
+  * Get the current state.
+  * @return The state of the breaker
+  */
+  public synchronized State getState() {
+    checkOpenDuration();
+    return state;
+  }
+
+  /**
+  * Get the failure rate over the sliding window.
+  * @return The percentage of failed requests, or zero with no requests
+  */
+  public synchronized double getFailureRate() {
+    return (numCalls == 0) ? 0.0 : (numFailedCalls * 100.0) / numCalls;
+  }
+
+  /**
+  * Get the slow request rate over the sliding window.
+  * @return The percentage of slow requests, or zero with no requests
+  */
+  public synchronized double getSlowCallRate() {
+    return (numCalls == 0) ? 0.0 : (numSlowCalls * 100.0) / numCalls;
+  }
+
+  /**
+  * Get the number of times the breaker has opened.
+  * @return The number of times the instance has been ejected
+  */
+  public synchronized long getTimesOpened() {
+    return timesOpened;
+  }
+}
@@ -0,0 +1,137 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.cloud.client.ServiceInstance;
+
+/**
+* Load statistics for a single Service Instance.
+* Tracks the requests currently in flight to the instance, and an
+* exponentially weighted moving average of its response latency.
+*/
+public class InstanceStats {
+
+  // Weight given to each new latency sample in the moving average
+  private static final double EWMA_ALPHA = 0.3;
+
+  // Requests sent to the instance which haven't completed
+  private final AtomicInteger inFlight = new AtomicInteger(0);
+
+  // Moving average latency in nanoseconds, stored as double bits.
+  // Zero until the first request completes
+  private final AtomicLong latencyEwma = new AtomicLong(Double.doubleToLongBits(0.0));
+
+  // Health probes failed in a row
+  private final AtomicInteger probeFailures = new AtomicInteger(0);
+
+  // Round trip time of the last successful health probe, in nanoseconds
+  private volatile long probeRtt = 0;
+
+  /**
+  * Default empty InstanceStats constructor.
+  */
+  public InstanceStats() {
+    super();
+  }
+
+  /**
+  * Build the key under which stats are kept for a Service Instance.
+  * @param instance The Service Instance
+  * @return A key unique to the address of the instance
+  */
+  public static String keyOf(ServiceInstance instance) {
+    return instance.getUri().toString().trim();
+  }
+
+  /**
+  * Record a request being sent to the instance.
+  */
+  public void requestStarted() {
+    inFlight.incrementAndGet();
+  }
+
+  /**
+  * Record a request to the instance completing, successfully or not.
+  * @param latency How many nanoseconds the request took
+  */
+  public void requestCompleted(long latency) {
+    int current = inFlight.get();
+    while (current > 0 && !inFlight.compareAndSet(current, current - 1)) {
+      current = inFlight.get();
+    }
+    long oldBits = latencyEwma.get();
+    while (true) {
+      double oldValue = Double.longBitsToDouble(oldBits);
+      double newValue = (oldValue == 0.0)
+          ? latency : (EWMA_ALPHA * latency) + ((1.0 - EWMA_ALPHA) * oldValue);
+      if (latencyEwma.compareAndSet(oldBits, Double.doubleToLongBits(newValue))) {
+        return;
+      }
+      oldBits = latencyEwma.get();
+    }
+  }
+
+  /**
+  * Get the number of requests in flight.
+  * @return The number of requests sent to the instance which haven't completed
+  */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+  * Get the moving average latency.
+  * @return The average latency in nanoseconds, or zero if no request has completed
+  */
+  public double getLatencyEwma() {
+    return Double.longBitsToDouble(latencyEwma.get());
+  }
+
+  /**
+  * Record the result of a health probe.
+  * @param success Did the instance reply to the probe
+  * @param latency How many nanoseconds the probe took
+  */
+  public void probeCompleted(boolean success, long latency) {
+    if (success) {
+      probeFailures.set(0);
+      probeRtt = latency;
+    } else {
+      probeFailures.incrementAndGet();
+    }
+  }
+
+  /**
+  * Get the number of health probes failed in a row.
+  * @return The number of failed probes since the last successful one
+  */
+  public int getProbeFailures() {
+    return probeFailures.get();
+  }
+
+  /**
+  * Get the round trip time of the last successful health probe.
+  * @return The round trip time in nanoseconds, or zero if no probe has succeeded
+  */
+  public long getProbeRtt() {
+    return probeRtt;
+  }
+}
@@ -0,0 +1,42 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.stereotype.Service;
+
+/**
+* Chooses which Service Instance a request is sent to.
+* The strategy is chosen with the server.discovery.loadbalancer property.
+*/
+@Service
+public interface LoadBalancingStrategy {
+
+  /**
+  * Choose a Service Instance.
+  * @param candidates The healthy instances of a service, never empty
+  * @param stats Load statistics, keyed by InstanceStats.keyOf.  An instance
+  *     with no entry has not been sent any requests yet.
+  * @return The chosen Service Instance
+  */
+  public ServiceInstance choose(List<ServiceInstance> candidates,
+      Map<String, InstanceStats> stats);
+}
@@ -0,0 +1,88 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.stereotype.Component;
+
+/**
+* Power of Two Choices, least loaded.
+* Picks two instances at random, and sends to the one with the lower cost,
+* where the cost is the moving average latency scaled by the requests in
+* flight.  Instances without a latency sample are compared on requests in
+* flight alone.
+*/
+@Component
+@ConditionalOnProperty(name = "server.discovery.loadbalancer", havingValue = "p2c",
+    matchIfMissing = true)
+public class PowerOfTwoChoicesStrategy implements LoadBalancingStrategy {
+
+  /**
+  * Default empty PowerOfTwoChoicesStrategy constructor.
+  */
+  public PowerOfTwoChoicesStrategy() {
+    super();
+  }
+
+  // Find the stats for an instance, treating unknown instances as idle
+  private static InstanceStats statsOf(ServiceInstance instance,
+      Map<String, InstanceStats> stats) {
+    InstanceStats instanceStats = stats.get(InstanceStats.keyOf(instance));
+    if (instanceStats == null) {
+      return new InstanceStats();
+    }
+    return instanceStats;
+  }
+
+  /**
+  * Choose the less loaded of two random Service Instances.
+  */
+  @Override
+  public ServiceInstance choose(List<ServiceInstance> candidates,
+      Map<String, InstanceStats> stats) {
+    int numCandidates = candidates.size();
+    if (numCandidates == 1) {
+      return candidates.get(0);
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int firstIndex = random.nextInt(numCandidates);
+    int secondIndex = random.nextInt(numCandidates - 1);
+    if (secondIndex >= firstIndex) {
+      secondIndex++;
+    }
+    ServiceInstance first = candidates.get(firstIndex);
+    ServiceInstance second = candidates.get(secondIndex);
+    InstanceStats firstStats = statsOf(first, stats);
+    InstanceStats secondStats = statsOf(second, stats);
+    double firstCost = firstStats.getInFlight() + 1;
+    double secondCost = secondStats.getInFlight() + 1;
+    if (firstStats.getLatencyEwma() > 0.0 && secondStats.getLatencyEwma() > 0.0) {
+      firstCost *= firstStats.getLatencyEwma();
+      secondCost *= secondStats.getLatencyEwma();
+    }
+    if (secondCost < firstCost) {
+      return second;
+    }
+    return first;
+  }
+}
@@ -0,0 +1,54 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.stereotype.Component;
+
+/**
+* Picks a Service Instance at random, ignoring load.
+*/
+@Component
+@ConditionalOnProperty(name = "server.discovery.loadbalancer", havingValue = "random")
+public class RandomStrategy implements LoadBalancingStrategy {
+
+  // Utility Provider, providing us with basic utility methods
+  @Autowired
+  UtilityProviderInterface utils;
+
+  /**
+  * Default empty RandomStrategy constructor.
+  */
+  public RandomStrategy() {
+    super();
+  }
+
+  /**
+  * Choose a random Service Instance.
+  */
+  @Override
+  public ServiceInstance choose(List<ServiceInstance> candidates,
+      Map<String, InstanceStats> stats) {
+    return candidates.get(utils.getRandomInt(candidates.size()));
+  }
+}
@@ -18,12 +18,20 @@ import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PreDestroy;
@@ -33,9 +41,13 @@ import org.apache.logging.log4j.Logger;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
 import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
 import org.zeromq.ZContext;
@@ -47,19 +59,42 @@ import org.zeromq.ZPoller;
 
 /**
 * Uses the Consul Discovery Client to find Service Instances.
+* The instances of each service are kept in an immutable snapshot, which is
+* refreshed in the background whenever the Consul catalog changes, and
+* periodically otherwise.  Finding an instance only reads the snapshot.
+* Each instance has a circuit breaker, which ejects it while too many of its
+* recent requests fail or are slow.
 */
 @Component
-public class ServiceManager implements ServiceManagerInterface {
-
-  // How long should entries stay in the redlist
-  @Value("${server.zmq.redlist.duration}")
-  private int redlistDuration;
-  // How long should entries stay in the greylist
-  @Value("${server.zmq.greylist.duration}")
-  private int greylistDuration;
-  // How long should entries stay in the blacklist
-  @Value("${server.zmq.blacklist.duration}")
-  private int blacklistDuration;
+public class ServiceManager implements ServiceManagerInterface, PublicMetrics {
+
+  // Number of recent requests to each instance kept by its circuit breaker
+  @Value("${server.discovery.breaker.window.size}")
+  private int breakerWindowSize;
+  // Minimum requests to an instance before it can be ejected
+  @Value("${server.discovery.breaker.window.minimum}")
+  private int breakerMinimumCalls;
+  // Percentage of failed requests at which an instance is ejected
+  @Value("${server.discovery.breaker.failure.threshold}")
+  private int breakerFailureThreshold;
+  // Percentage of slow requests at which an instance is ejected
+  @Value("${server.discovery.breaker.slow.threshold}")
+  private int breakerSlowThreshold;
+  // Requests slower than this many milliseconds count as slow
+  @Value("${server.discovery.breaker.slow.duration}")
+  private long breakerSlowDuration;
+  // How many milliseconds an ejected instance waits before trial requests
+  @Value("${server.discovery.breaker.open.duration}")
+  private long breakerOpenDuration;
+  // Number of trial requests sent to an ejected instance before it is let back in
+  @Value("${server.discovery.breaker.halfopen.calls}")
+  private int breakerHalfOpenCalls;
+  // Number of health probes in a row an instance must fail before it is skipped
+  @Value("${server.discovery.probe.failures}")
+  private int probeFailureThreshold;
+  // How many milliseconds between background refreshes of the instance snapshots
+  @Value("${server.discovery.refresh.interval}")
+  private int refreshInterval;
 
   // Consul Client for executing Service Discovery
   @Autowired
@@ -69,126 +104,327 @@ public class ServiceManager implements ServiceManagerInterface {
   @Autowired
   UtilityProviderInterface utils;
 
+  // Strategy which chooses between the healthy instances of a service
+  @Autowired
+  LoadBalancingStrategy loadBalancer;
+
   // Service Manager Logger
   private final Logger logger = LogManager.getLogger("adrestia.ServiceManager");
 
-  // cache to hold blacklisted CLyman hosts
-  // Keys will expire after 5 minutes, at which point Consul should be able
-  // to determine if the service is active or inactive.
-  Cache<String, String> blacklist = null;
+  // Circuit Breaker for each instance, keyed by InstanceStats.keyOf
+  private final ConcurrentHashMap<String, CircuitBreaker> breakers =
+      new ConcurrentHashMap<String, CircuitBreaker>();
 
-  // Cache to hold greylisted CLyman hosts
-  // Keys will expire after 30 seconds, if we report another failure in this
-  // time then the service will be blacklisted
-  Cache<String, String> greylist = null;
+  // Number of transactions which gave up on an instance and moved to another
+  private final AtomicLong failovers = new AtomicLong(0);
 
-  // Cache to hold redlisted CLyman hosts
-  // Keys will expire after 5 seconds, if we report another failure in this
-  // time then the service will be blacklisted
-  Cache<String, String> redlist = null;
+  // Latest known instances of each service, replaced whole on each refresh
+  private final Map<String, List<ServiceInstance>> instanceCache =
+      new ConcurrentHashMap<String, List<ServiceInstance>>();
+
+  // Load statistics for each instance, keyed by InstanceStats.keyOf
+  private final ConcurrentHashMap<String, InstanceStats> instanceStats =
+      new ConcurrentHashMap<String, InstanceStats>();
+
+  // Thread which refreshes the instance snapshots from Consul
+  private ScheduledExecutorService refreshExecutor = null;
+
+  // Set while a refresh triggered by a catalog change is waiting to run
+  private final AtomicBoolean refreshPending = new AtomicBoolean(false);
 
   /**
   * Default empty ServiceManager constructor.
   */
   public ServiceManager() {
     super();
-    logger.debug("RedList Duration: " + redlistDuration);
-    logger.debug("GreyList Duration: " + greylistDuration);
-    logger.debug("BlackList Duration: " + blacklistDuration);
   }
 
-  private void initializeCaches() {
-    blacklist = CacheBuilder.newBuilder()
-        .expireAfterWrite(blacklistDuration, TimeUnit.SECONDS)
-        .maximumSize(60)
-        .build();
+  /**
+  * Stop refreshing the instance snapshots.
+  */
+  @PreDestroy
+  public synchronized void destroy() {
+    if (refreshExecutor != null) {
+      refreshExecutor.shutdownNow();
+      refreshExecutor = null;
+    }
+  }
 
-    greylist = CacheBuilder.newBuilder()
-        .expireAfterWrite(greylistDuration, TimeUnit.SECONDS)
-        .maximumSize(50)
-        .build();
+  // Start the background refresh of the instance snapshots
+  private synchronized void startRefresh() {
+    if (refreshExecutor != null) {
+      return;
+    }
+    refreshExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      private final AtomicInteger threadCount = new AtomicInteger(0);
 
-    redlist = CacheBuilder.newBuilder()
-        .expireAfterWrite(redlistDuration, TimeUnit.SECONDS)
-        .maximumSize(40)
-        .build();
+      @Override
+      public Thread newThread(Runnable task) {
+        Thread thread = new Thread(task, "adrestia-discovery-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    refreshExecutor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        refreshAll();
+      }
+    }, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
   }
 
-  // Setup method to find and connect to an instance of a specified service name
-  private ServiceInstance findService(String serviceName) {
-    if (redlist == null) {
-      initializeCaches();
+  // Pull the current instances of a service from Consul into the snapshot.
+  // If Consul fails, the last known instances are kept.
+  private List<ServiceInstance> refresh(String serviceName) {
+    try {
+      List<ServiceInstance> serviceInstances = consulClient.getInstances(serviceName);
+      if (serviceInstances != null) {
+        List<ServiceInstance> snapshot = Collections.unmodifiableList(
+            new ArrayList<ServiceInstance>(serviceInstances));
+        instanceCache.put(serviceName, snapshot);
+        return snapshot;
+      }
+      logger.error("Unable to refresh Service instances for " + serviceName);
+    } catch (Exception e) {
+      logger.error("Error refreshing Service instances for " + serviceName + ": ", e);
     }
-    ServiceInstance returnService = null;
-    logger.info("Finding a new Service instance");
-    logger.debug("RedList Size: " + redlist.size());
-    logger.debug("GreyList Size: " + greylist.size());
-    logger.debug("BlackList Size: " + blacklist.size());
-
-    // Find an instance of CrazyIvan
-    List<ServiceInstance> serviceInstances =
-        consulClient.getInstances(serviceName);
-    if (serviceInstances != null) {
-      //Log if we find no service instances
-      if (serviceInstances.size() == 0) {
-        logger.error("No Service instances found");
+    return instanceCache.get(serviceName);
+  }
+
+  // Refresh the snapshot of every service we have looked up
+  private void refreshAll() {
+    refreshPending.set(false);
+    for (String serviceName : instanceCache.keySet()) {
+      refresh(serviceName);
+    }
+  }
+
+  /**
+  * Refresh the instance snapshots when the Consul catalog changes.
+  * The refresh runs in the background, so the event publisher isn't held up.
+  * @param event The Heartbeat Event published by the Consul catalog watch
+  */
+  @EventListener
+  public void onHeartbeat(HeartbeatEvent event) {
+    ScheduledExecutorService executor = refreshExecutor;
+    if (executor != null && refreshPending.compareAndSet(false, true)) {
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            refreshAll();
+          }
+        });
+      } catch (Exception e) {
+        refreshPending.set(false);
+        logger.error("Error scheduling Service instance refresh: ", e);
       }
-      // Find a service Instance
-      // Start by getting a random start index
-      int startIndex = utils.getRandomInt(serviceInstances.size());
-      for (int i = 0; i < serviceInstances.size(); i++) {
-        // Correct our compare index for the start index
-        int currentIndex = i + startIndex;
-        if (currentIndex >= serviceInstances.size()) {
-          currentIndex = currentIndex - serviceInstances.size();
-        }
-        // Pull the service instance, and the value from the blacklist
-        returnService = serviceInstances.get(currentIndex);
-        String instanceString = returnService.getUri().toString().trim();
-        logger.debug("Found Service Instance: " + instanceString);
-        logger.debug("Blacklist: " + blacklist.asMap().keySet().toString());
-        logger.debug("Redlist: " + redlist.asMap().keySet().toString());
-        // We can go ahead and connect to the instance as long as it isn't
-        // on the blacklist
-        if (blacklist.asMap().containsKey(instanceString)
-            || redlist.asMap().containsKey(instanceString)) {
-          logger.error("Invalid host found");
-          returnService = null;
-        } else {
-          return returnService;
-        }
+    }
+  }
+
+  /**
+  * Get the latest known instances of a service.
+  * Only the first lookup of a service waits on Consul.
+  * @param serviceName The Name of the Service, in Consul
+  * @return The instances of the service, which may not be modified
+  */
+  @Override
+  public List<ServiceInstance> getInstances(String serviceName) {
+    List<ServiceInstance> serviceInstances = instanceCache.get(serviceName);
+    if (serviceInstances == null) {
+      startRefresh();
+      serviceInstances = refresh(serviceName);
+    }
+    return serviceInstances;
+  }
+
+  /**
+  * Can a service be reached at all.
+  * @param serviceName The Name of the Service, in Consul
+  * @return False if the service has no instances, or every one of them is
+  *     ejected by its circuit breaker or failing health probes
+  */
+  @Override
+  public boolean isAvailable(String serviceName) {
+    List<ServiceInstance> serviceInstances = getInstances(serviceName);
+    if (serviceInstances == null) {
+      return false;
+    }
+    for (ServiceInstance instance : serviceInstances) {
+      if (breakerOf(instance).isAvailable() && !isFailingProbes(instance)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Has an instance failed enough health probes in a row to be skipped
+  private boolean isFailingProbes(ServiceInstance instance) {
+    return probeFailureThreshold > 0
+        && statsOf(instance).getProbeFailures() >= probeFailureThreshold;
+  }
+
+  // Find the circuit breaker for an instance, adding it if this is the first request
+  private CircuitBreaker breakerOf(ServiceInstance instance) {
+    String key = InstanceStats.keyOf(instance);
+    CircuitBreaker breaker = breakers.get(key);
+    if (breaker == null) {
+      CircuitBreaker newBreaker = new CircuitBreaker(
+          instance.getHost() + ":" + instance.getPort(), breakerWindowSize,
+          breakerMinimumCalls, breakerFailureThreshold, breakerSlowThreshold,
+          breakerSlowDuration, breakerOpenDuration, breakerHalfOpenCalls);
+      breaker = breakers.putIfAbsent(key, newBreaker);
+      if (breaker == null) {
+        breaker = newBreaker;
       }
-    } else {
+    }
+    return breaker;
+  }
+
+  // Setup method to find and connect to an instance of a specified service name
+  private ServiceInstance findService(String serviceName, Set<String> excluded) {
+    logger.info("Finding a new Service instance");
+
+    // Find the instances of the service
+    List<ServiceInstance> serviceInstances = getInstances(serviceName);
+    if (serviceInstances == null) {
       logger.error("Unable to find Service instance");
+      return null;
+    }
+    //Log if we find no service instances
+    if (serviceInstances.size() == 0) {
+      logger.error("No Service instances found");
+      return null;
+    }
+    // Find the service instances whose circuit breakers let requests through
+    List<ServiceInstance> candidates =
+        new ArrayList<ServiceInstance>(serviceInstances.size());
+    for (ServiceInstance instance : serviceInstances) {
+      String instanceString = InstanceStats.keyOf(instance);
+      logger.debug("Found Service Instance: " + instanceString);
+      if (excluded.contains(instanceString)) {
+        logger.debug("Instance already tried");
+      } else if (!breakerOf(instance).isAvailable()) {
+        logger.debug("Instance ejected by circuit breaker");
+      } else if (isFailingProbes(instance)) {
+        logger.debug("Instance failing health probes");
+      } else {
+        candidates.add(instance);
+      }
+    }
+    // Let the load balancer choose between the rest.  If a half-open breaker
+    // has run out of trial requests since we looked, choose again without it
+    while (!candidates.isEmpty()) {
+      ServiceInstance chosen = loadBalancer.choose(candidates, instanceStats);
+      if (breakerOf(chosen).tryAcquire()) {
+        return chosen;
+      }
+      candidates.remove(chosen);
+    }
+    logger.error("No available Service instances found");
+    return null;
+  }
+
+  // Find the stats for an instance, adding them if this is the first request
+  private InstanceStats statsOf(ServiceInstance instance) {
+    String key = InstanceStats.keyOf(instance);
+    InstanceStats stats = instanceStats.get(key);
+    if (stats == null) {
+      InstanceStats newStats = new InstanceStats();
+      stats = instanceStats.putIfAbsent(key, newStats);
+      if (stats == null) {
+        stats = newStats;
+      }
+    }
+    return stats;
+  }
+
+  /**
+  * Report a request being sent to a Service Instance.
+  * @param connectedInstance A ServiceInstance object with the instance info
+  */
+  @Override
+  public void reportRequestStarted(ServiceInstance connectedInstance) {
+    statsOf(connectedInstance).requestStarted();
+  }
+
+  /**
+  * Report an attempt at a request to a Service Instance completing, successfully or not.
+  * @param connectedInstance A ServiceInstance object with the instance info
+  * @param latency How many nanoseconds the attempt took
+  * @param success Did the attempt get a reply
+  */
+  @Override
+  public void reportRequestCompleted(ServiceInstance connectedInstance, long latency,
+      boolean success) {
+    statsOf(connectedInstance).requestCompleted(latency);
+  }
+
+  /**
+  * Report the outcome of a request on a Service Instance found for it.
+  * Only one outcome is recorded by the circuit breaker for each instance
+  * found, so that retries don't use up its trial requests.
+  * @param connectedInstance A ServiceInstance object with the instance info
+  * @param success Did the request get a reply from the instance
+  * @param latency How many nanoseconds the last attempt took
+  */
+  @Override
+  public void reportRequestOutcome(ServiceInstance connectedInstance, boolean success,
+      long latency) {
+    CircuitBreaker breaker = breakerOf(connectedInstance);
+    CircuitBreaker.State previousState = breaker.getState();
+    breaker.record(success, latency);
+    CircuitBreaker.State newState = breaker.getState();
+    if (newState != previousState) {
+      logger.warn("Circuit Breaker for " + breaker.getName() + " moved from "
+          + previousState + " to " + newState);
+    }
+  }
+
+  /**
+  * Report that an instance found for a request was never sent to.
+  * @param connectedInstance A ServiceInstance object with the instance info
+  */
+  @Override
+  public void reportRequestAbandoned(ServiceInstance connectedInstance) {
+    breakerOf(connectedInstance).release();
+  }
+
+  /**
+  * Report the result of a health probe sent to a Service Instance.
+  * Instances which fail enough probes in a row are skipped until one succeeds.
+  * @param connectedInstance A ServiceInstance object with the instance info
+  * @param success Did the instance reply to the probe
+  * @param latency How many nanoseconds the probe took
+  */
+  @Override
+  public void reportProbeResult(ServiceInstance connectedInstance, boolean success,
+      long latency) {
+    InstanceStats stats = statsOf(connectedInstance);
+    boolean wasHealthy = stats.getProbeFailures() < probeFailureThreshold;
+    stats.probeCompleted(success, latency);
+    // Make sure the instance shows up in the metrics
+    breakerOf(connectedInstance);
+    boolean isHealthy = stats.getProbeFailures() < probeFailureThreshold;
+    if (wasHealthy && !isHealthy) {
+      logger.warn("Instance " + InstanceStats.keyOf(connectedInstance)
+          + " is failing health probes");
+    } else if (!wasHealthy && isHealthy) {
+      logger.warn("Instance " + InstanceStats.keyOf(connectedInstance)
+          + " is passing health probes again");
     }
-    return returnService;
   }
 
   /**
   * Report a Service Failure.
+  * A transaction has given up on the instance, and is moving to another.
   * @param connectedInstance A ServiceInstance object with failed instance info
   */
   @Override
   public void reportFailure(ServiceInstance connectedInstance) {
+    // Each failed request has already been counted by the circuit breaker
     logger.info("Reporting Service Instance Failure");
-    // Is the current host already on the greylist?
-    try {
-      String instanceString = connectedInstance.getUri().toString().trim();
-      if (greylist.asMap().containsKey(instanceString)) {
-        // We have found an entry in the greylist, add the host to the blacklist
-        blacklist.put(instanceString, instanceString);
-      } else {
-        // We have no entry in the greylist, add the hostname to the greylist and redlist
-        greylist.put(instanceString, instanceString);
-        redlist.put(instanceString, instanceString);
-      }
-    } catch (Exception e) {
-      logger.error("Error reporting service failure");
-      logger.error(e.getMessage());
-    }
-    logger.debug("RedList Size: " + redlist.size());
-    logger.debug("GreyList Size: " + greylist.size());
-    logger.debug("BlackList Size: " + blacklist.size());
+    failovers.incrementAndGet();
   }
 
   /**
@@ -199,7 +435,7 @@ public class ServiceManager implements ServiceManagerInterface {
   public ServiceInstance findCrazyIvan() {
     // Actually try to send the message
     try {
-      return findService("Ivan");
+      return findService("Ivan", Collections.<String>emptySet());
     } catch (Exception e) {
       logger.error("Error retrieving service: ", e);
     }
@@ -214,10 +450,60 @@ public class ServiceManager implements ServiceManagerInterface {
   public ServiceInstance findClyman() {
     // Actually try to send the message
     try {
-      return findService("Clyman");
+      return findService("Clyman", Collections.<String>emptySet());
+    } catch (Exception e) {
+      logger.error("Error retrieving service: ", e);
+    }
+    return null;
+  }
+
+  /**
+  * Find an instance of a service, other than those a transaction has already tried.
+  * @param serviceName The Name of the Service, in Consul
+  * @param excluded Keys of the instances to skip, from InstanceStats.keyOf
+  * @return A ServiceInstance object with the instance details found
+  */
+  @Override
+  public ServiceInstance findInstance(String serviceName, Set<String> excluded) {
+    try {
+      return findService(serviceName, excluded);
     } catch (Exception e) {
       logger.error("Error retrieving service: ", e);
     }
     return null;
   }
+
+  /**
+  * Expose the state of each circuit breaker, and the health probe results
+  * for each instance, as metrics.
+  * States are reported as 0 when closed, 1 when half-open and 2 when open.
+  * Probe round trip times are reported in milliseconds.
+  */
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+    metrics.add(new Metric<Long>("adrestia.breaker.failovers", failovers.get()));
+    for (Map.Entry<String, CircuitBreaker> entry : breakers.entrySet()) {
+      CircuitBreaker breaker = entry.getValue();
+      String prefix = "adrestia.breaker." + breaker.getName() + ".";
+      int state = 0;
+      if (breaker.getState() == CircuitBreaker.State.HALF_OPEN) {
+        state = 1;
+      } else if (breaker.getState() == CircuitBreaker.State.OPEN) {
+        state = 2;
+      }
+      metrics.add(new Metric<Integer>(prefix + "state", state));
+      metrics.add(new Metric<Double>(prefix + "failureRate", breaker.getFailureRate()));
+      metrics.add(new Metric<Double>(prefix + "slowCallRate", breaker.getSlowCallRate()));
+      metrics.add(new Metric<Long>(prefix + "timesOpened", breaker.getTimesOpened()));
+      InstanceStats stats = instanceStats.get(entry.getKey());
+      if (stats != null) {
+        String probePrefix = "adrestia.probe." + breaker.getName() + ".";
+        metrics.add(new Metric<Double>(probePrefix + "rtt",
+            stats.getProbeRtt() / 1000000.0));
+        metrics.add(new Metric<Integer>(probePrefix + "failures", stats.getProbeFailures()));
+      }
+    }
+    return metrics;
+  }
 }
@@ -14,6 +14,9 @@ limitations under the License.
 
 package adrestia;
 
+import java.util.List;
+import java.util.Set;
+
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.stereotype.Service;
 
@@ -35,9 +38,78 @@ public interface ServiceManagerInterface {
   */
   public ServiceInstance findClyman();
 
+  /**
+  * Get the latest known instances of a service.
+  * @param serviceName The Name of the Service, in Consul
+  * @return The instances of the service, which may not be modified
+  */
+  public List<ServiceInstance> getInstances(String serviceName);
+
+  /**
+  * Can a service be reached at all.
+  * @param serviceName The Name of the Service, in Consul
+  * @return False if the service has no instances, or every one of them is
+  *     ejected by its circuit breaker or failing health probes
+  */
+  public boolean isAvailable(String serviceName);
+
+  /**
+  * Find an instance of a service, other than those a transaction has already tried.
+  * @param serviceName The Name of the Service, in Consul
+  * @param excluded Keys of the instances to skip, from InstanceStats.keyOf
+  * @return A ServiceInstance object with the instance details found
+  */
+  public ServiceInstance findInstance(String serviceName, Set<String> excluded);
+
   /**
   * Report a Service Failure.
   * @param connectedInstance A ServiceInstance object with failed instance info
   */
   public void reportFailure(ServiceInstance connectedInstance);
+
+  /**
+  * Report a request being sent to a Service Instance.
+  * @param connectedInstance A ServiceInstance object with the instance info
+  */
+  public void reportRequestStarted(ServiceInstance connectedInstance);
+
+  /**
+  * Report an attempt at a request to a Service Instance completing,
+  * successfully or not.  Every retry is reported, and feeds the instance's
+  * load statistics.
+  * @param connectedInstance A ServiceInstance object with the instance info
+  * @param latency How many nanoseconds the request took
+  * @param success Did the request get a reply
+  */
+  public void reportRequestCompleted(ServiceInstance connectedInstance, long latency,
+      boolean success);
+
+  /**
+  * Report the outcome of a request on a Service Instance found for it, once
+  * the request gets a reply from the instance or gives up on it.  This is
+  * reported once for each instance found, however many times the request is
+  * retried, and feeds the instance's circuit breaker.
+  * @param connectedInstance A ServiceInstance object with the instance info
+  * @param success Did the request get a reply from the instance
+  * @param latency How many nanoseconds the last attempt took
+  */
+  public void reportRequestOutcome(ServiceInstance connectedInstance, boolean success,
+      long latency);
+
+  /**
+  * Report that an instance found for a request was never sent to, such as
+  * when every socket to it is busy.  Hands back any trial request taken
+  * from its circuit breaker.
+  * @param connectedInstance A ServiceInstance object with the instance info
+  */
+  public void reportRequestAbandoned(ServiceInstance connectedInstance);
+
+  /**
+  * Report the result of a health probe sent to a Service Instance.
+  * @param connectedInstance A ServiceInstance object with the instance info
+  * @param success Did the instance reply to the probe
+  * @param latency How many nanoseconds the probe took
+  */
+  public void reportProbeResult(ServiceInstance connectedInstance, boolean success,
+      long latency);
 }
@@ -0,0 +1,102 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.stereotype.Component;
+
+/**
+* Smooth Weighted Round Robin.
+* Each instance is weighted by the inverse of its moving average latency, so
+* an instance twice as fast is sent twice as many requests.  Instances
+* without a latency sample are given the highest known weight.
+*/
+@Component
+@ConditionalOnProperty(name = "server.discovery.loadbalancer", havingValue = "wrr")
+public class WeightedRoundRobinStrategy implements LoadBalancingStrategy {
+
+  // Running weight of each instance, guarded by this
+  private final Map<String, Double> currentWeights = new HashMap<String, Double>();
+
+  /**
+  * Default empty WeightedRoundRobinStrategy constructor.
+  */
+  public WeightedRoundRobinStrategy() {
+    super();
+  }
+
+  /**
+  * Choose the next Service Instance in the weighted rotation.
+  */
+  @Override
+  public synchronized ServiceInstance choose(List<ServiceInstance> candidates,
+      Map<String, InstanceStats> stats) {
+    int numCandidates = candidates.size();
+    if (numCandidates == 1) {
+      return candidates.get(0);
+    }
+    // Weight each instance by the inverse of its latency
+    double[] weights = new double[numCandidates];
+    double maxWeight = 0.0;
+    for (int i = 0; i < numCandidates; i++) {
+      InstanceStats instanceStats = stats.get(InstanceStats.keyOf(candidates.get(i)));
+      if (instanceStats != null && instanceStats.getLatencyEwma() > 0.0) {
+        weights[i] = 1.0 / instanceStats.getLatencyEwma();
+        maxWeight = Math.max(maxWeight, weights[i]);
+      }
+    }
+    if (maxWeight == 0.0) {
+      maxWeight = 1.0;
+    }
+    // Raise every running weight by its weight, pick the highest, and
+    // lower the one picked by the total
+    double totalWeight = 0.0;
+    int bestIndex = 0;
+    double bestWeight = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < numCandidates; i++) {
+      double weight = (weights[i] > 0.0) ? weights[i] : maxWeight;
+      totalWeight += weight;
+      String key = InstanceStats.keyOf(candidates.get(i));
+      Double current = currentWeights.get(key);
+      double newWeight = ((current == null) ? 0.0 : current) + weight;
+      currentWeights.put(key, newWeight);
+      if (newWeight > bestWeight) {
+        bestWeight = newWeight;
+        bestIndex = i;
+      }
+    }
+    String bestKey = InstanceStats.keyOf(candidates.get(bestIndex));
+    currentWeights.put(bestKey, bestWeight - totalWeight);
+    // Forget instances which have left the service
+    if (currentWeights.size() > numCandidates * 2) {
+      Map<String, Double> retained = new HashMap<String, Double>();
+      for (ServiceInstance candidate : candidates) {
+        String key = InstanceStats.keyOf(candidate);
+        retained.put(key, currentWeights.get(key));
+      }
+      currentWeights.clear();
+      currentWeights.putAll(retained);
+    }
+    return candidates.get(bestIndex);
+  }
+}
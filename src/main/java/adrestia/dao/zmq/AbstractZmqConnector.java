@@ -0,0 +1,170 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import org.zeromq.ZMQ;
+
+/**
+* A Service which connects to an external ZMQ Service.
+* Every message is sent as a ZMQ Transaction, which finds a service instance,
+* retries, fails over and hedges as needed.  Subclasses decide how each
+* attempt reaches an instance, by implementing the ZMQ Transport.
+* Transactions run asynchronously, and blocking sends simply wait on them.
+*/
+public abstract class AbstractZmqConnector implements ZmqConnection, ZmqTransport {
+
+  // ZMQ Reactor, which sends each attempt and polls for the reply
+  @Autowired
+  ZmqReactor reactor;
+
+  // Service Manager
+  @Autowired
+  ServiceManagerInterface serviceManager;
+
+  // Utility Provider, providing us with basic utility methods
+  @Autowired
+  UtilityProviderInterface utils;
+
+  // Timeout Estimator, which adapts the timeout of each attempt
+  @Autowired
+  TimeoutEstimator timeoutEstimator;
+
+  // Retry Budgets, which limit retries and failovers for each service
+  @Autowired
+  RetryBudgetManager retryBudget;
+
+  // Send a hedge to another instance when a read is slow
+  @Value("${server.zmq.hedge.enabled}")
+  private boolean hedgingEnabled;
+  // Percentile of an instance's latency after which a read is hedged
+  @Value("${server.zmq.hedge.percentile}")
+  private double hedgePercentile;
+
+  // ZMQ Connector Logger
+  final Logger logger = LogManager.getLogger("adrestia.ZMQ");
+
+  /**
+  * Send a message to the ZMQ Socket, return the response.
+  * Send and return a string
+  * @param msg The String message to send on the ZMQ Socket
+  * @param timeout How many milliseconds to wait before retrying
+  * @param retries How many times to retry before reporting a failure
+  * @param serviceName The Name of the Service we are sending to, in Consul
+  * @return The String response message from a matching service
+  */
+  @Override
+  public String send(String msg, int timeout, int retries, String serviceName) {
+    byte[] response = send(msg.getBytes(ZMQ.CHARSET), timeout, retries, serviceName);
+    if (response == null) {
+      return null;
+    }
+    return new String(response, ZMQ.CHARSET);
+  }
+
+  /**
+  * Send an encoded message to the ZMQ Socket, return the response.
+  * The same message frame is re-used for every retry.
+  * @param msg The UTF-8 encoded message to send on the ZMQ Socket
+  * @param timeout How many milliseconds to wait before retrying
+  * @param retries How many times to retry before reporting a failure
+  * @param serviceName The Name of the Service we are sending to, in Consul
+  * @return The raw response message from a matching service
+  */
+  @Override
+  public byte[] send(byte[] msg, int timeout, int retries, String serviceName) {
+    try {
+      return sendAsync(msg, timeout, retries, serviceName).get();
+    } catch (InterruptedException e) {
+      // The transaction carries on, and releases its own connection
+      Thread.currentThread().interrupt();
+      logger.error("Interrupted while waiting for a reply from Service");
+    } catch (ExecutionException e) {
+      logger.error("Error Sending message to Service: ", e.getCause());
+    }
+    return null;
+  }
+
+  /**
+  * Send a message to the ZMQ Socket, without blocking the calling thread.
+  * @param msg The String message to send on the ZMQ Socket
+  * @param timeout How many milliseconds to wait before retrying
+  * @param retries How many times to retry before reporting a failure
+  * @param serviceName The Name of the Service we are sending to, in Consul
+  * @return A future completed with the String response message from a
+  *     matching service, or with null if no service responded
+  */
+  @Override
+  public CompletableFuture<String> sendAsync(String msg, int timeout, int retries,
+      String serviceName) {
+    return sendAsync(msg.getBytes(ZMQ.CHARSET), timeout, retries, serviceName)
+        .thenApply(new Function<byte[], String>() {
+          @Override
+          public String apply(byte[] response) {
+            if (response == null) {
+              return null;
+            }
+            return new String(response, ZMQ.CHARSET);
+          }
+        });
+  }
+
+  /**
+  * Send an encoded message to the ZMQ Socket, without blocking the calling thread.
+  * The same message frame is re-used for every retry.
+  * @param msg The UTF-8 encoded message to send on the ZMQ Socket
+  * @param timeout How many milliseconds to wait before retrying
+  * @param retries How many times to retry before reporting a failure
+  * @param serviceName The Name of the Service we are sending to, in Consul
+  * @return A future completed with the raw response message from a
+  *     matching service, or with null if no service responded
+  */
+  @Override
+  public CompletableFuture<byte[]> sendAsync(byte[] msg, int timeout, int retries,
+      String serviceName) {
+    return sendAsync(new ZmqRequest(msg, ZmqRequest.UNKNOWN_MSG_TYPE, timeout, retries,
+        serviceName, false, RequestDeadline.current()));
+  }
+
+  /**
+  * Send a request to the ZMQ Socket, without blocking the calling thread.
+  * The timeout of each attempt may adapt to the latency recently seen for
+  * the request's Message Type, but never exceeds the request's timeout.
+  * @param request The encoded message, and how to send it
+  * @return A future completed with the raw response message from a
+  *     matching service, or with null if no service responded
+  */
+  @Override
+  public CompletableFuture<byte[]> sendAsync(ZmqRequest request) {
+    ZmqTransaction transaction = new ZmqTransaction(request, this, serviceManager,
+        timeoutEstimator, retryBudget, reactor);
+    if (hedgingEnabled) {
+      transaction.hedgeAfter(hedgePercentile);
+    }
+    return transaction.start();
+  }
+}
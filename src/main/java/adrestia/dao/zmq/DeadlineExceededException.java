@@ -0,0 +1,49 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+/**
+* Thrown when a message could not be answered before the deadline of the
+* HTTP Request it was sent for.
+*/
+public class DeadlineExceededException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+  * DeadlineExceededException constructor.
+  * @param message Description of where the deadline was exceeded
+  */
+  public DeadlineExceededException(String message) {
+    super(message);
+  }
+
+  /**
+  * Find out whether a failure was caused by an exceeded deadline.
+  * @param err The failure, which may wrap the cause
+  * @return True if a DeadlineExceededException is found among the causes
+  */
+  public static boolean isCauseOf(Throwable err) {
+    for (Throwable cause = err; cause != null; cause = cause.getCause()) {
+      if (cause instanceof DeadlineExceededException) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
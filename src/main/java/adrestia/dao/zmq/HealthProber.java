@@ -0,0 +1,258 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.stereotype.Component;
+
+import org.zeromq.ZMQ;
+import org.zeromq.ZPoller;
+
+/**
+* Sends a ping message to every instance of Crazy Ivan and CLyman on a
+* schedule, and reports the results to the Service Manager.  Instances which
+* fail their probes are skipped before user requests time out on them.
+* Each instance is probed over its own REQ socket, which is only used by the
+* probe thread.
+*/
+@Component
+public class HealthProber {
+
+  // Send health probes in the background
+  @Value("${server.discovery.probe.enabled}")
+  private boolean probeEnabled;
+  // How many milliseconds between rounds of health probes
+  @Value("${server.discovery.probe.interval}")
+  private int probeInterval;
+  // How many milliseconds to wait for a reply to a health probe
+  @Value("${server.discovery.probe.timeout}")
+  private int probeTimeout;
+
+  // ZMQ Context
+  @Autowired
+  ZmqContextContainer context;
+
+  // Service Manager, which finds the instances and receives the results
+  @Autowired
+  ServiceManagerInterface serviceManager;
+
+  // Utility Provider, providing us with basic utility methods
+  @Autowired
+  UtilityProviderInterface utils;
+
+  // The ping message, which the services echo back
+  private static final byte[] PING_MSG = "{\"msg_type\": 555}".getBytes(ZMQ.CHARSET);
+
+  // Services which are probed
+  private static final String[] SERVICE_NAMES = {"Ivan", "Clyman"};
+
+  // Health Prober Logger
+  private final Logger logger = LogManager.getLogger("adrestia.HealthProber");
+
+  // Probe socket for each instance address, only used by the probe thread
+  private final Map<String, ZMQ.Socket> probeSockets = new HashMap<String, ZMQ.Socket>();
+
+  // Poller for the probe sockets, only used by the probe thread
+  private ZPoller poller = null;
+
+  // Thread which sends the probes
+  private ScheduledExecutorService probeExecutor = null;
+
+  /**
+  * A probe waiting on a reply, timed from when it was sent rather than
+  * from the start of the round.
+  */
+  private static class PendingProbe {
+    private final String address;
+    private final long sentAt;
+
+    PendingProbe(String address, long sentAt) {
+      this.address = address;
+      this.sentAt = sentAt;
+    }
+  }
+
+  /**
+  * Default empty HealthProber constructor.
+  */
+  public HealthProber() {
+    super();
+  }
+
+  /**
+  * Start sending health probes.
+  */
+  @PostConstruct
+  public void start() {
+    if (!probeEnabled) {
+      return;
+    }
+    probeExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable task) {
+        Thread thread = new Thread(task, "adrestia-health-prober");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    probeExecutor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          probeAll();
+        } catch (Exception e) {
+          logger.error("Error sending health probes: ", e);
+        }
+      }
+    }, probeInterval, probeInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+  * Stop sending health probes, and close the probe sockets.
+  */
+  @PreDestroy
+  public void destroy() throws InterruptedException {
+    if (probeExecutor == null) {
+      return;
+    }
+    // The sockets belong to the probe thread, so close them there
+    probeExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        for (ZMQ.Socket socket : probeSockets.values()) {
+          context.context.destroySocket(socket);
+        }
+        probeSockets.clear();
+        if (poller != null) {
+          poller.destroy();
+          poller = null;
+        }
+      }
+    });
+    probeExecutor.shutdown();
+    probeExecutor.awaitTermination(probeTimeout + 1000, TimeUnit.MILLISECONDS);
+    probeExecutor = null;
+  }
+
+  // Get the probe socket for an address, opening one if needed
+  private ZMQ.Socket socketFor(String address) {
+    ZMQ.Socket socket = probeSockets.get(address);
+    if (socket == null) {
+      socket = context.context.createSocket(ZMQ.REQ);
+      socket.setLinger(0);
+      socket.connect(address);
+      probeSockets.put(address, socket);
+    }
+    return socket;
+  }
+
+  // Close a probe socket, which is stuck waiting on a reply
+  private void closeSocket(String address) {
+    ZMQ.Socket socket = probeSockets.remove(address);
+    if (socket != null) {
+      context.context.destroySocket(socket);
+    }
+  }
+
+  // Send a probe to every instance of every service, and wait for the replies
+  void probeAll() {
+    if (poller == null) {
+      poller = new ZPoller(context.context);
+    }
+    // Find the instances, skipping any address we have already seen
+    Map<String, ServiceInstance> instances = new HashMap<String, ServiceInstance>();
+    for (String serviceName : SERVICE_NAMES) {
+      List<ServiceInstance> serviceInstances = serviceManager.getInstances(serviceName);
+      if (serviceInstances != null) {
+        for (ServiceInstance instance : serviceInstances) {
+          instances.put(utils.getZmqAddr(instance), instance);
+        }
+      }
+    }
+    // Close the sockets to instances which are gone
+    for (String address : new ArrayList<String>(probeSockets.keySet())) {
+      if (!instances.containsKey(address)) {
+        closeSocket(address);
+      }
+    }
+    // Send the probes
+    long start = System.nanoTime();
+    Map<ZMQ.Socket, PendingProbe> pending = new IdentityHashMap<ZMQ.Socket, PendingProbe>();
+    for (Map.Entry<String, ServiceInstance> entry : instances.entrySet()) {
+      ZMQ.Socket socket = socketFor(entry.getKey());
+      long sentAt = System.nanoTime();
+      if (socket.send(PING_MSG, ZMQ.DONTWAIT)) {
+        poller.register(socket, ZPoller.POLLIN);
+        pending.put(socket, new PendingProbe(entry.getKey(), sentAt));
+      } else {
+        logger.warn("Unable to send health probe to " + entry.getKey());
+        closeSocket(entry.getKey());
+        serviceManager.reportProbeResult(entry.getValue(), false, System.nanoTime() - sentAt);
+      }
+    }
+    // Collect the replies until they are all in, or we time out
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(probeTimeout);
+    while (!pending.isEmpty()) {
+      long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remaining <= 0) {
+        break;
+      }
+      poller.poll(remaining);
+      Iterator<Map.Entry<ZMQ.Socket, PendingProbe>> itr = pending.entrySet().iterator();
+      while (itr.hasNext()) {
+        Map.Entry<ZMQ.Socket, PendingProbe> entry = itr.next();
+        ZMQ.Socket socket = entry.getKey();
+        PendingProbe probe = entry.getValue();
+        if (poller.isReadable(socket) && socket.recv(ZMQ.DONTWAIT) != null) {
+          itr.remove();
+          poller.unregister(socket);
+          serviceManager.reportProbeResult(instances.get(probe.address), true,
+              System.nanoTime() - probe.sentAt);
+        }
+      }
+    }
+    // Anything left has failed its probe, and its socket can't be reused
+    for (Map.Entry<ZMQ.Socket, PendingProbe> entry : pending.entrySet()) {
+      PendingProbe probe = entry.getValue();
+      logger.warn("No reply to health probe from " + probe.address);
+      poller.unregister(entry.getKey());
+      closeSocket(probe.address);
+      serviceManager.reportProbeResult(instances.get(probe.address), false,
+          System.nanoTime() - probe.sentAt);
+    }
+  }
+}
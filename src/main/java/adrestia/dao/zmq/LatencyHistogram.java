@@ -0,0 +1,129 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+* A histogram of request latencies, with four buckets per power of two
+* microseconds, so each percentile is accurate to within about 19%.
+* Once the histogram holds a full window of samples, every count is halved,
+* so older samples fade out and the percentiles follow the recent latency.
+* Recording is lock free, and concurrent samples may be lost while counts
+* are halved.
+*/
+public class LatencyHistogram {
+
+  // Number of buckets for each power of two
+  private static final int SUB_BUCKETS = 4;
+  // Number of buckets, enough to cover latencies up to 2^25 microseconds (33 seconds)
+  private static final int NUM_BUCKETS = 25 * SUB_BUCKETS + 1;
+
+  // Samples held before the counts are halved
+  private final int windowSize;
+  // Count of samples in each bucket
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+  // Count of samples across all buckets
+  private final AtomicLong totalCount = new AtomicLong(0);
+
+  /**
+  * LatencyHistogram constructor.
+  * @param windowSize Number of samples held before older ones start to fade
+  */
+  public LatencyHistogram(int windowSize) {
+    this.windowSize = Math.max(2, windowSize);
+  }
+
+  // Find the bucket for a latency in microseconds
+  private static int bucketOf(long micros) {
+    if (micros <= 1) {
+      return 0;
+    }
+    int bucket = (int) (SUB_BUCKETS * Math.log(micros) / Math.log(2));
+    return Math.min(bucket, NUM_BUCKETS - 1);
+  }
+
+  // Get the largest latency in a bucket, in microseconds
+  private static double upperBoundOf(int bucket) {
+    return Math.pow(2, (double) (bucket + 1) / SUB_BUCKETS);
+  }
+
+  /**
+  * Record the latency of a request.
+  * @param latency How many nanoseconds the request took
+  */
+  public void record(long latency) {
+    counts.incrementAndGet(bucketOf(TimeUnit.NANOSECONDS.toMicros(latency)));
+    if (totalCount.incrementAndGet() >= windowSize) {
+      decay();
+    }
+  }
+
+  // Halve every count, once per full window
+  private synchronized void decay() {
+    if (totalCount.get() < windowSize) {
+      return;
+    }
+    long remaining = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      long count = counts.get(i);
+      long halved = count / 2;
+      counts.addAndGet(i, halved - count);
+      remaining += halved;
+    }
+    totalCount.set(remaining);
+  }
+
+  /**
+  * Get the number of samples currently in the histogram.
+  * @return The number of samples, after older ones have faded
+  */
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  /**
+  * Get a percentile of the recorded latencies.
+  * @param percentile The percentile, between 0 and 100
+  * @return The latency in nanoseconds which the given percentage of requests
+  *     completed within, or zero if nothing has been recorded
+  */
+  public long getPercentile(double percentile) {
+    long[] snapshot = new long[NUM_BUCKETS];
+    long total = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long target = (long) Math.ceil(total * Math.min(100.0, percentile) / 100.0);
+    long seen = 0;
+    int bucket = 0;
+    for (; bucket < NUM_BUCKETS - 1; bucket++) {
+      seen += snapshot[bucket];
+      if (seen >= target) {
+        break;
+      }
+    }
+    return (long) (upperBoundOf(bucket) * 1000.0);
+  }
+}
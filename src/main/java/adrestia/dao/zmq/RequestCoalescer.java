@@ -0,0 +1,220 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+* Sends messages for the DAOs, collapsing identical reads which are in flight
+* at the same time into a single message (single-flight).
+* Reads are keyed by service, Message Type and encoded message, so when many
+* clients ask for the same Scene or Object at once, one message is sent and
+* its reply is handed to every one of them.  The reply is shared, and must
+* not be modified.  Callers keep their own deadline, so one which joins a read
+* sent with an earlier deadline sends it again if that read runs out of time.
+* Writes are always sent on their own.
+*/
+@Component
+public class RequestCoalescer implements PublicMetrics {
+
+  // Collapse identical reads which are in flight at the same time
+  @Value("${server.zmq.coalesce.enabled}")
+  private boolean coalesceEnabled;
+
+  // ZMQ Connection, which sends the messages
+  @Autowired
+  ZmqConnection zmqConn;
+
+  // Reads in flight, by key
+  private final ConcurrentMap<FlightKey, CompletableFuture<byte[]>> flights =
+      new ConcurrentHashMap<FlightKey, CompletableFuture<byte[]>>();
+
+  // Number of reads sent, and number which joined a read already in flight
+  private final AtomicLong readsSent = new AtomicLong(0);
+  private final AtomicLong readsCoalesced = new AtomicLong(0);
+  // Number of reads sent again for callers which outlived the flight they joined
+  private final AtomicLong readsResent = new AtomicLong(0);
+
+  /**
+  * Key of a read in flight.
+  */
+  private static class FlightKey {
+    private final String serviceName;
+    private final int msgType;
+    private final byte[] msg;
+    private final int hash;
+
+    FlightKey(ZmqRequest request) {
+      this.serviceName = request.getServiceName();
+      this.msgType = request.getMsgType();
+      this.msg = request.getMsg();
+      this.hash = 31 * (31 * serviceName.hashCode() + msgType) + Arrays.hashCode(msg);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof FlightKey)) {
+        return false;
+      }
+      FlightKey key = (FlightKey) other;
+      return hash == key.hash && msgType == key.msgType
+          && serviceName.equals(key.serviceName) && Arrays.equals(msg, key.msg);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+  * Default empty RequestCoalescer constructor.
+  */
+  public RequestCoalescer() {
+    super();
+  }
+
+  // Does an error come from the deadline of a request passing
+  private static boolean isDeadlineExceeded(Throwable err) {
+    Throwable cause = (err instanceof CompletionException) ? err.getCause() : err;
+    return cause instanceof DeadlineExceededException;
+  }
+
+  // Hand the reply to a flight on to one caller.  Callbacks waiting on it run
+  // within the caller's own deadline, rather than that of the first caller.
+  // A flight which ran out of time fails only those callers whose own
+  // deadline has passed, and the rest send the read again
+  private CompletableFuture<byte[]> follow(CompletableFuture<byte[]> flight,
+      final ZmqRequest request) {
+    final RequestDeadline deadline = request.getDeadline();
+    final CompletableFuture<byte[]> response = new CompletableFuture<byte[]>();
+    flight.whenComplete(new BiConsumer<byte[], Throwable>() {
+      @Override
+      public void accept(final byte[] reply, final Throwable err) {
+        if (err != null && isDeadlineExceeded(err)
+            && (deadline == null || !deadline.isExpired())) {
+          resend(request, response);
+          return;
+        }
+        RequestDeadline.runWithin(deadline, new Runnable() {
+          @Override
+          public void run() {
+            if (err != null) {
+              response.completeExceptionally(err);
+            } else {
+              response.complete(reply);
+            }
+          }
+        });
+      }
+    });
+    return response;
+  }
+
+  // Send a read again for a caller which outlived the flight it joined
+  private void resend(ZmqRequest request, final CompletableFuture<byte[]> response) {
+    readsResent.incrementAndGet();
+    try {
+      sendAsync(request).whenComplete(new BiConsumer<byte[], Throwable>() {
+        @Override
+        public void accept(byte[] reply, Throwable err) {
+          if (err != null) {
+            response.completeExceptionally(err);
+          } else {
+            response.complete(reply);
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      response.completeExceptionally(e);
+    }
+  }
+
+  /**
+  * Send a message, joining an identical read if one is already in flight.
+  * @param request The encoded message, and how to send it
+  * @return A future completed with the raw response message from a
+  *     matching service, or with null if no service responded
+  */
+  public CompletableFuture<byte[]> sendAsync(ZmqRequest request) {
+    if (!coalesceEnabled || !request.isIdempotent()) {
+      return zmqConn.sendAsync(request);
+    }
+    final FlightKey key = new FlightKey(request);
+    CompletableFuture<byte[]> flight = flights.get(key);
+    if (flight != null) {
+      readsCoalesced.incrementAndGet();
+      return follow(flight, request);
+    }
+    final CompletableFuture<byte[]> newFlight = new CompletableFuture<byte[]>();
+    flight = flights.putIfAbsent(key, newFlight);
+    if (flight != null) {
+      readsCoalesced.incrementAndGet();
+      return follow(flight, request);
+    }
+    readsSent.incrementAndGet();
+    CompletableFuture<byte[]> followed = follow(newFlight, request);
+    try {
+      zmqConn.sendAsync(request).whenComplete(new BiConsumer<byte[], Throwable>() {
+        @Override
+        public void accept(byte[] reply, Throwable err) {
+          // Later reads need a fresh reply, so stop taking on callers first
+          flights.remove(key, newFlight);
+          if (err != null) {
+            newFlight.completeExceptionally(err);
+          } else {
+            newFlight.complete(reply);
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      flights.remove(key, newFlight);
+      newFlight.completeExceptionally(e);
+    }
+    return followed;
+  }
+
+  /**
+  * Expose the number of reads sent, and the number which were collapsed into them.
+  * @return The coalescing metrics
+  */
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+    metrics.add(new Metric<Long>("adrestia.coalesce.sent", readsSent.get()));
+    metrics.add(new Metric<Long>("adrestia.coalesce.coalesced", readsCoalesced.get()));
+    metrics.add(new Metric<Long>("adrestia.coalesce.resent", readsResent.get()));
+    metrics.add(new Metric<Integer>("adrestia.coalesce.inflight", flights.size()));
+    return metrics;
+  }
+}
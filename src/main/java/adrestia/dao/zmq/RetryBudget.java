@@ -0,0 +1,130 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+* Retry Budget for a single downstream Service.
+* A token bucket, topped up by a percentage of a token for every successful
+* request, and by a small number of tokens each second so that retries are
+* still possible when traffic is light.  Each retry, or failover to another
+* instance, takes a whole token, and is denied when none are left.  Retries
+* are therefore capped at a percentage of recent successful requests, and
+* dry up during an outage instead of multiplying the load on the service.
+*/
+public class RetryBudget {
+
+  // Name of the service, used when reporting metrics
+  private final String name;
+
+  // Tokens deposited for each successful request
+  private final double depositPerSuccess;
+  // Tokens deposited for each nanosecond that passes
+  private final double depositPerNano;
+  // Most tokens the bucket may hold
+  private final double maxBalance;
+
+  // Tokens currently in the bucket
+  private double balance;
+  // When tokens were last deposited for the time passed
+  private long lastRefill = System.nanoTime();
+
+  // Number of retries allowed, and denied, by the budget
+  private long retriesAllowed = 0;
+  private long retriesDenied = 0;
+
+  /**
+  * Complete RetryBudget constructor.
+  * The bucket starts full.
+  * @param name The name of the service the budget is for
+  * @param percent Retries allowed, as a percentage of successful requests
+  * @param minPerSecond Retries allowed each second, however few requests succeed
+  * @param maxBalance The most retries which may be saved up
+  */
+  public RetryBudget(String name, int percent, int minPerSecond, int maxBalance) {
+    this.name = name;
+    this.depositPerSuccess = percent / 100.0;
+    this.depositPerNano = minPerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+    this.maxBalance = maxBalance;
+    this.balance = maxBalance;
+  }
+
+  // Deposit the tokens earned by the time passed since the last refill
+  private void refill() {
+    long now = System.nanoTime();
+    balance = Math.min(maxBalance, balance + (now - lastRefill) * depositPerNano);
+    lastRefill = now;
+  }
+
+  /**
+  * Record a successful request, which earns part of a retry.
+  */
+  public synchronized void recordSuccess() {
+    refill();
+    balance = Math.min(maxBalance, balance + depositPerSuccess);
+  }
+
+  /**
+  * Take a token for a retry, if the budget allows one.
+  * @return True if the retry may be sent
+  */
+  public synchronized boolean tryRetry() {
+    refill();
+    if (balance >= 1.0) {
+      balance -= 1.0;
+      retriesAllowed++;
+      return true;
+    }
+    retriesDenied++;
+    return false;
+  }
+
+  /**
+  * Get the name of the service.
+  * @return The name of the service the budget is for
+  */
+  public String getName() {
+    return name;
+  }
+
+  /**
+  * Get the number of retries which may be sent right now.
+  * @return The tokens currently in the bucket
+  */
+  public synchronized double getBalance() {
+    refill();
+    return balance;
+  }
+
+  /**
+  * Get the number of retries allowed.
+  * @return The number of retries the budget has allowed
+  */
+  public synchronized long getRetriesAllowed() {
+    return retriesAllowed;
+  }
+
+  /**
+  * Get the number of retries denied.
+  * @return The number of retries the budget has denied
+  */
+  public synchronized long getRetriesDenied() {
+    return retriesDenied;
+  }
+}
@@ -0,0 +1,121 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+* Keeps a Retry Budget for each downstream Service, which the connectors
+* consult before every retry and failover.
+*/
+@Component
+public class RetryBudgetManager implements PublicMetrics {
+
+  // Limit retries to a budget
+  @Value("${server.zmq.retry.budget.enabled}")
+  private boolean budgetEnabled;
+  // Retries allowed, as a percentage of successful requests
+  @Value("${server.zmq.retry.budget.percent}")
+  private int budgetPercent;
+  // Retries allowed each second, however few requests succeed
+  @Value("${server.zmq.retry.budget.min}")
+  private int budgetMinPerSecond;
+  // The most retries which may be saved up
+  @Value("${server.zmq.retry.budget.max}")
+  private int budgetMax;
+
+  // Retry Budget for each service
+  private final Map<String, RetryBudget> budgets = new ConcurrentHashMap<String, RetryBudget>();
+
+  // Retry Budget Logger
+  private final Logger logger = LogManager.getLogger("adrestia.RetryBudget");
+
+  /**
+  * Default empty RetryBudgetManager constructor.
+  */
+  public RetryBudgetManager() {
+    super();
+  }
+
+  // Get the Retry Budget for a service, creating one if needed
+  private RetryBudget budgetOf(String serviceName) {
+    RetryBudget budget = budgets.get(serviceName);
+    if (budget == null) {
+      budget = new RetryBudget(serviceName, budgetPercent, budgetMinPerSecond, budgetMax);
+      RetryBudget existing = budgets.putIfAbsent(serviceName, budget);
+      if (existing != null) {
+        budget = existing;
+      }
+    }
+    return budget;
+  }
+
+  /**
+  * Record a successful request to a service.
+  * @param serviceName The Name of the Service, in Consul
+  */
+  public void recordSuccess(String serviceName) {
+    if (budgetEnabled) {
+      budgetOf(serviceName).recordSuccess();
+    }
+  }
+
+  /**
+  * Ask the budget of a service for a retry, or a failover to another instance.
+  * @param serviceName The Name of the Service, in Consul
+  * @return True if the retry may be sent
+  */
+  public boolean tryRetry(String serviceName) {
+    if (!budgetEnabled) {
+      return true;
+    }
+    if (budgetOf(serviceName).tryRetry()) {
+      return true;
+    }
+    logger.warn("Retry budget for " + serviceName + " is spent, not retrying");
+    return false;
+  }
+
+  /**
+  * Expose the retries allowed and denied, and the retries left, for each service.
+  * @return A set of metrics for each service
+  */
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+    for (RetryBudget budget : budgets.values()) {
+      String prefix = "adrestia.retry." + budget.getName() + ".";
+      metrics.add(new Metric<Long>(prefix + "allowed", budget.getRetriesAllowed()));
+      metrics.add(new Metric<Long>(prefix + "denied", budget.getRetriesDenied()));
+      metrics.add(new Metric<Double>(prefix + "balance", budget.getBalance()));
+    }
+    return metrics;
+  }
+}
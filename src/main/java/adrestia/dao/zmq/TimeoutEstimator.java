@@ -0,0 +1,156 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.stereotype.Component;
+
+/**
+* Derives the timeout for each request from the latency recently seen for
+* the same Message Type on the same Service instance.
+* The timeout is a high percentile of that latency plus a margin, kept
+* between a floor and the timeout configured for the request.  Until enough
+* replies have been seen, the configured timeout is used as-is.
+*/
+@Component
+public class TimeoutEstimator implements PublicMetrics {
+
+  // Derive timeouts from the latency histograms
+  @Value("${server.zmq.timeout.adaptive.enabled}")
+  private boolean adaptiveEnabled;
+  // Percentile of the latency the timeout is based on
+  @Value("${server.zmq.timeout.adaptive.percentile}")
+  private double percentile;
+  // How many milliseconds to add to the percentile
+  @Value("${server.zmq.timeout.adaptive.margin}")
+  private int margin;
+  // Smallest timeout, in milliseconds
+  @Value("${server.zmq.timeout.adaptive.floor}")
+  private int floor;
+  // Number of replies needed before the timeout adapts
+  @Value("${server.zmq.timeout.adaptive.samples}")
+  private int minSamples;
+  // Number of replies held in each histogram before older ones fade
+  @Value("${server.zmq.timeout.adaptive.window}")
+  private int windowSize;
+
+  // Latency histogram for each instance and Message Type
+  private final Map<String, LatencyHistogram> histograms =
+      new ConcurrentHashMap<String, LatencyHistogram>();
+
+  /**
+  * Default empty TimeoutEstimator constructor.
+  */
+  public TimeoutEstimator() {
+    super();
+  }
+
+  // Build the key for an instance and Message Type
+  private static String keyOf(ServiceInstance instance, int msgType) {
+    return InstanceStats.keyOf(instance) + "." + msgType;
+  }
+
+  // Get the latency histogram for an instance and Message Type, creating one if needed
+  private LatencyHistogram histogramOf(ServiceInstance instance, int msgType) {
+    String key = keyOf(instance, msgType);
+    LatencyHistogram histogram = histograms.get(key);
+    if (histogram == null) {
+      histogram = new LatencyHistogram(windowSize);
+      LatencyHistogram existing = histograms.putIfAbsent(key, histogram);
+      if (existing != null) {
+        histogram = existing;
+      }
+    }
+    return histogram;
+  }
+
+  /**
+  * Get the timeout for a request to a Service instance.
+  * @param instance The instance the request is sent to
+  * @param msgType The Message Type of the request
+  * @param ceiling The configured timeout, in milliseconds, which is never exceeded
+  * @return How many milliseconds to wait for a reply
+  */
+  public int timeoutFor(ServiceInstance instance, int msgType, int ceiling) {
+    if (!adaptiveEnabled) {
+      return ceiling;
+    }
+    long latency = percentileFor(instance, msgType, percentile);
+    if (latency < 0) {
+      return ceiling;
+    }
+    return (int) Math.min(ceiling, Math.max(floor, latency + margin));
+  }
+
+  /**
+  * Get a percentile of the latency recently seen from a Service instance.
+  * @param instance The instance which replied
+  * @param msgType The Message Type of the requests
+  * @param latencyPercentile The percentile, between 0 and 100
+  * @return The latency in milliseconds, or -1 until enough replies have been seen
+  */
+  public long percentileFor(ServiceInstance instance, int msgType, double latencyPercentile) {
+    if (msgType == ZmqRequest.UNKNOWN_MSG_TYPE) {
+      return -1;
+    }
+    LatencyHistogram histogram = histograms.get(keyOf(instance, msgType));
+    if (histogram == null || histogram.getCount() < minSamples) {
+      return -1;
+    }
+    return TimeUnit.NANOSECONDS.toMillis(histogram.getPercentile(latencyPercentile));
+  }
+
+  /**
+  * Record the latency of a reply from a Service instance.
+  * Only replies are recorded, as a timed out request says nothing about how
+  * long the reply would have taken.
+  * @param instance The instance which replied
+  * @param msgType The Message Type of the request
+  * @param latency How many nanoseconds the reply took
+  */
+  public void record(ServiceInstance instance, int msgType, long latency) {
+    if (msgType == ZmqRequest.UNKNOWN_MSG_TYPE) {
+      return;
+    }
+    histogramOf(instance, msgType).record(latency);
+  }
+
+  /**
+  * Expose the chosen percentile of each latency histogram, in milliseconds.
+  * @return A metric for each instance and Message Type
+  */
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+    for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+      metrics.add(new Metric<Double>("adrestia.latency." + entry.getKey() + ".percentile",
+          entry.getValue().getPercentile(percentile) / 1000000.0));
+    }
+    return metrics;
+  }
+}
@@ -17,6 +17,8 @@ limitations under the License.
 
 package adrestia;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.springframework.stereotype.Service;
 
 /**
@@ -35,4 +37,50 @@ public interface ZmqConnection {
   * @return The String response message from a matching service
   */
   public String send(String msg, int timeout, int retries, String serviceName);
+
+  /**
+  * Send an encoded message to the ZMQ Socket, return the response.
+  * The message is encoded once by the caller, and the same frame is
+  * re-used for every retry.
+  * @param msg The UTF-8 encoded message to send on the ZMQ Socket
+  * @param timeout How many milliseconds to wait before retrying
+  * @param retries How many times to retry before reporting a failure
+  * @param serviceName The Name of the Service we are sending to, in Consul
+  * @return The raw response message from a matching service
+  */
+  public byte[] send(byte[] msg, int timeout, int retries, String serviceName);
+
+  /**
+  * Send a message to the ZMQ Socket, without blocking the calling thread.
+  * @param msg The String message to send on the ZMQ Socket
+  * @param timeout How many milliseconds to wait before retrying
+  * @param retries How many times to retry before reporting a failure
+  * @param serviceName The Name of the Service we are sending to, in Consul
+  * @return A future completed with the String response message from a
+  *     matching service, or with null if no service responded
+  */
+  public CompletableFuture<String> sendAsync(String msg, int timeout, int retries,
+      String serviceName);
+
+  /**
+  * Send an encoded message to the ZMQ Socket, without blocking the calling thread.
+  * @param msg The UTF-8 encoded message to send on the ZMQ Socket
+  * @param timeout How many milliseconds to wait before retrying
+  * @param retries How many times to retry before reporting a failure
+  * @param serviceName The Name of the Service we are sending to, in Consul
+  * @return A future completed with the raw response message from a
+  *     matching service, or with null if no service responded
+  */
+  public CompletableFuture<byte[]> sendAsync(byte[] msg, int timeout, int retries,
+      String serviceName);
+
+  /**
+  * Send a request to the ZMQ Socket, without blocking the calling thread.
+  * The timeout of each attempt may adapt to the latency recently seen for
+  * the request's Message Type, but never exceeds the request's timeout.
+  * @param request The encoded message, and how to send it
+  * @return A future completed with the raw response message from a
+  *     matching service, or with null if no service responded
+  */
+  public CompletableFuture<byte[]> sendAsync(ZmqRequest request);
 }
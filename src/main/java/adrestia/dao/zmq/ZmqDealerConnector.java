@@ -0,0 +1,85 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.stereotype.Component;
+
+/**
+* A Service which connects to an external ZMQ Service using DEALER Sockets.
+* Each request is tagged with a correlation ID, so that many requests can be
+* in flight on a single connection per service instance, and replies can be
+* matched back to their callers out of order.  The services on the other end
+* are REP sockets, which echo the correlation ID frame back to us as part of
+* the reply envelope.  The sockets themselves are owned by the ZMQ Reactor.
+*/
+@Component
+@ConditionalOnProperty(name = "server.zmq.transport", havingValue = "dealer")
+public class ZmqDealerConnector extends AbstractZmqConnector {
+
+  /**
+  * Default empty ZmqDealerConnector constructor.
+  */
+  public ZmqDealerConnector() {
+    super();
+  }
+
+  /**
+  * Open a connection to a service instance.  Every transaction shares the
+  * reactor's DEALER socket to the instance, so this never has to wait.
+  * @param instance The service instance to connect to
+  * @param serviceName The Name of the Service, in Consul
+  * @return A future completed with the connection
+  */
+  @Override
+  public CompletableFuture<ZmqTransport.Connection> open(ServiceInstance instance,
+      String serviceName) {
+    return CompletableFuture.<ZmqTransport.Connection>completedFuture(
+        new DealerConnection(utils.getZmqAddr(instance)));
+  }
+
+  // The address of an instance, which the reactor sends each attempt to.
+  // A late reply to an attempt will be discarded by the reactor
+  private class DealerConnection implements ZmqTransport.Connection {
+    private final String address;
+
+    DealerConnection(String address) {
+      this.address = address;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> send(byte[] msg, int timeout) {
+      return reactor.dealerRequest(address, msg, timeout);
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public void release() {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,561 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import org.zeromq.ZMQ;
+import org.zeromq.ZPoller;
+
+/**
+* Single-threaded I/O Reactor for ZMQ Sockets.
+* Each reactor thread owns its DEALER sockets for their whole life, closing
+* any which have had nothing in flight for longer than the idle timeout, and the
+* pooled REQ sockets handed to it while a request is in flight on them.  It
+* polls all of them in one loop with a single long-lived poller.  Pooled
+* sockets are opened, reset and closed by the Socket Pool on the thread
+* holding them, and the reactor stops polling one before completing its
+* request, so that it can be handed back safely.  Callers submit requests
+* through a lock-free queue, wake the thread through a pipe, and get back a
+* future which the reactor completes with the reply, or with a
+* TimeoutException once the request timeout passes.
+*/
+@Component
+public class ZmqReactor {
+
+  // ZMQ Context
+  @Autowired
+  ZmqContextContainer context;
+
+  // Number of reactor threads to run
+  @Value("${server.zmq.reactor.threads}")
+  private int reactorThreads;
+
+  // Number of threads which run the work that follows on from a reply
+  @Value("${server.zmq.reactor.callback.threads}")
+  private int callbackThreads;
+
+  // How many milliseconds an unused DEALER socket stays open before it is closed
+  @Value("${server.zmq.dealer.idle.timeout}")
+  private int dealerIdleTimeout;
+
+  // Number of DEALER sockets open across all reactor threads
+  private final AtomicInteger openDealers = new AtomicInteger(0);
+
+  // Reactor Loops, one per thread
+  private ReactorLoop[] loops = new ReactorLoop[0];
+
+  // Executor for work that follows on from a reply, so that it never
+  // holds up the reactor threads
+  private ExecutorService callbackExecutor = null;
+
+  // Timer for work which runs after a delay, on the callback executor
+  private ScheduledExecutorService timer = null;
+
+  // Correlation ID Counter for DEALER Requests
+  private final AtomicLong correlationCounter = new AtomicLong(0);
+
+  // ZMQ Reactor Logger
+  private final Logger logger = LogManager.getLogger("adrestia.ZmqReactor");
+
+  /**
+  * A single request, owned by a reactor thread until it completes.
+  */
+  private static class Exchange {
+    // The pooled REQ socket for the request, or null for DEALER requests
+    private final ZmqSocketContainer socket;
+    // The address of the DEALER socket for the request, or null for REQ requests
+    private final String address;
+    private final long correlationId;
+    private final byte[] payload;
+    private final int timeout;
+    private long deadline = 0;
+    private final CompletableFuture<byte[]> reply = new CompletableFuture<byte[]>();
+
+    Exchange(ZmqSocketContainer socket, String address, long correlationId,
+        byte[] payload, int timeout) {
+      this.socket = socket;
+      this.address = address;
+      this.correlationId = correlationId;
+      this.payload = payload;
+      this.timeout = timeout;
+    }
+  }
+
+  /**
+  * A DEALER socket to one address, and how many requests are in flight on it.
+  */
+  private static class Dealer {
+    private final ZMQ.Socket socket;
+    private int inFlight = 0;
+    private long lastUsed = System.nanoTime();
+
+    Dealer(ZMQ.Socket socket) {
+      this.socket = socket;
+    }
+  }
+
+  /**
+  * An I/O Loop, run by a single reactor thread.
+  * Everything other than the submission queue and wake-up flag is only
+  * touched by the reactor thread.
+  */
+  private class ReactorLoop implements Runnable {
+    private final ConcurrentLinkedQueue<Exchange> submissions =
+        new ConcurrentLinkedQueue<Exchange>();
+    private final AtomicBoolean wakePending = new AtomicBoolean(false);
+    private final Pipe wakePipe;
+    private volatile boolean running = true;
+    private Thread thread = null;
+
+    private ZPoller poller = null;
+    private final Map<String, Dealer> dealers = new HashMap<String, Dealer>();
+    private long nextIdleCheck = 0;
+    private final Map<Long, Exchange> dealerInFlight = new HashMap<Long, Exchange>();
+    private final Map<ZMQ.Socket, Exchange> reqInFlight =
+        new IdentityHashMap<ZMQ.Socket, Exchange>();
+    private final PriorityQueue<Exchange> deadlines =
+        new PriorityQueue<Exchange>(64, new Comparator<Exchange>() {
+          @Override
+          public int compare(Exchange first, Exchange second) {
+            return Long.compare(first.deadline, second.deadline);
+          }
+        });
+    private final ByteBuffer drainBuffer = ByteBuffer.allocate(64);
+
+    ReactorLoop() throws IOException {
+      wakePipe = Pipe.open();
+      wakePipe.source().configureBlocking(false);
+    }
+
+    // Hand a request to the reactor thread
+    void submit(Exchange exchange) {
+      submissions.add(exchange);
+      wake();
+    }
+
+    // Wake the reactor thread, unless a wake-up is already pending
+    private void wake() {
+      if (wakePending.compareAndSet(false, true)) {
+        try {
+          wakePipe.sink().write(ByteBuffer.wrap(new byte[] {1}));
+        } catch (IOException e) {
+          logger.error("Error waking ZMQ Reactor: ", e);
+        }
+      }
+    }
+
+    // Stop the reactor thread
+    void stop() {
+      running = false;
+      wakePending.set(false);
+      wake();
+    }
+
+    @Override
+    public void run() {
+      poller = new ZPoller(context.context);
+      try {
+        poller.register(wakePipe.source(), ZPoller.POLLIN);
+        while (running && !Thread.currentThread().isInterrupted()) {
+          poller.poll(nextPollTimeout());
+          // Consume any wake-up bytes before we drain the submission queue,
+          // so that a request submitted while we drain triggers another pass
+          if (poller.isReadable(wakePipe.source())) {
+            drainBuffer.clear();
+            while (wakePipe.source().read(drainBuffer) > 0) {
+              drainBuffer.clear();
+            }
+            wakePending.set(false);
+          }
+          Exchange exchange = submissions.poll();
+          while (exchange != null) {
+            write(exchange);
+            exchange = submissions.poll();
+          }
+          readReplies();
+          expireRequests();
+          closeIdleDealers();
+        }
+      } catch (Exception e) {
+        logger.error("Error in ZMQ Reactor: ", e);
+      } finally {
+        shutdown();
+      }
+    }
+
+    // How long to poll for, based on the next request to time out, and on
+    // the next check for idle DEALER sockets while any are open
+    private long nextPollTimeout() {
+      Exchange next = deadlines.peek();
+      boolean idleCheckDue = dealerIdleTimeout > 0 && !dealers.isEmpty();
+      if (next == null && !idleCheckDue) {
+        return -1;
+      }
+      long wakeAt = next == null ? nextIdleCheck : next.deadline;
+      if (next != null && idleCheckDue && nextIdleCheck - wakeAt < 0) {
+        wakeAt = nextIdleCheck;
+      }
+      long remaining = wakeAt - System.nanoTime();
+      if (remaining <= 0) {
+        return 0;
+      }
+      return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+    }
+
+    // Write a request to its socket
+    private void write(Exchange exchange) {
+      exchange.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(exchange.timeout);
+      boolean sent = false;
+      if (exchange.socket != null) {
+        ZMQ.Socket socket = exchange.socket.getSocket();
+        sent = socket.send(exchange.payload, ZMQ.DONTWAIT);
+        if (sent) {
+          poller.register(socket, ZPoller.POLLIN);
+          reqInFlight.put(socket, exchange);
+        }
+      } else {
+        Dealer dealer = dealers.get(exchange.address);
+        if (dealer == null) {
+          logger.debug("Establishing new ZMQ Dealer Connection: " + exchange.address);
+          ZMQ.Socket socket = context.context.createSocket(ZMQ.DEALER);
+          socket.setLinger(0);
+          socket.connect(exchange.address);
+          poller.register(socket, ZPoller.POLLIN);
+          dealer = new Dealer(socket);
+          dealers.put(exchange.address, dealer);
+          openDealers.incrementAndGet();
+        }
+        // Once the first frame is accepted, the rest of the message is too
+        sent = dealer.socket.send(encodeId(exchange.correlationId),
+            ZMQ.SNDMORE | ZMQ.DONTWAIT);
+        if (sent) {
+          dealer.socket.sendMore(new byte[0]);
+          dealer.socket.send(exchange.payload, 0);
+          dealerInFlight.put(exchange.correlationId, exchange);
+          dealer.inFlight++;
+          dealer.lastUsed = System.nanoTime();
+        }
+      }
+      if (sent) {
+        deadlines.add(exchange);
+      } else {
+        logger.warn("Unable to queue message on ZMQ Socket");
+        exchange.reply.completeExceptionally(new IOException("Unable to queue message"));
+      }
+    }
+
+    // Read every reply which has arrived
+    private void readReplies() {
+      Iterator<Map.Entry<ZMQ.Socket, Exchange>> reqIterator = reqInFlight.entrySet().iterator();
+      while (reqIterator.hasNext()) {
+        Map.Entry<ZMQ.Socket, Exchange> entry = reqIterator.next();
+        ZMQ.Socket socket = entry.getKey();
+        Exchange exchange = entry.getValue();
+        if (poller.isReadable(socket)) {
+          byte[] payload = socket.recv(ZMQ.DONTWAIT);
+          if (payload != null) {
+            // The socket goes back to its owner once the future completes
+            reqIterator.remove();
+            poller.unregister(socket);
+            exchange.reply.complete(payload);
+          }
+        }
+      }
+      for (Dealer dealer : dealers.values()) {
+        if (poller.isReadable(dealer.socket)) {
+          readDealerReplies(dealer);
+        }
+      }
+    }
+
+    // Mark a request on a Dealer socket as no longer in flight
+    private void dealerRequestDone(Dealer dealer) {
+      if (dealer != null && dealer.inFlight > 0) {
+        dealer.inFlight--;
+        dealer.lastUsed = System.nanoTime();
+      }
+    }
+
+    // Read every reply currently available on a Dealer socket
+    // Replies are framed as [correlation id][empty delimiter][payload]
+    private void readDealerReplies(Dealer dealer) {
+      ZMQ.Socket socket = dealer.socket;
+      byte[] idFrame = socket.recv(ZMQ.DONTWAIT);
+      while (idFrame != null) {
+        byte[] payload = null;
+        while (socket.hasReceiveMore()) {
+          payload = socket.recv(0);
+        }
+        if (idFrame.length == 8 && payload != null) {
+          long correlationId = ByteBuffer.wrap(idFrame).getLong();
+          Exchange exchange = dealerInFlight.remove(correlationId);
+          if (exchange != null) {
+            dealerRequestDone(dealer);
+            exchange.reply.complete(payload);
+          } else {
+            logger.debug("Discarding reply for expired request: " + correlationId);
+          }
+        } else {
+          logger.warn("Discarding malformed reply on ZMQ Dealer Socket");
+        }
+        idFrame = socket.recv(ZMQ.DONTWAIT);
+      }
+    }
+
+    // Time out any requests which have passed their deadline
+    private void expireRequests() {
+      long now = System.nanoTime();
+      while (!deadlines.isEmpty() && deadlines.peek().deadline <= now) {
+        Exchange exchange = deadlines.poll();
+        if (exchange.reply.isDone()) {
+          continue;
+        }
+        if (exchange.socket != null) {
+          reqInFlight.remove(exchange.socket.getSocket());
+          poller.unregister(exchange.socket.getSocket());
+        } else {
+          dealerInFlight.remove(exchange.correlationId);
+          dealerRequestDone(dealers.get(exchange.address));
+        }
+        exchange.reply.completeExceptionally(
+            new TimeoutException("No response within " + exchange.timeout + " ms"));
+      }
+    }
+
+    // Close any Dealer sockets which have had nothing in flight for longer
+    // than the idle timeout, so that one is not held open to every address
+    // ever contacted.  A later request to the address opens a new one
+    private void closeIdleDealers() {
+      long now = System.nanoTime();
+      if (dealerIdleTimeout <= 0 || dealers.isEmpty() || now - nextIdleCheck < 0) {
+        return;
+      }
+      long idleNanos = TimeUnit.MILLISECONDS.toNanos(dealerIdleTimeout);
+      Iterator<Map.Entry<String, Dealer>> iterator = dealers.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<String, Dealer> entry = iterator.next();
+        Dealer dealer = entry.getValue();
+        if (dealer.inFlight == 0 && now - dealer.lastUsed >= idleNanos) {
+          logger.debug("Closing idle ZMQ Dealer Connection: " + entry.getKey());
+          poller.unregister(dealer.socket);
+          context.context.destroySocket(dealer.socket);
+          iterator.remove();
+          openDealers.decrementAndGet();
+        }
+      }
+      nextIdleCheck = now + Math.max(1, idleNanos / 2);
+    }
+
+    // Close the reactor's sockets and fail anything outstanding
+    private void shutdown() {
+      IOException stopped = new IOException("ZMQ Reactor stopped");
+      for (Exchange exchange : reqInFlight.values()) {
+        poller.unregister(exchange.socket.getSocket());
+        exchange.reply.completeExceptionally(stopped);
+      }
+      for (Exchange exchange : dealerInFlight.values()) {
+        exchange.reply.completeExceptionally(stopped);
+      }
+      Exchange exchange = submissions.poll();
+      while (exchange != null) {
+        exchange.reply.completeExceptionally(stopped);
+        exchange = submissions.poll();
+      }
+      for (Dealer dealer : dealers.values()) {
+        context.context.destroySocket(dealer.socket);
+        openDealers.decrementAndGet();
+      }
+      dealers.clear();
+      try {
+        wakePipe.sink().close();
+        wakePipe.source().close();
+      } catch (IOException e) {
+        logger.error("Error closing ZMQ Reactor pipe: ", e);
+      }
+      poller.destroy();
+    }
+  }
+
+  /**
+  * Default empty ZmqReactor constructor.
+  */
+  public ZmqReactor() {
+    super();
+  }
+
+  /**
+  * Start the reactor threads.
+  */
+  @PostConstruct
+  public void start() throws IOException {
+    final AtomicInteger callbackCounter = new AtomicInteger(0);
+    callbackExecutor = Executors.newFixedThreadPool(Math.max(1, callbackThreads),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread callbackThread =
+                new Thread(r, "adrestia-zmq-callback-" + callbackCounter.getAndIncrement());
+            callbackThread.setDaemon(true);
+            return callbackThread;
+          }
+        });
+    timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread timerThread = new Thread(r, "adrestia-zmq-timer");
+        timerThread.setDaemon(true);
+        return timerThread;
+      }
+    });
+    loops = new ReactorLoop[Math.max(1, reactorThreads)];
+    for (int i = 0; i < loops.length; i++) {
+      loops[i] = new ReactorLoop();
+      loops[i].thread = new Thread(loops[i], "adrestia-zmq-reactor-" + i);
+      loops[i].thread.setDaemon(true);
+      loops[i].thread.start();
+    }
+  }
+
+  /**
+  * Stop the reactor threads, failing any outstanding requests.
+  */
+  @PreDestroy
+  public void destroy() {
+    for (ReactorLoop loop : loops) {
+      loop.stop();
+    }
+    for (ReactorLoop loop : loops) {
+      try {
+        loop.thread.join(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (timer != null) {
+      timer.shutdownNow();
+    }
+    if (callbackExecutor != null) {
+      callbackExecutor.shutdown();
+    }
+  }
+
+
+  /**
+  * Get the Executor for work that follows on from a reply.
+  * Futures returned by the reactor are completed on a reactor thread, so
+  * anything more than a trivial callback should be run here instead.
+  * @return The callback Executor
+  */
+  public Executor getCallbackExecutor() {
+    return callbackExecutor;
+  }
+
+  /**
+  * Get the number of DEALER sockets currently open.
+  * @return The number of open DEALER sockets, across all reactor threads
+  */
+  public int getOpenDealers() {
+    return openDealers.get();
+  }
+
+  /**
+  * Run a task on the callback executor once a delay has passed.
+  * @param task The task to run
+  * @param delay How many milliseconds to wait before running it
+  */
+  public void schedule(final Runnable task, long delay) {
+    timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        callbackExecutor.execute(task);
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  // Encode a correlation ID as a message frame
+  private static byte[] encodeId(long correlationId) {
+    return ByteBuffer.allocate(8).putLong(correlationId).array();
+  }
+
+  // Pick the reactor thread responsible for a key
+  private ReactorLoop loopFor(int key) {
+    return loops[(key & Integer.MAX_VALUE) % loops.length];
+  }
+
+  /**
+  * Send a request on a pooled REQ Socket.
+  * The reactor owns the socket until the returned future completes, and
+  * the caller must not touch it before then.  On timeout, the socket is
+  * left waiting on a reply and needs to be reset before it is re-used.
+  * @param socket The Socket Container to send the request on
+  * @param msg The message to send
+  * @param timeout How many milliseconds to wait for a reply
+  * @return A future, completed with the reply
+  */
+  public CompletableFuture<byte[]> request(ZmqSocketContainer socket, byte[] msg, int timeout) {
+    Exchange exchange = new Exchange(socket, null, 0, msg, timeout);
+    loopFor(socket.getId()).submit(exchange);
+    return exchange.reply;
+  }
+
+  /**
+  * Send a request on the multiplexed DEALER Socket for an address.
+  * A reply which arrives after the request times out is discarded.
+  * @param address The ZMQ Address to send the request to
+  * @param msg The message to send
+  * @param timeout How many milliseconds to wait for a reply
+  * @return A future, completed with the reply
+  */
+  public CompletableFuture<byte[]> dealerRequest(String address, byte[] msg, int timeout) {
+    Exchange exchange =
+        new Exchange(null, address, correlationCounter.incrementAndGet(), msg, timeout);
+    loopFor(address.hashCode()).submit(exchange);
+    return exchange.reply;
+  }
+}
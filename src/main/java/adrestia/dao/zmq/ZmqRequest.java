@@ -0,0 +1,122 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+/**
+* A single message to send to a ZMQ Service, along with how to send it.
+* The message is encoded once by the caller, and the same frame is re-used
+* for every attempt.
+*/
+public class ZmqRequest {
+
+  // Message Type sent to every request which doesn't know its own
+  public static final int UNKNOWN_MSG_TYPE = -1;
+
+  // The UTF-8 encoded message
+  private final byte[] msg;
+  // Message Type of the encoded message, used to track its latency
+  private final int msgType;
+  // How many milliseconds to wait before retrying, at most
+  private final int timeout;
+  // How many times to retry before reporting a failure
+  private final int retries;
+  // The Name of the Service we are sending to, in Consul
+  private final String serviceName;
+  // Can the message safely be sent more than once, to different instances
+  private final boolean idempotent;
+  // Deadline of the HTTP Request the message is sent for, or null if there is none
+  private final RequestDeadline deadline;
+
+  /**
+  * Complete ZmqRequest constructor.
+  * @param msg The UTF-8 encoded message to send on the ZMQ Socket
+  * @param msgType The Message Type of the encoded message
+  * @param timeout How many milliseconds to wait before retrying, at most
+  * @param retries How many times to retry before reporting a failure
+  * @param serviceName The Name of the Service we are sending to, in Consul
+  * @param idempotent True if the message only reads, and may be hedged
+  * @param deadline The deadline for a reply, across every retry and instance,
+  *     or null if there is none
+  */
+  public ZmqRequest(byte[] msg, int msgType, int timeout, int retries, String serviceName,
+      boolean idempotent, RequestDeadline deadline) {
+    this.msg = msg;
+    this.msgType = msgType;
+    this.timeout = timeout;
+    this.retries = retries;
+    this.serviceName = serviceName;
+    this.idempotent = idempotent;
+    this.deadline = deadline;
+  }
+
+  /**
+  * Get the encoded message.
+  * @return The UTF-8 encoded message
+  */
+  public byte[] getMsg() {
+    return this.msg;
+  }
+
+  /**
+  * Get the Message Type.
+  * @return The Message Type, or UNKNOWN_MSG_TYPE
+  */
+  public int getMsgType() {
+    return this.msgType;
+  }
+
+  /**
+  * Get the timeout.
+  * @return How many milliseconds to wait before retrying, at most
+  */
+  public int getTimeout() {
+    return this.timeout;
+  }
+
+  /**
+  * Get the number of retries.
+  * @return How many times to retry before reporting a failure
+  */
+  public int getRetries() {
+    return this.retries;
+  }
+
+  /**
+  * Get the Service Name.
+  * @return The Name of the Service we are sending to, in Consul
+  */
+  public String getServiceName() {
+    return this.serviceName;
+  }
+
+  /**
+  * Is the message idempotent.
+  * @return True if the message only reads, and may be sent more than once
+  */
+  public boolean isIdempotent() {
+    return this.idempotent;
+  }
+
+  /**
+  * Get the deadline.
+  * @return The deadline for a reply, or null if there is none
+  */
+  public RequestDeadline getDeadline() {
+    return this.deadline;
+  }
+}
@@ -33,6 +33,7 @@ public class ZmqSocketContainer {
   private String hostname = null;
   private ZMQ.Socket socket = null;
   private ServiceInstance connectedInstance = null;
+  private long lastUsed = 0;
 
   /**
   * Default empty ZmqSocketContainer constructor.
@@ -84,6 +85,30 @@ public class ZmqSocketContainer {
     return this.socket;
   }
 
+  /**
+  * Replace the ZMQ Socket.
+  * @param newSocket The new ZMQ Socket
+  */
+  public void setSocket(ZMQ.Socket newSocket) {
+    this.socket = newSocket;
+  }
+
+  /**
+  * Returns the time the socket was last released.
+  * @return The time in milliseconds since the epoch
+  */
+  public long getLastUsed() {
+    return this.lastUsed;
+  }
+
+  /**
+  * Set the time the socket was last released.
+  * @param newLastUsed The time in milliseconds since the epoch
+  */
+  public void setLastUsed(long newLastUsed) {
+    this.lastUsed = newLastUsed;
+  }
+
   /**
   * Set the Service Instance.
   * @param newInstance The new ServiceInstance object
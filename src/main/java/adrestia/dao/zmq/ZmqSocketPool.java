@@ -17,12 +17,19 @@ limitations under the License.
 
 package adrestia;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
 import org.apache.logging.log4j.LogManager;
@@ -30,15 +37,25 @@ import org.apache.logging.log4j.Logger;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cloud.client.ServiceInstance;
-import org.springframework.cloud.client.discovery.DiscoveryClient;
 import org.springframework.stereotype.Component;
 
-import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZMQ;
 
 /**
 * A Pool of ZMQ Sockets.
+* Each endpoint keeps between a minimum and maximum number of open sockets.
+* When all of an endpoint's sockets are in use, transactions wait in a bounded
+* FIFO queue for one to be released, up to the acquire timeout.  Waiting may
+* block the calling thread, or be left to a future.
+* Sockets which sit unused for longer than the idle timeout are closed.
+* Endpoints are independent of one another, and no locks are taken to
+* acquire or release a socket.
+* Sockets are opened, reset and closed on whichever thread holds them, and
+* never on a reactor thread.  The ZMQ Reactor only owns a socket while a
+* request is in flight on it, and stops polling it before completing the
+* request, so a socket is never used by two threads at once.  Sockets move
+* between threads through concurrent queues and futures, which give the
+* memory barrier ZMQ needs to migrate a socket from one thread to another.
 */
 @Component
 public class ZmqSocketPool {
@@ -46,24 +63,58 @@ public class ZmqSocketPool {
   @Autowired
   ZmqContextContainer context;
 
-  // List of available ZmqSocketContainers
-  private ArrayList<ZmqSocketContainer> sockets = new ArrayList<ZmqSocketContainer>();
+  // Minimum number of sockets to keep open to each endpoint
+  @Value("${server.zmq.pool.min}")
+  private int minSockets;
+  // Maximum number of sockets to open to each endpoint
+  @Value("${server.zmq.pool.max}")
+  private int maxSockets;
+  // Maximum number of threads which may wait for a socket to each endpoint
+  @Value("${server.zmq.pool.queue.size}")
+  private int maxWaiters;
+  // How many milliseconds a thread may wait for a socket
+  @Value("${server.zmq.pool.acquire.timeout}")
+  private int acquireTimeout;
+  // How many seconds a socket may sit unused before it is closed
+  @Value("${server.zmq.pool.idle.timeout}")
+  private int idleTimeout;
 
-  // Socket ID Counter
-  private int idCounter = 0;
-
-  // List of currently used Socket Containers
-  private ArrayList<ZmqSocketContainer> usedSockets = new ArrayList<ZmqSocketContainer>();
+  // Endpoint Pools, keyed by ZMQ Address
+  private final ConcurrentHashMap<String, EndpointPool> endpoints =
+      new ConcurrentHashMap<String, EndpointPool>();
 
-  // Crazy Ivan ZMQ Socket
-  private ZMQ.Socket socket = null;
+  // Socket ID Counter
+  private final AtomicInteger idCounter = new AtomicInteger(0);
 
-  // Mutex to ensure that one thread is updating the socket list at a time
-  private Semaphore socketMutex = new Semaphore(1);
+  // Background thread which closes idle sockets, and times out waiters
+  private ScheduledExecutorService evictor = null;
 
   // ZMQ Socket Pool Logger
   private final Logger logger = LogManager.getLogger("adrestia.ZmqSocketPool");
 
+  /**
+  * The sockets open to a single endpoint.
+  */
+  private static class EndpointPool {
+    private final String address;
+    private final int serviceType;
+    // Available sockets, most recently used first
+    private final ConcurrentLinkedDeque<ZmqSocketContainer> idle =
+        new ConcurrentLinkedDeque<ZmqSocketContainer>();
+    // Transactions waiting for a socket, oldest first
+    private final ConcurrentLinkedQueue<CompletableFuture<ZmqSocketContainer>> waiters =
+        new ConcurrentLinkedQueue<CompletableFuture<ZmqSocketContainer>>();
+    // Number of threads waiting for a socket
+    private final AtomicInteger waiting = new AtomicInteger(0);
+    // Number of open sockets, both idle and in use
+    private final AtomicInteger openSockets = new AtomicInteger(0);
+
+    EndpointPool(String address, int serviceType) {
+      this.address = address;
+      this.serviceType = serviceType;
+    }
+  }
+
   /**
   * Default empty ZmqSocketPool constructor.
   */
@@ -71,109 +122,235 @@ public class ZmqSocketPool {
     super();
   }
 
+  /**
+  * Start the background eviction of idle sockets.
+  */
+  @PostConstruct
+  public void start() {
+    evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread evictorThread = new Thread(r, "adrestia-zmq-pool-evictor");
+        evictorThread.setDaemon(true);
+        return evictorThread;
+      }
+    });
+    long period = Math.max(1, idleTimeout / 2);
+    evictor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        evictIdleSockets();
+      }
+    }, period, period, TimeUnit.SECONDS);
+  }
+
   /**
   * Destroy the ZMQ Socket Pool, closing any open sockets.
   */
   @PreDestroy
   public void destroy() {
-    // Destroy any active sockets
-    for (int i = 0; i < sockets.size(); i++) {
-      sockets.remove(i);
-      context.context.destroySocket(sockets.get(i).getSocket());
+    if (evictor != null) {
+      evictor.shutdownNow();
+    }
+    // Destroy any available sockets, sockets in use are closed with the context
+    for (EndpointPool endpoint : endpoints.values()) {
+      ZmqSocketContainer cont = endpoint.idle.pollFirst();
+      while (cont != null) {
+        context.context.destroySocket(cont.getSocket());
+        endpoint.openSockets.decrementAndGet();
+        cont = endpoint.idle.pollFirst();
+      }
+    }
+  }
+
+  // Open a new socket to an endpoint, on the thread which is acquiring it
+  private ZmqSocketContainer openSocket(EndpointPool endpoint) {
+    logger.debug("Establishing new ZMQ Connection: " + endpoint.address);
+    ZmqSocketContainer newSocket = new ZmqSocketContainer(idCounter.getAndIncrement(),
+        endpoint.serviceType, endpoint.address, context.context.createSocket(ZMQ.REQ));
+    newSocket.getSocket().setLinger(0);
+    newSocket.getSocket().connect(endpoint.address);
+    newSocket.setLastUsed(System.currentTimeMillis());
+    return newSocket;
+  }
+
+  // Reserve room for a new socket to an endpoint, if it is below the maximum
+  private boolean reserveSocket(EndpointPool endpoint) {
+    int current = endpoint.openSockets.get();
+    while (current < maxSockets) {
+      if (endpoint.openSockets.compareAndSet(current, current + 1)) {
+        return true;
+      }
+      current = endpoint.openSockets.get();
+    }
+    return false;
+  }
+
+  // Find the pool for an endpoint, creating it with the minimum sockets if necessary
+  private EndpointPool getEndpoint(String connection, int serviceType) {
+    EndpointPool endpoint = endpoints.get(connection);
+    if (endpoint == null) {
+      EndpointPool newEndpoint = new EndpointPool(connection, serviceType);
+      endpoint = endpoints.putIfAbsent(connection, newEndpoint);
+      if (endpoint == null) {
+        endpoint = newEndpoint;
+        for (int i = 0; i < minSockets && reserveSocket(endpoint); i++) {
+          endpoint.idle.offerFirst(openSocket(endpoint));
+        }
+      }
+    }
+    return endpoint;
+  }
+
+  // Match available sockets with waiting threads, until we run out of either.
+  // Both releasing and waiting threads call this after updating their side,
+  // so neither can miss the other
+  private void serveWaiters(EndpointPool endpoint) {
+    while (!endpoint.waiters.isEmpty()) {
+      ZmqSocketContainer available = endpoint.idle.pollFirst();
+      if (available == null) {
+        return;
+      }
+      CompletableFuture<ZmqSocketContainer> waiter = endpoint.waiters.poll();
+      if (waiter == null || !waiter.complete(available)) {
+        // Another thread served the waiter first, or it timed out
+        endpoint.idle.offerFirst(available);
+      }
     }
   }
 
+  // Return a socket to the idle list, and hand it to any waiting thread
+  private void handOff(EndpointPool endpoint, ZmqSocketContainer cont) {
+    cont.setLastUsed(System.currentTimeMillis());
+    endpoint.idle.offerFirst(cont);
+    serveWaiters(endpoint);
+  }
+
   /**
-  * Reset a Socket.
-  * @return A New Socket Container
+  * Reset a Socket, replacing the ZMQ Socket within the container.
+  * Must only be called by the thread holding the socket, once any request
+  * sent on it through the ZMQ Reactor has completed.
+  * @return The Socket Container, with a new socket
   */
   public ZmqSocketContainer resetSocket(ZmqSocketContainer connection) {
     context.context.destroySocket(connection.getSocket());
-    ZmqSocketContainer newSocket = new ZmqSocketContainer(
-        connection.getId(), connection.getServiceType(),
-        connection.getHostname(), context.context.createSocket(ZMQ.REQ));
-    newSocket.getSocket().connect(connection.getHostname());
-    return newSocket;
+    ZMQ.Socket newSocket = context.context.createSocket(ZMQ.REQ);
+    newSocket.setLinger(0);
+    newSocket.connect(connection.getHostname());
+    connection.setSocket(newSocket);
+    return connection;
   }
 
   /**
   * Is a socket in use already.
-  * @return True if the socket is already in use, false otherwise
+  * @return True if any socket to the given host is in use, false otherwise
   */
   public boolean socketInUse(String connection) {
-    for (int i = 0; i < usedSockets.size(); i++) {
-      if (usedSockets.get(i).getHostname().equals(connection)) {
-        return true;
-      }
-    }
-    return false;
+    EndpointPool endpoint = endpoints.get(connection);
+    return endpoint != null && endpoint.openSockets.get() > endpoint.idle.size();
   }
 
   /**
   * Is a socket already available for the given host.
-  * @return True if the socket is already available, false otherwise
+  * @return True if a socket is already available, false otherwise
   */
   public boolean socketAvailable(String connection) {
-    for (int i = 0; i < sockets.size(); i++) {
-      if (sockets.get(i).getHostname().equals(connection)) {
-        return true;
-      }
-    }
-    return false;
+    EndpointPool endpoint = endpoints.get(connection);
+    return endpoint != null && !endpoint.idle.isEmpty();
   }
 
   /**
   * Get a socket, creating it if necessary.
-  * @return A Socket container for use by a thread
+  * If the endpoint is at its maximum number of sockets, wait for one to be
+  * released, up to the acquire timeout.
+  * @return A Socket container for use by a thread, or null if none became available
   */
   public ZmqSocketContainer getSocket(String connection, int serviceType) {
-    logger.info("Getting Socket: " + connection);
+    CompletableFuture<ZmqSocketContainer> waiter = acquireSocket(connection, serviceType);
     try {
-      socketMutex.acquire();
+      return waiter.get();
     } catch (InterruptedException e) {
-      logger.error("Error Establishing Mutex Lock");
-      logger.error(e.getMessage());
-      return null;
+      Thread.currentThread().interrupt();
+      logger.error("Interrupted waiting for Socket: " + connection);
+    } catch (ExecutionException e) {
+      logger.error("Error Getting Socket: ", e);
+    }
+    // Give up our place in the queue.  If a socket was handed to us in the
+    // meantime, put it back for someone else
+    if (!waiter.complete(null)) {
+      ZmqSocketContainer lateSocket = waiter.getNow(null);
+      if (lateSocket != null) {
+        releaseSocket(lateSocket);
+      }
     }
+    return null;
+  }
 
-    // Build a new socket
-    ZmqSocketContainer newSocket = null;
+  /**
+  * Get a socket without blocking, creating it if necessary.
+  * If the endpoint is at its maximum number of sockets, the returned future
+  * completes when one is released, or with null once the acquire timeout passes.
+  * @return A future completed with a Socket container, or null if none became available
+  */
+  public CompletableFuture<ZmqSocketContainer> acquireSocket(String connection,
+      int serviceType) {
+    logger.debug("Getting Socket: " + connection);
+    final EndpointPool endpoint;
     try {
-      boolean makeNewSocket = true;
-      // Check if we have any available sockets
-      for (int i = 0; i < sockets.size(); i++) {
-        if (sockets.get(i).getHostname().equals(connection)) {
-          newSocket = sockets.get(i);
-          logger.debug("Identified existing socket: " + sockets.get(i).getHostname());
-          makeNewSocket = false;
-        }
+      endpoint = getEndpoint(connection, serviceType);
+      // Use an available socket if we have one
+      ZmqSocketContainer available = endpoint.idle.pollFirst();
+      if (available != null) {
+        logger.debug("Identified existing socket: " + connection);
+        return CompletableFuture.completedFuture(available);
       }
-
-      // Check if we have any sockets currently in use
-      for (int i = 0; i < usedSockets.size(); i++) {
-        if (usedSockets.get(i).getHostname().equals(connection)) {
-          makeNewSocket = false;
-          logger.debug("Identified Socket in use: " + usedSockets.get(i).getHostname());
-        }
+      // Open a new socket if we are below the maximum
+      if (reserveSocket(endpoint)) {
+        return CompletableFuture.completedFuture(openSocket(endpoint));
       }
-
-      // Build a new socket
-      if (makeNewSocket) {
-        logger.debug("Establishing new ZMQ Connection" + connection);
-        newSocket = new ZmqSocketContainer(
-            idCounter, serviceType, connection, context.context.createSocket(ZMQ.REQ));
-        newSocket.getSocket().connect(connection);
-        usedSockets.add(newSocket);
-        idCounter++;
+    } catch (Exception e) {
+      logger.error("Error Getting Socket: ", e);
+      return CompletableFuture.completedFuture(null);
+    }
+    // Otherwise, queue up for the next socket released
+    if (endpoint.waiting.incrementAndGet() > maxWaiters) {
+      endpoint.waiting.decrementAndGet();
+      logger.warn("Socket wait queue is full: " + connection);
+      return CompletableFuture.completedFuture(null);
+    }
+    final CompletableFuture<ZmqSocketContainer> waiter =
+        new CompletableFuture<ZmqSocketContainer>();
+    waiter.whenComplete(new BiConsumer<ZmqSocketContainer, Throwable>() {
+      @Override
+      public void accept(ZmqSocketContainer cont, Throwable err) {
+        endpoint.waiting.decrementAndGet();
+      }
+    });
+    try {
+      endpoint.waiters.add(waiter);
+      // A socket may have been released or closed before we joined the queue
+      serveWaiters(endpoint);
+      if (reserveSocket(endpoint)) {
+        handOff(endpoint, openSocket(endpoint));
       }
+      // Give up our place in the queue once the acquire timeout passes.
+      // A socket handed over after this is put back by serveWaiters
+      evictor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (waiter.complete(null)) {
+            logger.warn("Timed out waiting for Socket: " + endpoint.address);
+            endpoint.waiters.remove(waiter);
+          }
+        }
+      }, acquireTimeout, TimeUnit.MILLISECONDS);
     } catch (Exception e) {
       logger.error("Error Getting Socket: ", e);
-      newSocket = null;
-    } finally {
-      // Release the mutex
-      socketMutex.release();
+      if (waiter.complete(null)) {
+        endpoint.waiters.remove(waiter);
+      }
     }
-    return newSocket;
+    return waiter;
   }
 
   /**
@@ -181,59 +358,63 @@ public class ZmqSocketPool {
   * @param cont The Socket Container to release
   */
   public void releaseSocket(ZmqSocketContainer cont) {
-    // Grab the mutex so we ensure we operate atomically on connections
-    try {
-      socketMutex.acquire();
-    } catch (InterruptedException e) {
-      logger.error("Error Establishing Mutex Lock");
-      logger.error(e.getMessage());
+    EndpointPool endpoint = endpoints.get(cont.getHostname());
+    if (endpoint == null) {
       return;
     }
     try {
-      for (int i = 0; i < usedSockets.size(); i++) {
-        if (usedSockets.get(i).getId() == cont.getId()) {
-          sockets.add(usedSockets.get(i));
-          usedSockets.remove(i);
-        }
-      }
+      handOff(endpoint, cont);
     } catch (Exception e) {
       logger.error("Error Releasing Socket: ", e);
-    } finally {
-      // Release the mutex
-      socketMutex.release();
     }
   }
 
   /**
-  * Close a failed socket, must be released first.
+  * Close a failed socket which is currently in use.
+  * Must only be called by the thread holding the socket, once any request
+  * sent on it through the ZMQ Reactor has completed.
   * @param cont The Socket Container to close
   */
   public void closeSocket(ZmqSocketContainer cont) {
-    // Grab the mutex so we ensure we operate atomically on connections
-    try {
-      socketMutex.acquire();
-    } catch (InterruptedException e) {
-      logger.error("Error Establishing Mutex Lock");
-      logger.error(e.getMessage());
+    context.context.destroySocket(cont.getSocket());
+    EndpointPool endpoint = endpoints.get(cont.getHostname());
+    if (endpoint == null) {
       return;
     }
     try {
-      for (int i = 0; i < usedSockets.size(); i++) {
-        if (usedSockets.get(i).getId() == cont.getId()) {
-          usedSockets.remove(i);
-        }
-      }
-      for (int i = 0; i < sockets.size(); i++) {
-        if (sockets.get(i).getId() == cont.getId()) {
-          sockets.remove(i);
-          context.context.destroySocket(sockets.get(i).getSocket());
-        }
+      endpoint.openSockets.decrementAndGet();
+      // A waiting thread can have the slot we just freed up
+      if (!endpoint.waiters.isEmpty() && reserveSocket(endpoint)) {
+        handOff(endpoint, openSocket(endpoint));
       }
     } catch (Exception e) {
       logger.error("Error Closing Socket: ", e);
-    } finally {
-      // Release the mutex
-      socketMutex.release();
+    }
+  }
+
+  // Close any sockets which have been idle for too long, down to the minimum
+  private void evictIdleSockets() {
+    long cutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(idleTimeout);
+    for (EndpointPool endpoint : endpoints.values()) {
+      try {
+        // The least recently used sockets are at the tail of the idle list
+        while (endpoint.openSockets.get() > minSockets) {
+          ZmqSocketContainer oldest = endpoint.idle.pollLast();
+          if (oldest == null) {
+            break;
+          }
+          if (oldest.getLastUsed() > cutoff) {
+            endpoint.idle.offerLast(oldest);
+            break;
+          }
+          logger.debug("Closing idle socket: " + endpoint.address);
+          context.context.destroySocket(oldest.getSocket());
+          endpoint.openSockets.decrementAndGet();
+        }
+        serveWaiters(endpoint);
+      } catch (Exception e) {
+        logger.error("Error Evicting Sockets: ", e);
+      }
     }
   }
 }
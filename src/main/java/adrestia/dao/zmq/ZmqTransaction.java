@@ -0,0 +1,347 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.springframework.cloud.client.ServiceInstance;
+
+/**
+* A single message sent to a service, which moves on to the next service
+* instance whenever one runs out of retries.  Every retry and failover
+* is taken from the retry budget of the service, and the transaction
+* gives up once the budget is spent.  A slow read may be hedged by a
+* second transaction to another instance, sharing the same response.
+* Each step runs once the previous one completes, so no thread is held
+* while we wait on a connection or a reply.  No step starts once the deadline
+* of the request has passed, and each attempt waits no longer than the
+* time left.  How each attempt reaches an instance is left to the transport.
+* Pattern from ZMQ Guide - Lazy Pirate Client
+* http://zguide.zeromq.org/java:lpclient
+*/
+public class ZmqTransaction implements BiConsumer<byte[], Throwable> {
+  private final ZmqRequest request;
+  private final ZmqTransport transport;
+  private final ServiceManagerInterface serviceManager;
+  private final TimeoutEstimator timeoutEstimator;
+  private final RetryBudgetManager retryBudget;
+  private final ZmqReactor reactor;
+  // Response to the request, shared with any hedge sent for it
+  private final CompletableFuture<byte[]> response;
+  // Number of transactions for the request which have yet to give up
+  private final AtomicInteger outstanding;
+  // Send a hedge to another instance if the first attempt is slower than
+  // this percentile of the instance's latency, or never if negative
+  private double hedgePercentile = -1;
+  // The instance and connection held by the transaction, and the retries it has left
+  private ServiceInstance instance = null;
+  private ZmqTransport.Connection connection = null;
+  private int retriesLeft = 0;
+  // Whether the outcome on the instance is still to be reported
+  private boolean outcomePending = false;
+  // Instances the transaction has given up on
+  private final Set<String> triedInstances = new HashSet<String>();
+  // When the current attempt was sent, in nanoseconds
+  private long requestStart = 0;
+
+  // ZMQ Transaction Logger
+  private final Logger logger = LogManager.getLogger("adrestia.ZMQ");
+
+  /**
+  * Build a new transaction for a request.
+  * @param request The encoded message, and how to send it
+  * @param transport How each attempt reaches a service instance
+  * @param serviceManager The Service Manager, which finds instances to send to
+  * @param timeoutEstimator The Timeout Estimator, which adapts the timeout of each attempt
+  * @param retryBudget The Retry Budgets, which limit retries and failovers
+  * @param reactor The ZMQ Reactor, which runs each step of the transaction
+  */
+  public ZmqTransaction(ZmqRequest request, ZmqTransport transport,
+      ServiceManagerInterface serviceManager, TimeoutEstimator timeoutEstimator,
+      RetryBudgetManager retryBudget, ZmqReactor reactor) {
+    this.request = request;
+    this.transport = transport;
+    this.serviceManager = serviceManager;
+    this.timeoutEstimator = timeoutEstimator;
+    this.retryBudget = retryBudget;
+    this.reactor = reactor;
+    this.response = new CompletableFuture<byte[]>();
+    this.outstanding = new AtomicInteger(1);
+  }
+
+  // Build a hedge for a slow transaction, which avoids the instance it is waiting on
+  private ZmqTransaction(ZmqTransaction primary, String slowInstance) {
+    this.request = primary.request;
+    this.transport = primary.transport;
+    this.serviceManager = primary.serviceManager;
+    this.timeoutEstimator = primary.timeoutEstimator;
+    this.retryBudget = primary.retryBudget;
+    this.reactor = primary.reactor;
+    this.response = primary.response;
+    this.outstanding = primary.outstanding;
+    this.triedInstances.add(slowInstance);
+  }
+
+  /**
+  * Hedge the transaction to another instance if it is slow.  Only
+  * idempotent requests are ever hedged.
+  * @param percentile Percentile of an instance's latency after which to hedge
+  * @return This transaction
+  */
+  public ZmqTransaction hedgeAfter(double percentile) {
+    if (request.isIdempotent()) {
+      hedgePercentile = percentile;
+    }
+    return this;
+  }
+
+  /**
+  * Start the transaction.
+  * @return A future completed with the raw response message from a
+  *     matching service, or with null if no service responded
+  */
+  public CompletableFuture<byte[]> start() {
+    try {
+      connect();
+    } catch (Exception e) {
+      logger.error("Error Sending message to Service: ", e);
+      complete(null);
+    }
+    return response;
+  }
+
+  // Complete the transaction.  Callbacks waiting on it run within its
+  // deadline, so any messages they send share it.  A transaction which
+  // gives up leaves the response to any hedge which is still running
+  private void complete(final byte[] reply) {
+    if (reply == null && outstanding.decrementAndGet() > 0) {
+      return;
+    }
+    RequestDeadline.runWithin(request.getDeadline(), new Runnable() {
+      @Override
+      public void run() {
+        response.complete(reply);
+      }
+    });
+  }
+
+  // Drop the connection held by the transaction, if any
+  private void closeConnection() {
+    if (connection != null) {
+      connection.close();
+      connection = null;
+    }
+  }
+
+  // Fail the transaction if its deadline has passed
+  private boolean deadlineExceeded() {
+    RequestDeadline deadline = request.getDeadline();
+    if (deadline == null || !deadline.isExpired()) {
+      return false;
+    }
+    logger.warn("Deadline exceeded sending message to Service");
+    closeConnection();
+    if (outstanding.decrementAndGet() == 0) {
+      response.completeExceptionally(new DeadlineExceededException(
+          "Deadline exceeded sending message to " + request.getServiceName()));
+    }
+    return true;
+  }
+
+  // Report the outcome of the transaction on its instance, once for each
+  // instance it connects to however many times it retries there
+  private void reportOutcome(boolean success, long latency) {
+    if (outcomePending) {
+      outcomePending = false;
+      serviceManager.reportRequestOutcome(instance, success, latency);
+    }
+  }
+
+  // Setup method to find an instance of the request's service
+  // Instances in the excluded set have already been tried by the transaction
+  private ServiceInstance findService() {
+    logger.info("Finding a new Service instance");
+    String serviceName = request.getServiceName();
+    if (serviceName.equals("Ivan") || serviceName.equals("Clyman")) {
+      return serviceManager.findInstance(serviceName, triedInstances);
+    }
+    return null;
+  }
+
+  // Find a service instance, connect to it, and send the message
+  private void connect() {
+    if (deadlineExceeded()) {
+      return;
+    }
+    final ServiceInstance chosen = findService();
+    if (chosen == null) {
+      // We have run out of service instances
+      complete(null);
+      return;
+    }
+    logger.info("Connecting to Service instance");
+    CompletableFuture<ZmqTransport.Connection> opened;
+    try {
+      opened = transport.open(chosen, request.getServiceName());
+    } catch (Exception e) {
+      logger.error("Error connecting to Service instance: ", e);
+      serviceManager.reportRequestAbandoned(chosen);
+      serviceManager.reportFailure(chosen);
+      complete(null);
+      return;
+    }
+    opened.whenCompleteAsync(new BiConsumer<ZmqTransport.Connection, Throwable>() {
+      @Override
+      public void accept(ZmqTransport.Connection conn, Throwable err) {
+        if (conn == null) {
+          // No connection could be made to the instance
+          serviceManager.reportRequestAbandoned(chosen);
+          complete(null);
+          return;
+        }
+        if (deadlineExceeded()) {
+          conn.release();
+          serviceManager.reportRequestAbandoned(chosen);
+          return;
+        }
+        instance = chosen;
+        connection = conn;
+        outcomePending = true;
+        retriesLeft = request.getRetries();
+        sendRequest();
+      }
+    }, reactor.getCallbackExecutor());
+  }
+
+  //  We send a request, then the transport works to get a reply
+  private void sendRequest() {
+    logger.info("Attempting to send message to ZMQ Service");
+    int timeout = timeoutEstimator.timeoutFor(instance, request.getMsgType(),
+        request.getTimeout());
+    if (request.getDeadline() != null) {
+      timeout = (int) Math.max(1, Math.min(timeout, request.getDeadline().remainingMillis()));
+    }
+    requestStart = System.nanoTime();
+    serviceManager.reportRequestStarted(instance);
+    if (hedgePercentile >= 0) {
+      scheduleHedge(instance);
+      hedgePercentile = -1;
+    }
+    connection.send(request.getMsg(), timeout)
+        .whenCompleteAsync(this, reactor.getCallbackExecutor());
+  }
+
+  // Send a hedge to another instance if there is no reply by the time most
+  // replies from this instance have come in.  Hedges are taken from the
+  // retry budget, and the first reply to arrive answers the request
+  private void scheduleHedge(ServiceInstance slow) {
+    long delay = timeoutEstimator.percentileFor(slow, request.getMsgType(),
+        hedgePercentile);
+    if (delay < 0) {
+      // Not enough replies from the instance to know when it is slow
+      return;
+    }
+    final String slowInstance = InstanceStats.keyOf(slow);
+    reactor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (response.isDone() || !retryBudget.tryRetry(request.getServiceName())) {
+          return;
+        }
+        logger.info("Sending hedge for slow request to " + slowInstance);
+        outstanding.incrementAndGet();
+        new ZmqTransaction(ZmqTransaction.this, slowInstance).connect();
+      }
+    }, Math.max(1, delay));
+  }
+
+  //  Here we process a server reply and complete the transaction if the
+  //  reply is valid. If we didn't get a reply we reset the connection
+  //  and resend the request. We try a number of times
+  //  before finally moving on to another instance
+  @Override
+  public void accept(byte[] reply, Throwable err) {
+    try {
+      long latency = System.nanoTime() - requestStart;
+      serviceManager.reportRequestCompleted(instance, latency, err == null);
+      if (err == null) {
+        timeoutEstimator.record(instance, request.getMsgType(), latency);
+        reportOutcome(true, latency);
+        // Ensure we hand the connection back
+        connection.release();
+        connection = null;
+        retryBudget.recordSuccess(request.getServiceName());
+        complete(reply);
+        return;
+      }
+      Throwable cause = (err instanceof CompletionException) ? err.getCause() : err;
+      if (cause instanceof TimeoutException) {
+        logger.warn("No response from server");
+      } else {
+        logger.error("Error Sending message to Service: ", cause);
+      }
+      if (response.isDone()) {
+        // A hedge has already answered, so there is no need to carry on
+        reportOutcome(false, latency);
+        closeConnection();
+        return;
+      }
+      if (deadlineExceeded()) {
+        reportOutcome(false, latency);
+        return;
+      }
+      if (--retriesLeft > 0 && retryBudget.tryRetry(request.getServiceName())) {
+        logger.warn("Retrying request");
+        connection.reset();
+        sendRequest();
+        return;
+      }
+      // We are giving up on the instance
+      reportOutcome(false, latency);
+      if (retriesLeft > 0) {
+        // The retry budget is spent, so give up without blaming the instance
+        closeConnection();
+        complete(null);
+        return;
+      }
+      logger.error("Reporting Service Failure");
+      triedInstances.add(InstanceStats.keyOf(instance));
+      serviceManager.reportFailure(instance);
+      closeConnection();
+      if (retryBudget.tryRetry(request.getServiceName())) {
+        connect();
+      } else {
+        complete(null);
+      }
+    } catch (Exception e) {
+      logger.error("Error Sending message to Service: ", e);
+      reportOutcome(false, System.nanoTime() - requestStart);
+      closeConnection();
+      complete(null);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.cloud.client.ServiceInstance;
+
+/**
+* A way of reaching a single service instance, used by a ZMQ Transaction to
+* send each attempt of a request.  A REQ transport holds a pooled socket for
+* the whole transaction, while a DEALER transport shares one connection to
+* each instance which is owned by the ZMQ Reactor.
+*/
+public interface ZmqTransport {
+
+  /**
+  * Open a connection to a service instance.
+  * @param instance The service instance to connect to
+  * @param serviceName The Name of the Service, in Consul
+  * @return A future completed with the connection, or with null if the
+  *     instance cannot be sent to right now
+  */
+  public CompletableFuture<Connection> open(ServiceInstance instance, String serviceName);
+
+  /**
+  * A connection to a single service instance, held by one transaction.
+  */
+  public interface Connection {
+
+    /**
+    * Send a message, and wait for the reply.
+    * @param msg The encoded message to send
+    * @param timeout How many milliseconds to wait for the reply
+    * @return A future completed with the reply, or exceptionally on a timeout
+    */
+    public CompletableFuture<byte[]> send(byte[] msg, int timeout);
+
+    /**
+    * Prepare the connection to resend a message after a failed attempt.
+    */
+    public void reset();
+
+    /**
+    * Hand back a connection which received a reply.
+    */
+    public void release();
+
+    /**
+    * Drop a connection which the transaction has given up on.
+    */
+    public void close();
+  }
+}
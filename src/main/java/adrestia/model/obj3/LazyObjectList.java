@@ -0,0 +1,122 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+* An Object List read from a CLyman reply, whose documents are only decoded
+* when they are asked for.
+* The envelope is decoded up front, and the reply is retained along with the
+* position of each document within it.
+*/
+public class LazyObjectList extends ObjectList {
+
+  // The encoded reply, null once every document has been decoded
+  private byte[] msg;
+  // Start and end offset of each document in the reply
+  private int[] docStarts;
+  private int[] docEnds;
+  // Reader used to decode a single document
+  private ObjectReader docReader;
+  // Documents decoded so far
+  private ObjectDocument[] decodedDocs;
+
+  /**
+  * LazyObjectList constructor.
+  * @param msg The encoded reply
+  * @param docStarts The offset at which each document starts
+  * @param docEnds The offset just past the end of each document
+  * @param docReader Reader for a single Object Document
+  */
+  public LazyObjectList(byte[] msg, int[] docStarts, int[] docEnds, ObjectReader docReader) {
+    super();
+    this.msg = msg;
+    this.docStarts = docStarts;
+    this.docEnds = docEnds;
+    this.docReader = docReader;
+    this.decodedDocs = new ObjectDocument[docStarts.length];
+  }
+
+  // Decode the document at an index, if it hasn't been already
+  private ObjectDocument decode(int index) {
+    if (decodedDocs[index] == null) {
+      try {
+        decodedDocs[index] = docReader.readValue(msg, docStarts[index],
+            docEnds[index] - docStarts[index]);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return decodedDocs[index];
+  }
+
+  /**
+  * Returns a single Object Document, decoding only that document.
+  * @param index The position of the document in the message
+  * @return The object document at the given position
+  */
+  @Override
+  public synchronized ObjectDocument getDocument(int index) {
+    if (msg == null) {
+      return super.getDocument(index);
+    }
+    if (index < 0 || index >= decodedDocs.length) {
+      throw new ArrayIndexOutOfBoundsException(index);
+    }
+    return decode(index);
+  }
+
+  /**
+  * Returns value of Object Documents, decoding any which haven't been yet.
+  * @return The list of object documents contained in the message
+  */
+  @Override
+  public synchronized ObjectDocument[] getDocuments() {
+    if (msg != null) {
+      for (int i = 0; i < decodedDocs.length; i++) {
+        decode(i);
+      }
+      super.setDocuments(decodedDocs);
+      releaseMessage();
+    }
+    return super.getDocuments();
+  }
+
+  /**
+  * Sets new value of documents, discarding the encoded reply.
+  * @param documents an array of ObjectDocument objects
+  */
+  @Override
+  public synchronized void setDocuments(ObjectDocument[] documents) {
+    super.setDocuments(documents);
+    releaseMessage();
+  }
+
+  // Drop the encoded reply once it is no longer needed
+  private void releaseMessage() {
+    msg = null;
+    docStarts = null;
+    docEnds = null;
+    docReader = null;
+    decodedDocs = null;
+  }
+}
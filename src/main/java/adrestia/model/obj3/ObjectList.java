@@ -88,6 +88,15 @@ public class ObjectList {
     return this.documents;
   }
 
+  /**
+  * Returns a single Object Document.
+  * @param index The position of the document in the message
+  * @return The object document at the given position
+  */
+  public ObjectDocument getDocument(int index) {
+    return getDocuments()[index];
+  }
+
   /**
   * Returns value of errorCode.
   * @return The integer error code of the message
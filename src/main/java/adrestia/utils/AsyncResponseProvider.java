@@ -0,0 +1,117 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+* Adrestia Async Response Provider.
+* Turns a future HTTP Response into a DeferredResult for the controllers.
+* In async mode, the servlet thread is released while the response is
+* pending.  In blocking mode, the servlet thread waits on the response, as
+* it did before the controllers were asynchronous.
+*/
+@Component
+public class AsyncResponseProvider {
+
+  // Release the servlet thread while waiting on downstream services
+  @Value("${server.http.async.enabled}")
+  private boolean asyncEnabled;
+  // How many milliseconds an async request may wait before timing out
+  @Value("${server.http.async.timeout}")
+  private long asyncTimeout;
+
+  // Async Response Logger
+  private static final Logger logger =
+      LogManager.getLogger("adrestia.AsyncResponseProvider");
+
+  /**
+  * Default empty AsyncResponseProvider constructor.
+  */
+  public AsyncResponseProvider() {
+    super();
+  }
+
+  // Build an empty response with the given status code
+  private <T> ResponseEntity<T> emptyResponse(HttpStatus returnCode) {
+    HttpHeaders responseHeaders = new HttpHeaders();
+    responseHeaders.set("Content-Type", "application/json");
+    return new ResponseEntity<T>(responseHeaders, returnCode);
+  }
+
+  // Build the response to a failed request.  A request which ran out of time
+  // is a Gateway Timeout, and anything else is an Internal Server Error
+  private <T> ResponseEntity<T> failedResponse(Throwable err) {
+    if (DeadlineExceededException.isCauseOf(err)) {
+      logger.warn("Deadline exceeded processing Request");
+      return this.<T>emptyResponse(HttpStatus.GATEWAY_TIMEOUT);
+    }
+    logger.error("Error Processing Request: ", err);
+    return this.<T>emptyResponse(HttpStatus.INTERNAL_SERVER_ERROR);
+  }
+
+  /**
+  * Is async request mode enabled.
+  * @return True if the servlet thread is released while requests are pending
+  */
+  public boolean isAsyncEnabled() {
+    return asyncEnabled;
+  }
+
+  /**
+  * Wrap a future HTTP Response in a DeferredResult.
+  * @param response The future HTTP Response
+  * @return A DeferredResult, completed with the HTTP Response
+  */
+  public <T> DeferredResult<ResponseEntity<T>> defer(
+      CompletableFuture<ResponseEntity<T>> response) {
+    if (!asyncEnabled) {
+      DeferredResult<ResponseEntity<T>> result = new DeferredResult<ResponseEntity<T>>();
+      try {
+        result.setResult(response.join());
+      } catch (Exception e) {
+        result.setResult(this.<T>failedResponse(e));
+      }
+      return result;
+    }
+    final DeferredResult<ResponseEntity<T>> result = new DeferredResult<ResponseEntity<T>>(
+        asyncTimeout, this.<T>emptyResponse(HttpStatus.GATEWAY_TIMEOUT));
+    response.whenComplete(new BiConsumer<ResponseEntity<T>, Throwable>() {
+      @Override
+      public void accept(ResponseEntity<T> value, Throwable err) {
+        if (err != null) {
+          result.setResult(AsyncResponseProvider.this.<T>failedResponse(err));
+        } else {
+          result.setResult(value);
+        }
+      }
+    });
+    return result;
+  }
+}
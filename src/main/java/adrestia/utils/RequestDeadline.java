@@ -0,0 +1,115 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+* The point in time by which an HTTP Request must be answered.
+* The deadline of the request being handled is held for the current thread,
+* so the DAOs can pass it on to every message they send, and each message
+* gives up once it has passed.
+*/
+public final class RequestDeadline {
+
+  // Deadline of the request being handled on each thread
+  private static final ThreadLocal<RequestDeadline> current = new ThreadLocal<RequestDeadline>();
+
+  // When the deadline passes, from System.nanoTime()
+  private final long expiresAt;
+
+  // Build a deadline passing at the given System.nanoTime()
+  private RequestDeadline(long expiresAt) {
+    this.expiresAt = expiresAt;
+  }
+
+  /**
+  * Build a deadline which passes a number of milliseconds from now.
+  * @param millis How many milliseconds from now the deadline passes
+  * @return The new deadline
+  */
+  public static RequestDeadline after(long millis) {
+    return new RequestDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+  }
+
+  /**
+  * Get the later of two deadlines, for a message sent on behalf of both.
+  * @param first The first deadline, or null if there is none
+  * @param second The second deadline, or null if there is none
+  * @return The later deadline, or null if either has none
+  */
+  public static RequestDeadline latest(RequestDeadline first, RequestDeadline second) {
+    if (first == null || second == null) {
+      return null;
+    }
+    return first.expiresAt - second.expiresAt >= 0 ? first : second;
+  }
+
+  /**
+  * Get the deadline of the request being handled on this thread.
+  * @return The current deadline, or null if there is none
+  */
+  public static RequestDeadline current() {
+    return current.get();
+  }
+
+  /**
+  * Set the deadline of the request being handled on this thread.
+  * @param deadline The new deadline, or null to clear it
+  */
+  public static void setCurrent(RequestDeadline deadline) {
+    if (deadline == null) {
+      current.remove();
+    } else {
+      current.set(deadline);
+    }
+  }
+
+  /**
+  * Run a task with the given deadline set on this thread, then restore the
+  * previous one.  Used to carry a deadline into callbacks, which run on
+  * other threads than the request which set it.
+  * @param deadline The deadline to set while the task runs, or null for none
+  * @param task The task to run
+  */
+  public static void runWithin(RequestDeadline deadline, Runnable task) {
+    RequestDeadline previous = current.get();
+    setCurrent(deadline);
+    try {
+      task.run();
+    } finally {
+      setCurrent(previous);
+    }
+  }
+
+  /**
+  * Get the time left before the deadline.
+  * @return How many milliseconds are left, zero or less once it has passed
+  */
+  public long remainingMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(expiresAt - System.nanoTime());
+  }
+
+  /**
+  * Has the deadline passed.
+  * @return True once there is no time left
+  */
+  public boolean isExpired() {
+    return expiresAt - System.nanoTime() <= 0;
+  }
+}
@@ -33,6 +33,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -94,4 +95,20 @@ public class UtilityProvider implements UtilityProviderInterface {
     return randomGenerator.nextInt(max);
   }
 
+  /**
+  * Convert the address of a Service Instance into a ZMQ Address.
+  * Transform http://hostname:port into tcp://hostname:port
+  */
+  @Override
+  public String getZmqAddr(ServiceInstance service) {
+    // Pull the URL String
+    String uriString = service.getUri().toString();
+    // Parse the URL String
+    int portSeperatorIndex = uriString.lastIndexOf(":");
+    String hostName = uriString.substring(7, portSeperatorIndex);
+    String portStr =
+        uriString.substring(portSeperatorIndex + 1, uriString.length());
+    return String.format("tcp://%s:%s", hostName, portStr);
+  }
+
 }
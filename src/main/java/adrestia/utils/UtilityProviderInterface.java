@@ -17,6 +17,7 @@ limitations under the License.
 
 package adrestia;
 
+import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
@@ -41,4 +42,11 @@ public interface UtilityProviderInterface {
   */
   public int getRandomInt(int max);
 
+  /**
+  * Convert the address of a Service Instance into a ZMQ Address.
+  * @param service A ServiceInstance object found through Service Discovery
+  * @return A ZMQ Address of the form tcp://hostname:port
+  */
+  public String getZmqAddr(ServiceInstance service);
+
 }
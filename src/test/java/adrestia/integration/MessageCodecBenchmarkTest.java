@@ -0,0 +1,159 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import org.zeromq.ZMQ;
+
+/**
+* Benchmarking the shared JSON Message Codec.
+*/
+public class MessageCodecBenchmarkTest {
+
+  /**
+  * JMH Benchmark comparing a new ObjectMapper and String round trip on
+  * each transaction against the shared Message Codec.
+  */
+  @State(Scope.Benchmark)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public static class CodecBenchmark {
+    private MessageCodec codec = null;
+    private ObjectList objList = null;
+    private SceneList scnList = null;
+    private byte[] objReply = null;
+    private byte[] scnReply = null;
+
+    /**
+    * Build the codec and the messages to encode and decode.
+    */
+    @Setup
+    public void setUp() throws Exception {
+      codec = new MessageCodec();
+      codec.warmUp();
+      objList = MessageCodecTest.buildObjectList(50);
+      scnList = MessageCodecTest.buildSceneList(50);
+      objReply = codec.writeObjectList(objList);
+      scnReply = codec.writeSceneList(scnList);
+    }
+
+    /**
+    * Encode and decode an Object List as the DAO used to.
+    */
+    @Benchmark
+    public ObjectList objectListMapper(Blackhole bh) throws Exception {
+      ObjectMapper mapper = new ObjectMapper();
+      bh.consume(mapper.writeValueAsString(objList).getBytes(ZMQ.CHARSET));
+      return mapper.readValue(new String(objReply, ZMQ.CHARSET), ObjectList.class);
+    }
+
+    /**
+    * Encode and decode an Object List with the shared codec.
+    */
+    @Benchmark
+    public ObjectList objectListCodec(Blackhole bh) throws Exception {
+      bh.consume(codec.writeObjectList(objList));
+      return codec.readObjectList(objReply);
+    }
+
+    /**
+    * Decode a large Object List, and read only its first document.
+    */
+    @Benchmark
+    public ObjectDocument objectListFirstDocument() throws Exception {
+      return codec.readObjectList(objReply).getDocuments()[0];
+    }
+
+    /**
+    * Decode a large Object List lazily, and read only its first document.
+    */
+    @Benchmark
+    public ObjectDocument objectListLazyFirstDocument() throws Exception {
+      return codec.readObjectListLazily(objReply).getDocument(0);
+    }
+
+    /**
+    * Encode and decode a Scene List as the DAO used to.
+    */
+    @Benchmark
+    public SceneList sceneListMapper(Blackhole bh) throws Exception {
+      ObjectMapper mapper = new ObjectMapper();
+      bh.consume(mapper.writeValueAsString(scnList).getBytes(ZMQ.CHARSET));
+      return mapper.readValue(new String(scnReply, ZMQ.CHARSET), SceneList.class);
+    }
+
+    /**
+    * Encode and decode a Scene List with the shared codec.
+    */
+    @Benchmark
+    public SceneList sceneListCodec(Blackhole bh) throws Exception {
+      bh.consume(codec.writeSceneList(scnList));
+      return codec.readSceneList(scnReply);
+    }
+  }
+
+  // Run the codec benchmark, with short iterations
+  // Shouldn't be relied on for automated testing but good for debugging
+  @Test
+  public void testBenchmark() throws Exception {
+    PrintWriter testLogger = new PrintWriter("logs/testCodecBenchmark.txt", "UTF-8");
+    testLogger.println("Starting Message Codec Benchmark");
+    try {
+      Options opts = new OptionsBuilder()
+          .include(CodecBenchmark.class.getName().replace("$", "."))
+          .forks(1)
+          .warmupIterations(2)
+          .warmupTime(TimeValue.seconds(1))
+          .measurementIterations(3)
+          .measurementTime(TimeValue.seconds(1))
+          .build();
+      Collection<RunResult> results = new Runner(opts).run();
+      for (RunResult result : results) {
+        testLogger.println(String.format("%s: %.0f ops/s",
+            result.getParams().getBenchmark(), result.getPrimaryResult().getScore()));
+      }
+      assert (results.size() == 6);
+    } catch (Exception e) {
+      e.printStackTrace(testLogger);
+      assert (false);
+    } finally {
+      testLogger.close();
+    }
+  }
+}
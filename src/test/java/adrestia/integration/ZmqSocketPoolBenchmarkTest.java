@@ -0,0 +1,118 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+* Benchmarking the ZMQ Socket Pool under contention.
+* Sockets connect lazily, so no server is needed on the other end.
+*/
+public class ZmqSocketPoolBenchmarkTest {
+
+  private static final String testAddr = "tcp://127.0.0.1:5999";
+
+  // How many milliseconds each thread count is measured for
+  private static final long WINDOW_MS = 250;
+
+  private ZmqSocketPool pool = null;
+
+  /**
+  * Build a pool with up to 64 sockets and waiters per endpoint.
+  */
+  @Before
+  public void setUp() {
+    pool = new ZmqSocketPool();
+    ReflectionTestUtils.setField(pool, "context", new ZmqContextContainer());
+    ReflectionTestUtils.setField(pool, "minSockets", 1);
+    ReflectionTestUtils.setField(pool, "maxSockets", 64);
+    ReflectionTestUtils.setField(pool, "maxWaiters", 64);
+    ReflectionTestUtils.setField(pool, "acquireTimeout", 200);
+    ReflectionTestUtils.setField(pool, "idleTimeout", 60);
+    pool.start();
+  }
+
+  /**
+  * Close the pool.
+  */
+  @After
+  public void tearDown() {
+    pool.destroy();
+  }
+
+  // Contention benchmark, acquiring and releasing sockets to a single
+  // endpoint from an increasing number of threads
+  @Test
+  public void testContention() throws Exception {
+    // Open up a file that we can write some test results to
+    // Shouldn't be relied on for automated testing but good for debugging
+    PrintWriter testLogger = new PrintWriter("logs/testPoolContention.txt", "UTF-8");
+    testLogger.println("Starting Socket Pool Contention Benchmark");
+    ExecutorService executor = Executors.newFixedThreadPool(64);
+    try {
+      int[] threadCounts = {1, 2, 4, 8, 16, 32, 64};
+      for (int threads : threadCounts) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WINDOW_MS);
+        List<Future<Long>> results = new ArrayList<Future<Long>>();
+        for (int i = 0; i < threads; i++) {
+          results.add(executor.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+              long operations = 0;
+              while (System.nanoTime() < deadline) {
+                ZmqSocketContainer cont =
+                    pool.getSocket(testAddr, ZmqSocketContainer.ivanType);
+                if (cont != null) {
+                  pool.releaseSocket(cont);
+                  operations++;
+                }
+              }
+              return operations;
+            }
+          }));
+        }
+        long totalOperations = 0;
+        for (Future<Long> result : results) {
+          totalOperations += result.get();
+        }
+        assert (totalOperations > 0);
+        testLogger.println(String.format("%d threads: %d acquire/release per second",
+            threads, totalOperations * 1000 / WINDOW_MS));
+      }
+    } catch (Exception e) {
+      e.printStackTrace(testLogger);
+      assert (false);
+    } finally {
+      executor.shutdown();
+      testLogger.close();
+    }
+  }
+}
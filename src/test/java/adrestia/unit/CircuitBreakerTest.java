@@ -0,0 +1,134 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import org.junit.Test;
+
+/**
+* Testing the per-instance Circuit Breaker.
+*/
+public class CircuitBreakerTest {
+
+  // Window of 4 requests, all needed, 50% failures or 50% slow requests,
+  // slow after 100 ms, open for 100 ms, 2 trial requests
+  private CircuitBreaker buildBreaker() {
+    return new CircuitBreaker("TestHost:5555", 4, 4, 50, 50, 100, 100, 2);
+  }
+
+  // Old outcomes slide out of the window
+  @Test
+  public void testSlidingWindow() {
+    CircuitBreaker breaker = buildBreaker();
+    breaker.record(false, 1000L);
+    assert (breaker.getState() == CircuitBreaker.State.CLOSED);
+    for (int i = 0; i < 3; i++) {
+      breaker.record(true, 1000L);
+    }
+    assert (breaker.getFailureRate() == 25.0);
+    breaker.record(true, 1000L);
+    assert (breaker.getFailureRate() == 0.0);
+    breaker.record(false, 1000L);
+    assert (breaker.getState() == CircuitBreaker.State.CLOSED);
+    breaker.record(false, 1000L);
+    assert (breaker.getState() == CircuitBreaker.State.OPEN);
+    assert (!breaker.isAvailable());
+    assert (!breaker.tryAcquire());
+    assert (breaker.getTimesOpened() == 1);
+  }
+
+  // Slow requests open the breaker, even when they succeed
+  @Test
+  public void testSlowCalls() throws InterruptedException {
+    CircuitBreaker breaker = buildBreaker();
+    breaker.record(true, 1000L);
+    breaker.record(true, 1000L);
+    breaker.record(true, 200000000L);
+    assert (breaker.getState() == CircuitBreaker.State.CLOSED);
+    breaker.record(true, 200000000L);
+    assert (breaker.getSlowCallRate() == 50.0);
+    assert (breaker.getState() == CircuitBreaker.State.OPEN);
+
+    // Fast trial requests close it again
+    Thread.sleep(150);
+    assert (breaker.isAvailable());
+    assert (breaker.tryAcquire());
+    assert (breaker.tryAcquire());
+    assert (!breaker.tryAcquire());
+    assert (breaker.getState() == CircuitBreaker.State.HALF_OPEN);
+    breaker.record(true, 1000L);
+    breaker.record(true, 1000L);
+    assert (breaker.getState() == CircuitBreaker.State.CLOSED);
+    assert (breaker.getSlowCallRate() == 0.0);
+  }
+
+  // Failed trial requests open the breaker again
+  @Test
+  public void testFailedTrial() throws InterruptedException {
+    CircuitBreaker breaker = buildBreaker();
+    for (int i = 0; i < 4; i++) {
+      breaker.record(false, 1000L);
+    }
+    Thread.sleep(150);
+    assert (breaker.tryAcquire());
+    assert (breaker.tryAcquire());
+    breaker.record(true, 1000L);
+    breaker.record(false, 1000L);
+    assert (breaker.getState() == CircuitBreaker.State.OPEN);
+    assert (breaker.getTimesOpened() == 2);
+  }
+
+  // Trial requests which are never sent are handed back
+  @Test
+  public void testReleasedTrial() throws InterruptedException {
+    CircuitBreaker breaker = buildBreaker();
+    for (int i = 0; i < 4; i++) {
+      breaker.record(false, 1000L);
+    }
+    Thread.sleep(150);
+    assert (breaker.tryAcquire());
+    assert (breaker.tryAcquire());
+    assert (!breaker.isAvailable());
+    breaker.release();
+    assert (breaker.isAvailable());
+    assert (breaker.tryAcquire());
+    breaker.record(true, 1000L);
+    breaker.record(true, 1000L);
+    assert (breaker.getState() == CircuitBreaker.State.CLOSED);
+    // Nothing is handed back once the breaker has closed
+    breaker.release();
+    assert (breaker.getState() == CircuitBreaker.State.CLOSED);
+  }
+
+  // Outcomes beyond the trial requests let through are ignored while half-open
+  @Test
+  public void testExtraOutcomes() throws InterruptedException {
+    CircuitBreaker breaker = buildBreaker();
+    for (int i = 0; i < 4; i++) {
+      breaker.record(false, 1000L);
+    }
+    Thread.sleep(150);
+    assert (breaker.tryAcquire());
+    breaker.record(true, 1000L);
+    breaker.record(false, 1000L);
+    breaker.record(false, 1000L);
+    assert (breaker.getState() == CircuitBreaker.State.HALF_OPEN);
+    assert (breaker.tryAcquire());
+    breaker.record(true, 1000L);
+    assert (breaker.getState() == CircuitBreaker.State.CLOSED);
+  }
+}
@@ -0,0 +1,92 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.method.HandlerMethod;
+
+/**
+* Testing the Deadline Interceptor, which sets the deadline of each request.
+*/
+public class DeadlineInterceptorTest {
+
+  private DeadlineInterceptor interceptor = new DeadlineInterceptor();
+
+  private MockEnvironment env = new MockEnvironment();
+
+  private HandlerMethod getScene = null;
+
+  private HandlerMethod queryScene = null;
+
+  /**
+  * Set the default deadline, and a deadline for the Scene Query endpoint.
+  */
+  @Before
+  public void setUp() throws Exception {
+    env.setProperty("server.http.deadline.SceneController.queryScene", "20000");
+    ReflectionTestUtils.setField(interceptor, "defaultDeadline", 10000L);
+    ReflectionTestUtils.setField(interceptor, "env", env);
+    SceneController controller = new SceneController();
+    getScene = new HandlerMethod(controller, "getScene", String.class);
+    queryScene = new HandlerMethod(controller, "queryScene", Scene.class);
+  }
+
+  /**
+  * Clear the deadline.
+  */
+  @After
+  public void tearDown() {
+    RequestDeadline.setCurrent(null);
+  }
+
+  // Set the deadline for a request, and return the milliseconds left on it
+  private long remainingFor(MockHttpServletRequest request, HandlerMethod handler) {
+    interceptor.preHandle(request, new MockHttpServletResponse(), handler);
+    return RequestDeadline.current().remainingMillis();
+  }
+
+  // The endpoint's deadline applies, unless the client asks for less
+  @Test
+  public void testDeadlines() throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    long remaining = remainingFor(request, getScene);
+    assert (remaining > 9000 && remaining <= 10000);
+    remaining = remainingFor(request, queryScene);
+    assert (remaining > 19000 && remaining <= 20000);
+
+    // Clients may ask for less time, but not for more
+    request.addHeader(DeadlineInterceptor.TIMEOUT_HEADER, "500");
+    remaining = remainingFor(request, queryScene);
+    assert (remaining > 0 && remaining <= 500);
+    request = new MockHttpServletRequest();
+    request.addHeader(DeadlineInterceptor.TIMEOUT_HEADER, "60000");
+    remaining = remainingFor(request, getScene);
+    assert (remaining > 9000 && remaining <= 10000);
+
+    // The deadline is cleared once the servlet thread is released
+    interceptor.afterConcurrentHandlingStarted(request, new MockHttpServletResponse(), getScene);
+    assert (RequestDeadline.current() == null);
+  }
+}
@@ -0,0 +1,66 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import org.junit.Test;
+
+/**
+* Testing the Document Cache.
+*/
+public class DocumentCacheTest {
+
+  // Documents loaded are cached, until they are written
+  @Test
+  public void testInvalidate() {
+    DocumentCache<String> cache = new DocumentCache<String>("Clyman", 10, 60000);
+    assert (cache.get("key1") == null);
+    cache.put("key1", "doc1", cache.startLoad(), 2000000L);
+    cache.put("key2", "doc2", cache.startLoad(), 4000000L);
+    assert (cache.get("key1").equals("doc1"));
+    cache.invalidate("key1");
+    assert (cache.get("key1") == null);
+    assert (cache.get("key2").equals("doc2"));
+    assert (cache.getHits() == 2);
+    assert (cache.getMisses() == 2);
+    assert (cache.getHitRate() == 0.5);
+    assert (cache.getAverageLoadTime() == 3.0);
+  }
+
+  // A document read while a write was in flight is not cached
+  @Test
+  public void testRacingWrite() {
+    DocumentCache<String> cache = new DocumentCache<String>("Clyman", 10, 60000);
+    long token = cache.startLoad();
+    cache.invalidate("key2");
+    cache.put("key1", "doc1", token, 1000000L);
+    assert (cache.get("key1") == null);
+    cache.put("key1", "doc1", cache.startLoad(), 1000000L);
+    assert (cache.get("key1").equals("doc1"));
+  }
+
+  // The least recently used documents are evicted
+  @Test
+  public void testEviction() {
+    DocumentCache<String> cache = new DocumentCache<String>("Clyman", 2, 60000);
+    cache.put("key1", "doc1", cache.startLoad(), 1000000L);
+    cache.put("key2", "doc2", cache.startLoad(), 1000000L);
+    cache.put("key3", "doc3", cache.startLoad(), 1000000L);
+    assert (cache.size() == 2);
+    assert (cache.getEvictions() == 1);
+  }
+}
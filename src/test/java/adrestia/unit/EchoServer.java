@@ -0,0 +1,111 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package adrestia;
+
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+/**
+* A local REP Socket which echoes each message back, for testing ZMQ Connections.
+* Messages starting with "slow" are echoed after a delay.
+* The socket is only used, and closed, by the server thread.  The thread is
+* never interrupted, as interrupting a thread inside a ZMQ call breaks the
+* context, so it polls a flag instead.
+*/
+public class EchoServer {
+
+  // How many milliseconds to wait before echoing a slow message
+  private final long slowDelay;
+
+  // Context for the test server, separate from the one under test
+  private final ZContext serverContext = new ZContext();
+
+  // Cleared to stop the server thread
+  private volatile boolean running = false;
+
+  private Thread serverThread = null;
+
+  private int port = 0;
+
+  /**
+  * EchoServer constructor.
+  * @param slowDelay How many milliseconds to wait before echoing a slow message
+  */
+  public EchoServer(long slowDelay) {
+    this.slowDelay = slowDelay;
+  }
+
+  /**
+  * Bind the server to a random local port, and start echoing.
+  */
+  public void start() {
+    final ZMQ.Socket server = serverContext.createSocket(ZMQ.REP);
+    server.setReceiveTimeOut(100);
+    port = server.bindToRandomPort("tcp://127.0.0.1");
+    running = true;
+    serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (running) {
+          byte[] msg = server.recv(0);
+          if (msg == null) {
+            continue;
+          }
+          if (new String(msg, ZMQ.CHARSET).startsWith("slow")) {
+            try {
+              Thread.sleep(slowDelay);
+            } catch (InterruptedException e) {
+              break;
+            }
+          }
+          server.send(msg, 0);
+        }
+        serverContext.destroySocket(server);
+      }
+    });
+    serverThread.start();
+  }
+
+  /**
+  * Stop the server thread, then destroy its context.
+  */
+  public void stop() throws InterruptedException {
+    running = false;
+    if (serverThread != null) {
+      serverThread.join();
+    }
+    serverContext.destroy();
+  }
+
+  /**
+  * Get the port the server is bound to.
+  * @return The port number
+  */
+  public int getPort() {
+    return port;
+  }
+
+  /**
+  * Get the address the server is bound to.
+  * @return The address to connect to
+  */
+  public String getAddress() {
+    return "tcp://127.0.0.1:" + port;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+/**
+* Testing the Health Prober against a local REP Socket, and one which isn't there.
+*/
+@RunWith(MockitoJUnitRunner.class)
+public class HealthProberTest {
+
+  @Mock
+  private ServiceManagerInterface serviceManager;
+
+  private HealthProber prober = new HealthProber();
+
+  // Context for the test server, separate from the one under test
+  private ZContext serverContext = new ZContext();
+
+  private ZmqContextContainer context = new ZmqContextContainer();
+
+  private Thread serverThread = null;
+
+  private int serverPort = 0;
+
+  /**
+  * Start an echo server, and point the prober at it.
+  */
+  @Before
+  public void setUp() throws Exception {
+    final ZMQ.Socket server = serverContext.createSocket(ZMQ.REP);
+    server.setReceiveTimeOut(100);
+    serverPort = server.bindToRandomPort("tcp://127.0.0.1");
+    serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+          byte[] msg = server.recv(0);
+          if (msg != null) {
+            server.send(msg, 0);
+          }
+        }
+      }
+    });
+    serverThread.start();
+
+    ReflectionTestUtils.setField(prober, "probeEnabled", true);
+    ReflectionTestUtils.setField(prober, "probeInterval", 50);
+    ReflectionTestUtils.setField(prober, "probeTimeout", 200);
+    ReflectionTestUtils.setField(prober, "context", context);
+    ReflectionTestUtils.setField(prober, "serviceManager", serviceManager);
+    ReflectionTestUtils.setField(prober, "utils", new UtilityProvider());
+  }
+
+  /**
+  * Stop the prober and echo server.
+  */
+  @After
+  public void tearDown() throws Exception {
+    prober.destroy();
+    serverThread.interrupt();
+    serverThread.join();
+    serverContext.destroy();
+    context.context.destroy();
+  }
+
+  // The live instance passes its probes, and the dead one fails them
+  @Test
+  public void testProbe() throws Exception {
+    ServiceInstance liveInstance =
+        new DefaultServiceInstance("LiveId", "127.0.0.1", serverPort, false);
+    ServiceInstance deadInstance =
+        new DefaultServiceInstance("DeadId", "127.0.0.1", serverPort + 1, false);
+    when(serviceManager.getInstances("Ivan")).thenReturn(
+        new ArrayList<ServiceInstance>(Arrays.asList(liveInstance, deadInstance)));
+    when(serviceManager.getInstances("Clyman")).thenReturn(new ArrayList<ServiceInstance>());
+
+    prober.start();
+    Thread.sleep(1000);
+    prober.destroy();
+
+    verify(serviceManager, atLeast(2)).reportProbeResult(eq(liveInstance), eq(true), anyLong());
+    verify(serviceManager, atLeast(2)).reportProbeResult(eq(deadInstance), eq(false), anyLong());
+    verify(serviceManager, never()).reportProbeResult(eq(liveInstance), eq(false), anyLong());
+    verify(serviceManager, never()).reportProbeResult(eq(deadInstance), eq(true), anyLong());
+  }
+}
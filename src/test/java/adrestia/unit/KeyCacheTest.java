@@ -0,0 +1,57 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import org.junit.Test;
+
+/**
+* Testing the Key Cache.
+*/
+public class KeyCacheTest {
+
+  // Keys are found by name, and forgotten by name or by key
+  @Test
+  public void testInvalidate() {
+    KeyCache cache = new KeyCache("Clyman", 10, 60000);
+    assert (cache.get("scn") == null);
+    cache.put("scn", "key1");
+    cache.put("other", "key2");
+    cache.put("empty", "");
+    assert (cache.get("scn").equals("key1"));
+    assert (cache.get("empty") == null);
+    cache.invalidate("scn");
+    assert (cache.get("scn") == null);
+    cache.invalidateKey("key2");
+    assert (cache.get("other") == null);
+    assert (cache.getHits() == 1);
+    assert (cache.getMisses() == 4);
+  }
+
+  // Keys expire, and the least recently used are evicted
+  @Test
+  public void testBounds() throws InterruptedException {
+    KeyCache cache = new KeyCache("Ivan", 2, 100);
+    cache.put("first", "key1");
+    cache.put("second", "key2");
+    cache.put("third", "key3");
+    assert (cache.size() == 2);
+    assert (cache.get("first") == null);
+    Thread.sleep(150);
+    assert (cache.get("third") == null);
+  }
+}
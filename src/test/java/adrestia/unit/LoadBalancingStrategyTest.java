@@ -0,0 +1,110 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+/**
+* Testing the Load Balancing Strategies against instances with known load.
+*/
+public class LoadBalancingStrategyTest {
+
+  private List<ServiceInstance> candidates = null;
+
+  private Map<String, InstanceStats> stats = null;
+
+  /**
+  * Build a fast and a slow instance, with one latency sample each.
+  */
+  @Before
+  public void setUp() {
+    ServiceInstance fastInstance = new DefaultServiceInstance("FastId", "FastHost", 5555, false);
+    ServiceInstance slowInstance = new DefaultServiceInstance("SlowId", "SlowHost", 5556, false);
+    candidates = new ArrayList<ServiceInstance>(Arrays.asList(fastInstance, slowInstance));
+    stats = new HashMap<String, InstanceStats>();
+    InstanceStats fastStats = new InstanceStats();
+    fastStats.requestStarted();
+    fastStats.requestCompleted(1000000L);
+    stats.put(InstanceStats.keyOf(fastInstance), fastStats);
+    InstanceStats slowStats = new InstanceStats();
+    slowStats.requestStarted();
+    slowStats.requestCompleted(3000000L);
+    stats.put(InstanceStats.keyOf(slowInstance), slowStats);
+  }
+
+  // Count how many of a number of choices go to the fast instance
+  private int countFast(LoadBalancingStrategy strategy, int numChoices) {
+    int fastCount = 0;
+    for (int i = 0; i < numChoices; i++) {
+      if (strategy.choose(candidates, stats).getHost().equals("FastHost")) {
+        fastCount++;
+      }
+    }
+    return fastCount;
+  }
+
+  // The moving average and in flight count follow the requests reported
+  @Test
+  public void testInstanceStats() {
+    InstanceStats instanceStats = new InstanceStats();
+    assert (instanceStats.getLatencyEwma() == 0.0);
+    instanceStats.requestStarted();
+    instanceStats.requestStarted();
+    assert (instanceStats.getInFlight() == 2);
+    instanceStats.requestCompleted(1000L);
+    assert (instanceStats.getInFlight() == 1);
+    assert (instanceStats.getLatencyEwma() == 1000.0);
+    instanceStats.requestCompleted(2000L);
+    assert (instanceStats.getInFlight() == 0);
+    assert (instanceStats.getLatencyEwma() > 1000.0);
+    assert (instanceStats.getLatencyEwma() < 2000.0);
+    // Completions without a matching start don't go negative
+    instanceStats.requestCompleted(1000L);
+    assert (instanceStats.getInFlight() == 0);
+  }
+
+  // With two instances, P2C always sends to the cheaper one
+  @Test
+  public void testPowerOfTwoChoices() {
+    LoadBalancingStrategy strategy = new PowerOfTwoChoicesStrategy();
+    assert (countFast(strategy, 100) == 100);
+    // Load up the fast instance until it costs more than the slow one
+    InstanceStats fastStats = stats.get(InstanceStats.keyOf(candidates.get(0)));
+    for (int i = 0; i < 3; i++) {
+      fastStats.requestStarted();
+    }
+    assert (countFast(strategy, 100) == 0);
+  }
+
+  // Weighted Round Robin shares requests in proportion to speed
+  @Test
+  public void testWeightedRoundRobin() {
+    LoadBalancingStrategy strategy = new WeightedRoundRobinStrategy();
+    assert (countFast(strategy, 400) == 300);
+  }
+}
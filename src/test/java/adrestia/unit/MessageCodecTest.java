@@ -0,0 +1,127 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Test;
+
+import org.zeromq.ZMQ;
+
+/**
+* Testing the shared JSON Message Codec.
+*/
+public class MessageCodecTest {
+
+  // Build an Object List with a number of fully populated documents
+  static ObjectList buildObjectList(int numDocs) {
+    ObjectDocument[] docs = new ObjectDocument[numDocs];
+    for (int i = 0; i < numDocs; i++) {
+      double[] translation = {1.0, 2.0, 3.0};
+      double[] rotationEuler = {0.0, 1.0, 0.0, 1.0};
+      double[] scale = {1.0, 1.0, 1.0};
+      String[] assets = {"TestAsset1", "TestAsset2"};
+      double[] transform = {1.0, 0.0, 0.0, 0.0, 0.0, 1.0, 0.0, 0.0,
+          0.0, 0.0, 1.0, 0.0, 0.0, 0.0, 0.0, 1.0};
+      docs[i] = new ObjectDocument("TestKey" + i, "TestName" + i,
+          "TestType", "TestSubtype", "TestOwner", "TestScene",
+          translation, rotationEuler, scale, assets, transform);
+    }
+    return new ObjectList(4, numDocs, docs, 100, "", "TransactionID");
+  }
+
+  // Build a Scene List with a number of scenes
+  static SceneList buildSceneList(int numScenes) {
+    Scene[] scns = new Scene[numScenes];
+    for (int i = 0; i < numScenes; i++) {
+      Scene scn = new Scene();
+      scn.setKey("TestKey" + i);
+      scn.setName("TestName" + i);
+      scn.setRegion("TestRegion");
+      scn.setLatitude(45.0);
+      scn.setLongitude(50.0);
+      scn.setDistance(10.0);
+      scns[i] = scn;
+    }
+    return new SceneList(2, numScenes, scns, 100, "", "TransactionID");
+  }
+
+  // Messages survive a round trip through the codec
+  @Test
+  public void testRoundTrip() throws Exception {
+    MessageCodec codec = new MessageCodec();
+    codec.warmUp();
+    ObjectList objList = codec.readObjectList(codec.writeObjectList(buildObjectList(2)));
+    assert (objList.getNumRecords() == 2);
+    assert (objList.getErrorCode() == 100);
+    assert (objList.getDocuments()[1].getKey().equals("TestKey1"));
+    assert (objList.getDocuments()[1].getTransform()[15] == 1.0);
+    objList = codec.readObjectList(codec.writeObjectListAsString(buildObjectList(1)));
+    assert (objList.getDocuments()[0].getName().equals("TestName0"));
+    SceneList scnList = codec.readSceneList(codec.writeSceneList(buildSceneList(2)));
+    assert (scnList.getNumRecords() == 2);
+    assert (scnList.getSceneList()[1].getKey().equals("TestKey1"));
+    scnList = codec.readSceneList(codec.writeSceneListAsString(buildSceneList(1)));
+    assert (scnList.getSceneList()[0].getRegion().equals("TestRegion"));
+  }
+
+  // Documents are only decoded when asked for, and match an eager decode
+  @Test
+  public void testReadLazily() throws Exception {
+    MessageCodec codec = new MessageCodec();
+    byte[] msg = codec.writeObjectList(buildObjectList(3));
+    ObjectList objList = codec.readObjectListLazily(msg);
+    assert (objList instanceof LazyObjectList);
+    assert (objList.getMsgType() == 4);
+    assert (objList.getNumRecords() == 3);
+    assert (objList.getErrorCode() == 100);
+    assert (objList.getTransactionId().equals("TransactionID"));
+    assert (objList.getDocument(2).getKey().equals("TestKey2"));
+    assert (objList.getDocument(2).getTransform()[15] == 1.0);
+    assert (objList.getDocuments().length == 3);
+    assert (objList.getDocuments()[0].getName().equals("TestName0"));
+    assert (objList.getDocument(1).getAssets()[1].equals("TestAsset2"));
+    // Re-encoding a lazy list gives the same message
+    assert (codec.writeObjectListAsString(codec.readObjectListLazily(msg))
+        .equals(new String(msg, ZMQ.CHARSET)));
+    // Error responses with no documents
+    objList = codec.readObjectListLazily(codec.writeObjectList(
+        new ObjectList(4, 1, new ObjectDocument[0], 120, "Error Processing Request", "")));
+    assert (objList.getErrorCode() == 120);
+    assert (objList.getErrorMessage().equals("Error Processing Request"));
+    assert (objList.getDocuments().length == 0);
+  }
+
+  // Error code, length and the first record are read without decoding the message
+  @Test
+  public void testSummarize() throws Exception {
+    MessageCodec codec = new MessageCodec();
+    byte[] msg = codec.writeSceneList(buildSceneList(3));
+    MessageSummary summary = codec.summarize(msg, "scenes");
+    assert (summary.getErrorCode() == 100);
+    assert (summary.getNumRecords() == 3);
+    assert (summary.hasFirstRecord());
+    Scene scn = new ObjectMapper().readValue(summary.getFirstRecord(), Scene.class);
+    assert (scn.getKey().equals("TestKey0"));
+    summary = codec.summarize(codec.writeSceneList(
+        new SceneList(2, 1, new Scene[0], 120, "Error Processing Request", "")), "scenes");
+    assert (summary.getErrorCode() == 120);
+    assert (!summary.hasFirstRecord());
+    assert (summary.getFirstRecord() == null);
+  }
+}
@@ -0,0 +1,64 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package adrestia;
+
+import org.junit.Test;
+
+/**
+* Testing the Negative Cache.
+*/
+public class NegativeCacheTest {
+
+  // Misses are remembered until a document is written under the name
+  @Test
+  public void testInvalidate() {
+    NegativeCache<Integer> cache = new NegativeCache<Integer>("Clyman", 10, 60000);
+    assert (cache.get("name1") == null);
+    cache.put("name1", 102, cache.startLoad());
+    cache.put("name2", 102, cache.startLoad());
+    assert (cache.get("name1") == 102);
+    cache.invalidate("name1");
+    assert (cache.get("name1") == null);
+    assert (cache.get("name2") == 102);
+    cache.invalidateAll();
+    assert (cache.get("name2") == null);
+    assert (cache.getHits() == 2);
+    assert (cache.getMisses() == 3);
+  }
+
+  // A miss found while a create was in flight is not remembered
+  @Test
+  public void testRacingCreate() {
+    NegativeCache<Integer> cache = new NegativeCache<Integer>("Clyman", 10, 60000);
+    final long token = cache.startLoad();
+    cache.invalidate("name1");
+    cache.put("name1", 102, token);
+    assert (cache.get("name1") == null);
+  }
+
+  // Misses are only remembered for a short time
+  @Test
+  public void testExpiry() throws InterruptedException {
+    NegativeCache<Integer> cache = new NegativeCache<Integer>("Ivan", 10, 100);
+    cache.put("name1", 102, cache.startLoad());
+    assert (cache.get("name1") == 102);
+    Thread.sleep(150);
+    assert (cache.get("name1") == null);
+  }
+}
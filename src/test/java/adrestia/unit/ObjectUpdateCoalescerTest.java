@@ -0,0 +1,157 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package adrestia;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+* Testing the buffering of Object updates.
+*/
+@RunWith(MockitoJUnitRunner.class)
+public class ObjectUpdateCoalescerTest {
+
+  @Mock
+  private ObjectDao objData;
+
+  @Mock
+  private ZmqReactor reactor;
+
+  private ObjectUpdateCoalescer coalescer = new ObjectUpdateCoalescer();
+
+  // Sends scheduled on the reactor timer, run by hand
+  private List<Runnable> scheduled = new ArrayList<Runnable>();
+
+  /**
+  * Capture the scheduled sends, rather than running them.
+  */
+  @Before
+  public void setUp() {
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        scheduled.add((Runnable) invocation.getArguments()[0]);
+        return null;
+      }
+    }).when(reactor).schedule(any(Runnable.class), anyLong());
+    ReflectionTestUtils.setField(coalescer, "coalesceEnabled", true);
+    ReflectionTestUtils.setField(coalescer, "coalesceWindow", 50L);
+    ReflectionTestUtils.setField(coalescer, "objData", objData);
+    ReflectionTestUtils.setField(coalescer, "reactor", reactor);
+  }
+
+  // Build an update to an Object
+  private static ObjectDocument buildUpdate(String key, double x) {
+    ObjectDocument doc = new ObjectDocument();
+    doc.setKey(key);
+    doc.setName("TestObject");
+    doc.setScene("TestScene");
+    double[] translation = {x, 0.0, 0.0};
+    doc.setTranslation(translation);
+    return doc;
+  }
+
+  // Build a reply from Clyman
+  private static CompletableFuture<ObjectList> buildReply(int errorCode) {
+    return CompletableFuture.completedFuture(
+        new ObjectList(1, 0, new ObjectDocument[0], errorCode, "", ""));
+  }
+
+  // Run the sends scheduled so far
+  private void runScheduled() {
+    List<Runnable> tasks = new ArrayList<Runnable>(scheduled);
+    scheduled.clear();
+    for (Runnable task : tasks) {
+      task.run();
+    }
+  }
+
+  // Only the latest update to each Object is sent
+  @Test
+  public void testLastWriterWins() {
+    when(objData.updateAsync(any(ObjectDocument.class))).thenReturn(buildReply(100));
+    coalescer.submit(buildUpdate("key1", 1.0));
+    coalescer.submit(buildUpdate("key1", 2.0));
+    coalescer.submit(buildUpdate("key2", 5.0));
+    coalescer.submit(buildUpdate("key1", 3.0));
+    assert (scheduled.size() == 2);
+    runScheduled();
+    ArgumentCaptor<ObjectDocument> sent = ArgumentCaptor.forClass(ObjectDocument.class);
+    verify(objData, times(2)).updateAsync(sent.capture());
+    for (ObjectDocument doc : sent.getAllValues()) {
+      if (doc.getKey().equals("key1")) {
+        assert (doc.getTranslation()[0] == 3.0);
+      } else {
+        assert (doc.getTranslation()[0] == 5.0);
+      }
+    }
+    assert (coalescer.metrics().toString().contains("adrestia.coalesce.updates.pending, value=0"));
+  }
+
+  // Updates which arrive while one is in flight are sent once it is answered
+  @Test
+  public void testInFlight() {
+    CompletableFuture<ObjectList> firstReply = new CompletableFuture<ObjectList>();
+    when(objData.updateAsync(any(ObjectDocument.class)))
+        .thenReturn(firstReply).thenReturn(buildReply(100));
+    coalescer.submit(buildUpdate("key1", 1.0));
+    runScheduled();
+    coalescer.submit(buildUpdate("key1", 2.0));
+    coalescer.submit(buildUpdate("key1", 3.0));
+    assert (scheduled.isEmpty());
+    firstReply.complete(new ObjectList(1, 1, new ObjectDocument[0], 100, "", ""));
+    assert (scheduled.size() == 1);
+    runScheduled();
+    ArgumentCaptor<ObjectDocument> sent = ArgumentCaptor.forClass(ObjectDocument.class);
+    verify(objData, times(2)).updateAsync(sent.capture());
+    assert (sent.getAllValues().get(1).getTranslation()[0] == 3.0);
+    assert (coalescer.metrics().toString().contains("adrestia.coalesce.updates.sent, value=2"));
+  }
+
+  // A failed update refreshes the key of the Object
+  @Test
+  public void testFailure() {
+    when(objData.updateAsync(any(ObjectDocument.class))).thenReturn(buildReply(120));
+    coalescer.submit(buildUpdate("key1", 1.0));
+    runScheduled();
+    verify(objData, times(1)).findKeyAsync(eq("TestScene"), eq("TestObject"), eq(true));
+    assert (coalescer.metrics().toString().contains("adrestia.coalesce.updates.failed, value=1"));
+  }
+}
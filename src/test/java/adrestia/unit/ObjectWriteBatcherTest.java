@@ -0,0 +1,171 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package adrestia;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+/**
+* Testing the batching of Object creates and updates.
+*/
+@RunWith(MockitoJUnitRunner.class)
+public class ObjectWriteBatcherTest {
+
+  @Mock
+  private ZmqReactor reactor;
+
+  // Batches scheduled on the reactor timer, run by hand
+  private List<Runnable> scheduled = new ArrayList<Runnable>();
+
+  // Batches sent, the deadline each was sent within, and the replies to send back
+  private List<ObjectList> sent = new ArrayList<ObjectList>();
+  private List<RequestDeadline> sentDeadlines = new ArrayList<RequestDeadline>();
+  private List<ObjectList> replies = new ArrayList<ObjectList>();
+
+  // Sends batches to the lists above, rather than Clyman
+  private Function<ObjectList, CompletableFuture<ObjectList>> sender =
+      new Function<ObjectList, CompletableFuture<ObjectList>>() {
+        @Override
+        public CompletableFuture<ObjectList> apply(ObjectList batch) {
+          sent.add(batch);
+          sentDeadlines.add(RequestDeadline.current());
+          return CompletableFuture.completedFuture(replies.remove(0));
+        }
+      };
+
+  /**
+  * Capture the scheduled batches, rather than running them.
+  */
+  @Before
+  public void setUp() {
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        scheduled.add((Runnable) invocation.getArguments()[0]);
+        return null;
+      }
+    }).when(reactor).schedule(any(Runnable.class), anyLong());
+  }
+
+  /**
+  * Clear any deadline left on the test thread.
+  */
+  @After
+  public void tearDown() {
+    RequestDeadline.setCurrent(null);
+  }
+
+  // Build a document, or the reply to one
+  private static ObjectDocument buildDocument(String name) {
+    ObjectDocument doc = new ObjectDocument();
+    doc.setName(name);
+    return doc;
+  }
+
+  // Run the batches scheduled so far
+  private void runScheduled() {
+    List<Runnable> tasks = new ArrayList<Runnable>(scheduled);
+    scheduled.clear();
+    for (Runnable task : tasks) {
+      task.run();
+    }
+  }
+
+  // Writes of the same Message Type share a message, and each caller gets its own document
+  @Test
+  public void testBatching() throws Exception {
+    ObjectWriteBatcher batcher = new ObjectWriteBatcher(sender, reactor, 10, 5);
+    ObjectDocument[] updated = {buildDocument("obj1"), buildDocument("obj2"),
+        buildDocument("obj3")};
+    replies.add(new ObjectList(1, 3, updated, 100, "", ""));
+    RequestDeadline.setCurrent(RequestDeadline.after(1000));
+    final CompletableFuture<ObjectList> first = batcher.submit(buildDocument("obj1"), 1);
+    final RequestDeadline later = RequestDeadline.after(5000);
+    RequestDeadline.setCurrent(later);
+    final CompletableFuture<ObjectList> second = batcher.submit(buildDocument("obj2"), 1);
+    final CompletableFuture<ObjectList> third = batcher.submit(buildDocument("obj3"), 1);
+    ObjectDocument[] created = {buildDocument("obj4")};
+    replies.add(new ObjectList(0, 1, created, 100, "", ""));
+    final CompletableFuture<ObjectList> create = batcher.submit(buildDocument("obj4"), 0);
+    assert (scheduled.size() == 2);
+    assert (sent.isEmpty());
+    runScheduled();
+    assert (sent.size() == 2);
+    assert (sent.get(0).getNumRecords() == 3);
+    assert (sent.get(0).getDocuments().length == 3);
+    assert (sentDeadlines.get(0) == later);
+    assert (first.get().getNumRecords() == 1);
+    assert (first.get().getDocument(0).getName().equals("obj1"));
+    assert (third.get().getDocument(0).getName().equals("obj3"));
+    assert (second.get().getErrorCode() == 100);
+    assert (create.get().getDocument(0).getName().equals("obj4"));
+    assert (batcher.getBatchesSent() == 2);
+    assert (batcher.getDocumentsSent() == 4);
+  }
+
+  // A full batch is sent straight away
+  @Test
+  public void testFullBatch() throws Exception {
+    ObjectWriteBatcher batcher = new ObjectWriteBatcher(sender, reactor, 2, 5);
+    ObjectDocument[] updated = {buildDocument("obj1"), buildDocument("obj2")};
+    replies.add(new ObjectList(1, 2, updated, 100, "", ""));
+    batcher.submit(buildDocument("obj1"), 1);
+    CompletableFuture<ObjectList> second = batcher.submit(buildDocument("obj2"), 1);
+    assert (sent.size() == 1);
+    assert (second.get().getDocument(0).getName().equals("obj2"));
+    // The window of the full batch passes without sending it again
+    runScheduled();
+    assert (sent.size() == 1);
+  }
+
+  // A reply which can't be split fails every caller
+  @Test
+  public void testUnmatchedReply() throws Exception {
+    ObjectWriteBatcher batcher = new ObjectWriteBatcher(sender, reactor, 10, 5);
+    ObjectDocument[] updated = {buildDocument("obj1")};
+    replies.add(new ObjectList(1, 1, updated, 100, "", ""));
+    replies.add(new ObjectList(1, 1, new ObjectDocument[0], 110, "Bad Message", ""));
+    CompletableFuture<ObjectList> first = batcher.submit(buildDocument("obj1"), 1);
+    CompletableFuture<ObjectList> second = batcher.submit(buildDocument("obj2"), 1);
+    runScheduled();
+    assert (first.get().getErrorCode() == 120);
+    assert (second.get().getNumRecords() == 0);
+    first = batcher.submit(buildDocument("obj1"), 1);
+    second = batcher.submit(buildDocument("obj2"), 1);
+    runScheduled();
+    assert (first.get().getErrorCode() == 110);
+    assert (second.get().getErrorMessage().equals("Bad Message"));
+  }
+}
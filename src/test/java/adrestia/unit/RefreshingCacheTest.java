@@ -0,0 +1,93 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import org.junit.Test;
+
+/**
+* Testing the Refreshing Cache.
+*/
+public class RefreshingCacheTest {
+
+  // Fresh for 100 ms, then served stale for 100 ms more, and kept for a second
+  private RefreshingCache<String> buildCache() {
+    return new RefreshingCache<String>("Ivan", 10, 100, 100, 1000);
+  }
+
+  // Stale documents are served while a single refresh runs
+  @Test
+  public void testStaleWhileRevalidate() throws InterruptedException {
+    RefreshingCache<String> cache = buildCache();
+    assert (cache.get("scn", true) == null);
+    cache.put("scn", "key1", "doc1", cache.startLoad(), 1000000L);
+    assert (cache.get("scn", true).equals("doc1"));
+    assert (!cache.tryRefresh("scn"));
+    Thread.sleep(120);
+    assert (cache.get("scn", true).equals("doc1"));
+    assert (cache.tryRefresh("scn"));
+    assert (!cache.tryRefresh("scn"));
+    cache.refreshFailed("scn");
+    assert (cache.tryRefresh("scn"));
+    cache.put("scn", "key1", "doc2", cache.startLoad(), 1000000L);
+    assert (cache.get("scn", true).equals("doc2"));
+    assert (cache.getHits() == 2);
+    assert (cache.getStaleHits() == 1);
+    assert (cache.getRefreshes() == 2);
+  }
+
+  // Past the grace window, documents are only served while the service is down
+  @Test
+  public void testOutage() throws InterruptedException {
+    RefreshingCache<String> cache = buildCache();
+    cache.put("scn", "key1", "doc1", cache.startLoad(), 1000000L);
+    Thread.sleep(250);
+    assert (cache.get("scn", true) == null);
+    assert (cache.get("scn", false).equals("doc1"));
+    assert (cache.getFallback("scn").equals("doc1"));
+    assert (cache.getOutageHits() == 2);
+  }
+
+  // Stale and outage copies are never served to reads which need a fresh document
+  @Test
+  public void testFresh() throws InterruptedException {
+    RefreshingCache<String> cache = buildCache();
+    assert (cache.getFresh("scn") == null);
+    cache.put("scn", "key1", "doc1", cache.startLoad(), 1000000L);
+    assert (cache.getFresh("scn").equals("doc1"));
+    Thread.sleep(120);
+    assert (cache.getFresh("scn") == null);
+    assert (cache.get("scn", true).equals("doc1"));
+    assert (cache.getHits() == 1);
+    assert (cache.getMisses() == 2);
+  }
+
+  // Writes drop documents by name or key, and a read which raced one isn't cached
+  @Test
+  public void testInvalidate() {
+    RefreshingCache<String> cache = buildCache();
+    cache.put("first", "key1", "doc1", cache.startLoad(), 1000000L);
+    cache.put("second", "key2", "doc2", cache.startLoad(), 1000000L);
+    final long token = cache.startLoad();
+    cache.invalidate("first");
+    cache.invalidateKey("key2");
+    assert (cache.get("first", true) == null);
+    assert (cache.get("second", true) == null);
+    cache.put("first", "key1", "doc1", token, 1000000L);
+    assert (cache.get("first", false) == null);
+  }
+}
@@ -0,0 +1,155 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import org.springframework.test.util.ReflectionTestUtils;
+
+import org.zeromq.ZMQ;
+
+/**
+* Testing the single-flight Request Coalescer.
+*/
+@RunWith(MockitoJUnitRunner.class)
+public class RequestCoalescerTest {
+
+  @Mock
+  private ZmqConnection zmqConn;
+
+  private RequestCoalescer coalescer = new RequestCoalescer();
+
+  /**
+  * Point the coalescer at the mocked connection.
+  */
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(coalescer, "coalesceEnabled", true);
+    ReflectionTestUtils.setField(coalescer, "zmqConn", zmqConn);
+  }
+
+  // Build a request for a message
+  private ZmqRequest buildRequest(String msg, int msgType, boolean idempotent,
+      RequestDeadline deadline) {
+    return new ZmqRequest(msg.getBytes(ZMQ.CHARSET), msgType, 5000, 3, "Ivan", idempotent,
+        deadline);
+  }
+
+  // Identical reads in flight together share one message and its reply
+  @Test
+  public void testCoalesce() throws Exception {
+    CompletableFuture<byte[]> downstream = new CompletableFuture<byte[]>();
+    when(zmqConn.sendAsync(any(ZmqRequest.class))).thenReturn(downstream)
+        .thenReturn(CompletableFuture.completedFuture("other".getBytes(ZMQ.CHARSET)));
+    CompletableFuture<byte[]> first =
+        coalescer.sendAsync(buildRequest("{\"name\":\"scn\"}", 2, true, null));
+    CompletableFuture<byte[]> second =
+        coalescer.sendAsync(buildRequest("{\"name\":\"scn\"}", 2, true, null));
+    verify(zmqConn, times(1)).sendAsync(any(ZmqRequest.class));
+    assert (!first.isDone() && !second.isDone());
+
+    // Different reads, and writes, are sent on their own
+    coalescer.sendAsync(buildRequest("{\"name\":\"other\"}", 2, true, null));
+    coalescer.sendAsync(buildRequest("{\"name\":\"scn\"}", 1, false, null));
+    coalescer.sendAsync(buildRequest("{\"name\":\"scn\"}", 1, false, null));
+    verify(zmqConn, times(4)).sendAsync(any(ZmqRequest.class));
+
+    // The reply is handed to every caller
+    byte[] reply = "reply".getBytes(ZMQ.CHARSET);
+    downstream.complete(reply);
+    assert (first.get() == reply);
+    assert (second.get() == reply);
+    assert (coalescer.metrics().toString().contains("adrestia.coalesce.coalesced, value=1"));
+
+    // Once the reply is in, the next read is sent again
+    coalescer.sendAsync(buildRequest("{\"name\":\"scn\"}", 2, true, null));
+    verify(zmqConn, times(5)).sendAsync(any(ZmqRequest.class));
+  }
+
+  // Each caller's callbacks run within its own deadline
+  @Test
+  public void testDeadlines() throws Exception {
+    CompletableFuture<byte[]> downstream = new CompletableFuture<byte[]>();
+    when(zmqConn.sendAsync(any(ZmqRequest.class))).thenReturn(downstream);
+    final RequestDeadline firstDeadline = RequestDeadline.after(1000);
+    final RequestDeadline secondDeadline = RequestDeadline.after(2000);
+    Function<byte[], Boolean> inFirstDeadline = new Function<byte[], Boolean>() {
+      @Override
+      public Boolean apply(byte[] reply) {
+        return RequestDeadline.current() == firstDeadline;
+      }
+    };
+    Function<byte[], Boolean> inSecondDeadline = new Function<byte[], Boolean>() {
+      @Override
+      public Boolean apply(byte[] reply) {
+        return RequestDeadline.current() == secondDeadline;
+      }
+    };
+    CompletableFuture<Boolean> first = coalescer.sendAsync(
+        buildRequest("{\"name\":\"scn\"}", 2, true, firstDeadline)).thenApply(inFirstDeadline);
+    CompletableFuture<Boolean> second = coalescer.sendAsync(
+        buildRequest("{\"name\":\"scn\"}", 2, true, secondDeadline)).thenApply(inSecondDeadline);
+    downstream.complete("reply".getBytes(ZMQ.CHARSET));
+    assert (first.get());
+    assert (second.get());
+    assert (RequestDeadline.current() == null);
+  }
+
+  // A caller with a later deadline sends the read again when the flight it
+  // joined runs out of time, while the first caller fails with its own deadline
+  @Test
+  public void testLaterDeadline() throws Exception {
+    CompletableFuture<byte[]> downstream = new CompletableFuture<byte[]>();
+    byte[] reply = "reply".getBytes(ZMQ.CHARSET);
+    when(zmqConn.sendAsync(any(ZmqRequest.class))).thenReturn(downstream)
+        .thenReturn(CompletableFuture.completedFuture(reply));
+    RequestDeadline firstDeadline = RequestDeadline.after(50);
+    CompletableFuture<byte[]> first = coalescer.sendAsync(
+        buildRequest("{\"name\":\"scn\"}", 2, true, firstDeadline));
+    final CompletableFuture<byte[]> second = coalescer.sendAsync(
+        buildRequest("{\"name\":\"scn\"}", 2, true, RequestDeadline.after(5000)));
+    verify(zmqConn, times(1)).sendAsync(any(ZmqRequest.class));
+
+    Thread.sleep(100);
+    assert (firstDeadline.isExpired());
+    downstream.completeExceptionally(new DeadlineExceededException("Deadline exceeded"));
+    try {
+      first.get();
+      assert (false);
+    } catch (ExecutionException e) {
+      assert (e.getCause() instanceof DeadlineExceededException);
+    }
+    assert (second.get() == reply);
+    verify(zmqConn, times(2)).sendAsync(any(ZmqRequest.class));
+    assert (coalescer.metrics().toString().contains("adrestia.coalesce.resent, value=1"));
+  }
+}
@@ -0,0 +1,61 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import org.junit.Test;
+
+/**
+* Testing the per-service Retry Budget.
+*/
+public class RetryBudgetTest {
+
+  // Retries are limited to a percentage of successful requests
+  @Test
+  public void testBudget() {
+    // 20% of successful requests, no retries for the time passed, at most 2 saved
+    RetryBudget budget = new RetryBudget("Ivan", 20, 0, 2);
+    assert (budget.tryRetry());
+    assert (budget.tryRetry());
+    assert (!budget.tryRetry());
+    for (int i = 0; i < 4; i++) {
+      budget.recordSuccess();
+    }
+    assert (!budget.tryRetry());
+    budget.recordSuccess();
+    assert (budget.tryRetry());
+    assert (!budget.tryRetry());
+
+    // The bucket never holds more than the maximum
+    for (int i = 0; i < 100; i++) {
+      budget.recordSuccess();
+    }
+    assert (budget.getBalance() == 2.0);
+    assert (budget.getRetriesAllowed() == 3);
+    assert (budget.getRetriesDenied() == 3);
+  }
+
+  // Retries are allowed over time, even without successful requests
+  @Test
+  public void testMinimumRate() throws InterruptedException {
+    RetryBudget budget = new RetryBudget("Clyman", 20, 10, 1);
+    assert (budget.tryRetry());
+    assert (!budget.tryRetry());
+    Thread.sleep(150);
+    assert (budget.tryRetry());
+  }
+}
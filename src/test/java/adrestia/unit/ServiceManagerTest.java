@@ -19,14 +19,19 @@ package adrestia;
 
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.PrintWriter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -41,6 +46,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.cloud.client.DefaultServiceInstance;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
 import org.springframework.test.util.ReflectionTestUtils;
 
 /**
@@ -64,9 +70,27 @@ public class ServiceManagerTest {
   @Before
   public void setUp() {
     // Set the configuration values in the service manager
-    ReflectionTestUtils.setField(serviceManager, "redlistDuration", 10);
-    ReflectionTestUtils.setField(serviceManager, "greylistDuration", 30);
-    ReflectionTestUtils.setField(serviceManager, "blacklistDuration", 300);
+    ReflectionTestUtils.setField(serviceManager, "breakerWindowSize", 10);
+    ReflectionTestUtils.setField(serviceManager, "breakerMinimumCalls", 3);
+    ReflectionTestUtils.setField(serviceManager, "breakerFailureThreshold", 50);
+    ReflectionTestUtils.setField(serviceManager, "breakerSlowThreshold", 80);
+    ReflectionTestUtils.setField(serviceManager, "breakerSlowDuration", 2500L);
+    ReflectionTestUtils.setField(serviceManager, "breakerOpenDuration", 1000L);
+    ReflectionTestUtils.setField(serviceManager, "breakerHalfOpenCalls", 1);
+    ReflectionTestUtils.setField(serviceManager, "probeFailureThreshold", 2);
+    ReflectionTestUtils.setField(serviceManager, "refreshInterval", 60000);
+    // Choose instances with the mocked random integers
+    RandomStrategy loadBalancer = new RandomStrategy();
+    ReflectionTestUtils.setField(loadBalancer, "utils", utils);
+    ReflectionTestUtils.setField(serviceManager, "loadBalancer", loadBalancer);
+  }
+
+  /**
+  * Stop the background refresh.
+  */
+  @After
+  public void tearDown() {
+    ((ServiceManager) serviceManager).destroy();
   }
 
   // Basic service discovery test
@@ -96,6 +120,16 @@ public class ServiceManagerTest {
     assert (clymanInstance.getPort() == 5555);
   }
 
+  // Report a number of failed requests to an instance
+  private void reportFailures(ServiceInstance instance, int numFailures) {
+    for (int i = 0; i < numFailures; i++) {
+      serviceManager.reportRequestStarted(instance);
+      serviceManager.reportRequestCompleted(instance, 5000000000L, false);
+      serviceManager.reportRequestOutcome(instance, false, 5000000000L);
+    }
+    serviceManager.reportFailure(instance);
+  }
+
   // Failure Reporting Test
   @Test
   public void testFailedServices() throws InterruptedException {
@@ -119,38 +153,143 @@ public class ServiceManagerTest {
     assert (ivanInstance.getHost().equals("TestHost1"));
     assert (ivanInstance.getPort() == 5555);
 
-    // Report a failure on the instance
-    serviceManager.reportFailure(ivanInstance);
-
-    // Pull down and validate the second instance
+    // A transaction which has tried the first instance moves on to the second
+    Set<String> triedInstances = new HashSet<String>();
+    triedInstances.add(InstanceStats.keyOf(ivanInstance));
+    ServiceInstance otherInstance = serviceManager.findInstance("Ivan", triedInstances);
+    assert (otherInstance.getHost().equals("TestHost2"));
+
+    // A single failure among successes doesn't eject the instance
+    for (int i = 0; i < 4; i++) {
+      serviceManager.reportRequestStarted(ivanInstance);
+      serviceManager.reportRequestCompleted(ivanInstance, 1000000L, true);
+      serviceManager.reportRequestOutcome(ivanInstance, true, 1000000L);
+    }
+    reportFailures(ivanInstance, 1);
+    assert (serviceManager.findCrazyIvan().getHost().equals("TestHost1"));
+
+    // Enough failures to pass the failure rate eject it
+    reportFailures(ivanInstance, 4);
     ServiceInstance secondInstance = serviceManager.findCrazyIvan();
     assert (secondInstance != null);
     assert (secondInstance.getHost().equals("TestHost2"));
     assert (secondInstance.getPort() == 5556);
 
-    // Report a failure on the instance
-    serviceManager.reportFailure(secondInstance);
+    // Eject the second instance as well
+    reportFailures(secondInstance, 3);
+    ServiceInstance noInstance = serviceManager.findCrazyIvan();
+    assert (noInstance == null);
 
-    // Sleep until the first instance is off the red list
-    Thread.sleep(11000);
+    // Wait until the breakers are half-open, and a trial request is allowed
+    Thread.sleep(1100);
+    ServiceInstance trialInstance = serviceManager.findCrazyIvan();
+    assert (trialInstance.getHost().equals("TestHost1"));
+
+    // Only a single trial request is let through to each instance
+    ServiceInstance secondTrialInstance = serviceManager.findCrazyIvan();
+    assert (secondTrialInstance.getHost().equals("TestHost2"));
+    assert (serviceManager.findCrazyIvan() == null);
+
+    // A successful trial lets the first instance back in, a failed one ejects the second again
+    serviceManager.reportRequestStarted(trialInstance);
+    serviceManager.reportRequestCompleted(trialInstance, 1000000L, true);
+    serviceManager.reportRequestOutcome(trialInstance, true, 1000000L);
+    reportFailures(secondTrialInstance, 1);
+    for (int i = 0; i < 5; i++) {
+      ServiceInstance finalInstance = serviceManager.findCrazyIvan();
+      assert (finalInstance.getHost().equals("TestHost1"));
+      assert (finalInstance.getPort() == 5555);
+    }
+    String metrics = ((ServiceManager) serviceManager).metrics().toString();
+    assert (metrics.contains("adrestia.breaker.TestHost2:5556.state, value=2"));
+    assert (metrics.contains("adrestia.breaker.TestHost1:5555.state, value=0"));
+  }
 
-    // Pull Down and validate the first instance
-    ServiceInstance firstInstance = serviceManager.findCrazyIvan();
-    assert (firstInstance.getHost().equals("TestHost1"));
-    assert (firstInstance.getPort() == 5555);
+  // Instances are served from the snapshot, and refreshed on catalog changes
+  @Test
+  public void testCachedDiscovery() throws InterruptedException {
 
-    // Report a failure on the instance
-    serviceManager.reportFailure(firstInstance);
+    // Return 0 for all random integers
+    when(utils.getRandomInt(anyInt())).thenReturn(0);
 
-    // Pull down and validate the second instance
-    ServiceInstance finalInstance = serviceManager.findCrazyIvan();
-    assert (finalInstance.getHost().equals("TestHost2"));
-    assert (finalInstance.getPort() == 5556);
+    // Consul returns one instance, then fails, then returns a new instance
+    when(consulClient.getInstances(anyString())).thenReturn(
+        new ArrayList<ServiceInstance>(
+            Arrays.asList(
+                new DefaultServiceInstance("TestId1", "TestHost1", 5555, false)
+            )
+        )
+    ).thenThrow(new RuntimeException("Consul Unavailable")).thenReturn(
+        new ArrayList<ServiceInstance>(
+            Arrays.asList(
+                new DefaultServiceInstance("TestId2", "TestHost2", 5556, false)
+            )
+        )
+    );
 
-    // Report a failure on the instance
-    serviceManager.reportFailure(finalInstance);
+    // Repeated lookups only go to Consul once
+    for (int i = 0; i < 10; i++) {
+      assert (serviceManager.findCrazyIvan().getHost().equals("TestHost1"));
+    }
+    verify(consulClient, times(1)).getInstances(anyString());
+
+    // A failed refresh keeps the last known instances
+    ((ServiceManager) serviceManager).onHeartbeat(new HeartbeatEvent(this, 1L));
+    Thread.sleep(500);
+    verify(consulClient, times(2)).getInstances(anyString());
+    assert (serviceManager.findCrazyIvan().getHost().equals("TestHost1"));
+
+    // A successful refresh replaces them
+    ((ServiceManager) serviceManager).onHeartbeat(new HeartbeatEvent(this, 2L));
+    ServiceInstance newInstance = serviceManager.findCrazyIvan();
+    for (int i = 0; i < 50 && newInstance.getHost().equals("TestHost1"); i++) {
+      Thread.sleep(100);
+      newInstance = serviceManager.findCrazyIvan();
+    }
+    assert (newInstance.getHost().equals("TestHost2"));
+    assert (newInstance.getPort() == 5556);
+  }
 
-    ServiceInstance noInstance = serviceManager.findCrazyIvan();
-    assert (noInstance == null);
+  // Instances failing their health probes are skipped until a probe succeeds
+  @Test
+  public void testProbeFailures() {
+
+    // Return 0 for all random integers
+    when(utils.getRandomInt(anyInt())).thenReturn(0);
+
+    // Return two service instances from the consul client
+    ServiceInstance firstInstance =
+        new DefaultServiceInstance("TestId1", "TestHost1", 5555, false);
+    ServiceInstance secondInstance =
+        new DefaultServiceInstance("TestId2", "TestHost2", 5556, false);
+    when(consulClient.getInstances(anyString())).thenReturn(
+        new ArrayList<ServiceInstance>(
+            Arrays.asList(
+                firstInstance,
+                secondInstance
+            )
+        )
+    );
+    assert (serviceManager.findCrazyIvan().getHost().equals("TestHost1"));
+
+    // A single failed probe isn't enough to skip the instance
+    serviceManager.reportProbeResult(firstInstance, false, 1000000000L);
+    assert (serviceManager.findCrazyIvan().getHost().equals("TestHost1"));
+    serviceManager.reportProbeResult(firstInstance, false, 1000000000L);
+    assert (serviceManager.findCrazyIvan().getHost().equals("TestHost2"));
+    assert (serviceManager.isAvailable("Ivan"));
+
+    // The service is unavailable once every instance is failing its probes
+    serviceManager.reportProbeResult(secondInstance, false, 1000000000L);
+    serviceManager.reportProbeResult(secondInstance, false, 1000000000L);
+    assert (!serviceManager.isAvailable("Ivan"));
+    serviceManager.reportProbeResult(secondInstance, true, 2000000L);
+
+    // A successful probe brings it back
+    serviceManager.reportProbeResult(firstInstance, true, 2000000L);
+    assert (serviceManager.findCrazyIvan().getHost().equals("TestHost1"));
+    String metrics = ((ServiceManager) serviceManager).metrics().toString();
+    assert (metrics.contains("adrestia.probe.TestHost1:5555.rtt, value=2.0"));
+    assert (metrics.contains("adrestia.probe.TestHost1:5555.failures, value=0"));
   }
 }
@@ -0,0 +1,108 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+* Testing the Latency Histograms, and the timeouts derived from them.
+*/
+public class TimeoutEstimatorTest {
+
+  private TimeoutEstimator estimator = new TimeoutEstimator();
+
+  private ServiceInstance instance =
+      new DefaultServiceInstance("TestId", "TestHost", 5555, false);
+
+  /**
+  * Set the configuration values in the estimator.
+  */
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(estimator, "adaptiveEnabled", true);
+    ReflectionTestUtils.setField(estimator, "percentile", 99.0);
+    ReflectionTestUtils.setField(estimator, "margin", 50);
+    ReflectionTestUtils.setField(estimator, "floor", 100);
+    ReflectionTestUtils.setField(estimator, "minSamples", 10);
+    ReflectionTestUtils.setField(estimator, "windowSize", 100);
+  }
+
+  // Percentiles are accurate to within a bucket
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram(1000);
+    assert (histogram.getPercentile(99.0) == 0);
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i * 1000000L);
+    }
+    assert (histogram.getCount() == 100);
+    long median = histogram.getPercentile(50.0);
+    assert (median >= 50000000L && median <= 60000000L);
+    long tail = histogram.getPercentile(99.0);
+    assert (tail >= 99000000L && tail <= 120000000L);
+  }
+
+  // Older samples fade out once the window is full
+  @Test
+  public void testDecay() {
+    LatencyHistogram histogram = new LatencyHistogram(100);
+    for (int i = 0; i < 99; i++) {
+      histogram.record(1000000000L);
+    }
+    assert (histogram.getCount() == 99);
+    for (int i = 0; i < 200; i++) {
+      histogram.record(1000000L);
+    }
+    assert (histogram.getCount() < 100);
+    assert (histogram.getPercentile(90.0) < 2000000L);
+  }
+
+  // The timeout follows the latency, within the floor and ceiling
+  @Test
+  public void testTimeouts() {
+    // Not enough samples yet
+    for (int i = 0; i < 9; i++) {
+      estimator.record(instance, 1, 200000000L);
+    }
+    assert (estimator.timeoutFor(instance, 1, 5000) == 5000);
+    estimator.record(instance, 1, 200000000L);
+    int timeout = estimator.timeoutFor(instance, 1, 5000);
+    assert (timeout >= 250 && timeout <= 300);
+
+    // The ceiling is never exceeded
+    assert (estimator.timeoutFor(instance, 1, 200) == 200);
+
+    // Fast replies are held to the floor
+    for (int i = 0; i < 10; i++) {
+      estimator.record(instance, 2, 1000000L);
+    }
+    assert (estimator.timeoutFor(instance, 2, 5000) == 100);
+
+    // Unknown Message Types, and a disabled estimator, keep the configured timeout
+    estimator.record(instance, ZmqRequest.UNKNOWN_MSG_TYPE, 1000000L);
+    assert (estimator.timeoutFor(instance, ZmqRequest.UNKNOWN_MSG_TYPE, 5000) == 5000);
+    ReflectionTestUtils.setField(estimator, "adaptiveEnabled", false);
+    assert (estimator.timeoutFor(instance, 2, 5000) == 5000);
+    assert (estimator.metrics().size() == 2);
+  }
+}
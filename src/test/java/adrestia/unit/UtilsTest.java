@@ -21,6 +21,7 @@ import java.io.PrintWriter;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.client.DefaultServiceInstance;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.context.TestPropertySource;
@@ -46,6 +47,8 @@ public class UtilsTest {
       assert (utils.translateDvsError(110) == HttpStatus.BAD_REQUEST);
       assert (utils.translateDvsError(122) == HttpStatus.NOT_ACCEPTABLE);
       assert (utils.translateDvsError(101) == HttpStatus.INTERNAL_SERVER_ERROR);
+      assert (utils.getZmqAddr(new DefaultServiceInstance("TestId", "TestHost", 5555, false))
+          .equals("tcp://TestHost:5555"));
     } catch (Exception e) {
       e.printStackTrace(testLogger);
       assert (false);
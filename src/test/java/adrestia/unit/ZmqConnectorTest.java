@@ -0,0 +1,289 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import org.zeromq.ZMQ;
+
+/**
+* Testing the pooled REQ ZMQ Connection against a local REP Socket.
+*/
+@RunWith(MockitoJUnitRunner.class)
+public class ZmqConnectorTest {
+
+  @Mock
+  private ServiceManagerInterface serviceManager;
+
+  private ZmqConnector connector = new ZmqConnector();
+
+  private ZmqReactor reactor = new ZmqReactor();
+
+  private TimeoutEstimator timeoutEstimator = new TimeoutEstimator();
+
+  private RetryBudgetManager retryBudget = new RetryBudgetManager();
+
+  private ZmqSocketPool pool = new ZmqSocketPool();
+
+  private EchoServer server = new EchoServer(0);
+
+  private int serverPort = 0;
+
+  /**
+  * Start an echo server, and point the connector at it.
+  */
+  @Before
+  public void setUp() throws Exception {
+    server.start();
+    serverPort = server.getPort();
+
+    ZmqContextContainer context = new ZmqContextContainer();
+    ReflectionTestUtils.setField(reactor, "context", context);
+    ReflectionTestUtils.setField(reactor, "reactorThreads", 1);
+    ReflectionTestUtils.setField(reactor, "callbackThreads", 2);
+    reactor.start();
+    ReflectionTestUtils.setField(pool, "context", context);
+    ReflectionTestUtils.setField(pool, "minSockets", 1);
+    ReflectionTestUtils.setField(pool, "maxSockets", 4);
+    ReflectionTestUtils.setField(pool, "maxWaiters", 256);
+    ReflectionTestUtils.setField(pool, "acquireTimeout", 5000);
+    ReflectionTestUtils.setField(pool, "idleTimeout", 60);
+    pool.start();
+    ReflectionTestUtils.setField(connector, "context", context);
+    ReflectionTestUtils.setField(connector, "socketPool", pool);
+    ReflectionTestUtils.setField(connector, "reactor", reactor);
+    ReflectionTestUtils.setField(connector, "serviceManager", serviceManager);
+    ReflectionTestUtils.setField(connector, "utils", new UtilityProvider());
+    ReflectionTestUtils.setField(timeoutEstimator, "adaptiveEnabled", true);
+    ReflectionTestUtils.setField(timeoutEstimator, "percentile", 99.0);
+    ReflectionTestUtils.setField(timeoutEstimator, "margin", 50);
+    ReflectionTestUtils.setField(timeoutEstimator, "floor", 100);
+    ReflectionTestUtils.setField(timeoutEstimator, "minSamples", 10);
+    ReflectionTestUtils.setField(timeoutEstimator, "windowSize", 1000);
+    ReflectionTestUtils.setField(connector, "timeoutEstimator", timeoutEstimator);
+    ReflectionTestUtils.setField(retryBudget, "budgetEnabled", true);
+    ReflectionTestUtils.setField(retryBudget, "budgetPercent", 20);
+    ReflectionTestUtils.setField(retryBudget, "budgetMinPerSecond", 0);
+    ReflectionTestUtils.setField(retryBudget, "budgetMax", 10);
+    ReflectionTestUtils.setField(connector, "retryBudget", retryBudget);
+    ReflectionTestUtils.setField(connector, "hedgingEnabled", false);
+    ReflectionTestUtils.setField(connector, "hedgePercentile", 95.0);
+  }
+
+  /**
+  * Stop the echo server, reactor and pool.
+  */
+  @After
+  public void tearDown() throws Exception {
+    reactor.destroy();
+    pool.destroy();
+    server.stop();
+  }
+
+  // Basic request-reply test
+  @Test
+  public void testSend() {
+    when(serviceManager.findInstance(eq("Ivan"), anySetOf(String.class))).thenReturn(
+        new DefaultServiceInstance("TestId", "127.0.0.1", serverPort, false));
+    String response = connector.send("{\"msg_type\": 555}", 5000, 3, "Ivan");
+    assert (response.equals("{\"msg_type\": 555}"));
+  }
+
+  // Encoded messages are sent and returned as raw bytes
+  @Test
+  public void testSendBytes() {
+    when(serviceManager.findInstance(eq("Ivan"), anySetOf(String.class))).thenReturn(
+        new DefaultServiceInstance("TestId", "127.0.0.1", serverPort, false));
+    byte[] msg = "{\"msg_type\": 555}".getBytes(ZMQ.CHARSET);
+    byte[] response = connector.send(msg, 5000, 3, "Ivan");
+    assert (Arrays.equals(response, msg));
+  }
+
+  // Once enough replies are in, the timeout follows the latency of the Message Type
+  @Test
+  public void testAdaptiveTimeout() throws Exception {
+    ServiceInstance instance = new DefaultServiceInstance("TestId", "127.0.0.1", serverPort, false);
+    when(serviceManager.findInstance(eq("Ivan"), anySetOf(String.class))).thenReturn(instance);
+    byte[] msg = "{\"msg_type\": 555}".getBytes(ZMQ.CHARSET);
+    for (int i = 0; i < 10; i++) {
+      assert (timeoutEstimator.timeoutFor(instance, 555, 5000) == 5000);
+      byte[] response =
+          connector.sendAsync(new ZmqRequest(msg, 555, 5000, 3, "Ivan", false, null)).get();
+      assert (Arrays.equals(response, msg));
+    }
+    assert (timeoutEstimator.timeoutFor(instance, 555, 5000) < 5000);
+    // Other Message Types keep the configured timeout
+    assert (timeoutEstimator.timeoutFor(instance, 1, 5000) == 5000);
+  }
+
+  // More asynchronous requests than sockets, which queue for the pool
+  @Test
+  public void testSendAsync() throws Exception {
+    when(serviceManager.findInstance(eq("Ivan"), anySetOf(String.class))).thenReturn(
+        new DefaultServiceInstance("TestId", "127.0.0.1", serverPort, false));
+    List<CompletableFuture<String>> responses = new ArrayList<CompletableFuture<String>>();
+    for (int i = 0; i < 100; i++) {
+      responses.add(connector.sendAsync("{\"msg_type\": " + i + "}", 5000, 3, "Ivan"));
+    }
+    for (int i = 0; i < 100; i++) {
+      assert (responses.get(i).get().equals("{\"msg_type\": " + i + "}"));
+    }
+  }
+
+  // An instance which never replies is reported, and we move on to the next one
+  @Test
+  public void testFailover() throws Exception {
+    ServiceInstance deadInstance =
+        new DefaultServiceInstance("DeadId", "127.0.0.1", serverPort + 1, false);
+    when(serviceManager.findInstance(eq("Ivan"), anySetOf(String.class)))
+        .thenReturn(deadInstance).thenReturn(
+        new DefaultServiceInstance("TestId", "127.0.0.1", serverPort, false));
+    String response = connector.sendAsync("{\"msg_type\": 555}", 100, 2, "Ivan").get();
+    assert (response.equals("{\"msg_type\": 555}"));
+    verify(serviceManager, times(1)).reportFailure(any(ServiceInstance.class));
+  }
+
+  // A slow read is hedged to another instance, and the first reply wins
+  @Test
+  public void testHedging() throws Exception {
+    ServiceInstance deadInstance =
+        new DefaultServiceInstance("DeadId", "127.0.0.1", serverPort + 1, false);
+    when(serviceManager.findInstance(eq("Ivan"), anySetOf(String.class)))
+        .thenReturn(deadInstance).thenReturn(
+        new DefaultServiceInstance("TestId", "127.0.0.1", serverPort, false));
+    // The dead instance usually replies within 10 ms
+    for (int i = 0; i < 10; i++) {
+      timeoutEstimator.record(deadInstance, 2, 10000000L);
+    }
+    ReflectionTestUtils.setField(timeoutEstimator, "adaptiveEnabled", false);
+    ReflectionTestUtils.setField(connector, "hedgingEnabled", true);
+    byte[] msg = "{\"msg_type\": 2}".getBytes(ZMQ.CHARSET);
+    long start = System.currentTimeMillis();
+    byte[] response =
+        connector.sendAsync(new ZmqRequest(msg, 2, 5000, 1, "Ivan", true, null)).get();
+    assert (Arrays.equals(response, msg));
+    assert (System.currentTimeMillis() - start < 2000);
+    verify(serviceManager, never()).reportFailure(any(ServiceInstance.class));
+
+    // Writes are never hedged, so wait out the timeout before failing over
+    when(serviceManager.findInstance(eq("Ivan"), anySetOf(String.class)))
+        .thenReturn(deadInstance).thenReturn(
+        new DefaultServiceInstance("TestId", "127.0.0.1", serverPort, false));
+    for (int i = 0; i < 10; i++) {
+      timeoutEstimator.record(deadInstance, 1, 10000000L);
+    }
+    start = System.currentTimeMillis();
+    response = connector.sendAsync(new ZmqRequest(msg, 1, 300, 1, "Ivan", false, null)).get();
+    assert (Arrays.equals(response, msg));
+    assert (System.currentTimeMillis() - start >= 300);
+  }
+
+  // Retries stop once the retry budget is spent, without failing the instance
+  @Test
+  public void testRetryBudget() throws Exception {
+    ServiceInstance deadInstance =
+        new DefaultServiceInstance("DeadId", "127.0.0.1", serverPort + 1, false);
+    when(serviceManager.findInstance(eq("Ivan"), anySetOf(String.class)))
+        .thenReturn(deadInstance);
+    ReflectionTestUtils.setField(retryBudget, "budgetMax", 2);
+    assert (connector.sendAsync("{\"msg_type\": 555}", 100, 5, "Ivan").get() == null);
+    verify(serviceManager, times(3)).reportRequestStarted(deadInstance);
+    verify(serviceManager, never()).reportFailure(any(ServiceInstance.class));
+    String metrics = retryBudget.metrics().toString();
+    assert (metrics.contains("adrestia.retry.Ivan.allowed, value=2"));
+    assert (metrics.contains("adrestia.retry.Ivan.denied, value=1"));
+  }
+
+  // Retries to an instance feed its load statistics, but its circuit breaker
+  // only sees one outcome, so a half-open trial isn't used up by its own retries
+  @Test
+  public void testRetriedTrial() throws Exception {
+    ServiceInstance deadInstance =
+        new DefaultServiceInstance("DeadId", "127.0.0.1", serverPort + 1, false);
+    when(serviceManager.findInstance(eq("Ivan"), anySetOf(String.class)))
+        .thenReturn(deadInstance).thenReturn(null);
+    assert (connector.sendAsync("{\"msg_type\": 555}", 100, 3, "Ivan").get() == null);
+    verify(serviceManager, times(3)).reportRequestCompleted(eq(deadInstance), anyLong(),
+        eq(false));
+    verify(serviceManager, times(1)).reportRequestOutcome(eq(deadInstance), eq(false),
+        anyLong());
+    verify(serviceManager, never()).reportRequestOutcome(eq(deadInstance), eq(true),
+        anyLong());
+  }
+
+  // An instance with every socket busy is never sent to, and hands back its trial
+  @Test
+  public void testPoolExhausted() throws Exception {
+    ServiceInstance deadInstance =
+        new DefaultServiceInstance("DeadId", "127.0.0.1", serverPort + 1, false);
+    when(serviceManager.findInstance(eq("Ivan"), anySetOf(String.class)))
+        .thenReturn(deadInstance);
+    ReflectionTestUtils.setField(pool, "maxSockets", 1);
+    ReflectionTestUtils.setField(pool, "maxWaiters", 0);
+    ReflectionTestUtils.setField(retryBudget, "budgetMax", 0);
+    CompletableFuture<String> held = connector.sendAsync("{\"msg_type\": 555}", 300, 1, "Ivan");
+    assert (connector.sendAsync("{\"msg_type\": 556}", 300, 1, "Ivan").get() == null);
+    verify(serviceManager, times(1)).reportRequestAbandoned(deadInstance);
+    assert (held.get() == null);
+    verify(serviceManager, times(1)).reportRequestStarted(deadInstance);
+    verify(serviceManager, times(1)).reportRequestAbandoned(deadInstance);
+  }
+
+  // Retries and failover stop once the deadline of the request passes
+  @Test
+  public void testDeadline() throws Exception {
+    when(serviceManager.findInstance(eq("Ivan"), anySetOf(String.class))).thenReturn(
+        new DefaultServiceInstance("DeadId", "127.0.0.1", serverPort + 1, false));
+    byte[] msg = "{\"msg_type\": 555}".getBytes(ZMQ.CHARSET);
+    long start = System.currentTimeMillis();
+    CompletableFuture<byte[]> response = connector.sendAsync(
+        new ZmqRequest(msg, 555, 5000, 3, "Ivan", false, RequestDeadline.after(300)));
+    try {
+      response.get();
+      assert (false);
+    } catch (ExecutionException e) {
+      assert (e.getCause() instanceof DeadlineExceededException);
+    }
+    assert (System.currentTimeMillis() - start < 2000);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+* Testing the Dealer ZMQ Connection against a local REP Socket.
+*/
+@RunWith(MockitoJUnitRunner.class)
+public class ZmqDealerConnectorTest {
+
+  @Mock
+  private ServiceManagerInterface serviceManager;
+
+  private ZmqDealerConnector connector = new ZmqDealerConnector();
+
+  private ZmqReactor reactor = new ZmqReactor();
+
+  private TimeoutEstimator timeoutEstimator = new TimeoutEstimator();
+
+  private RetryBudgetManager retryBudget = new RetryBudgetManager();
+
+  private EchoServer server = new EchoServer(0);
+
+  /**
+  * Start an echo server, and point the connector at it.
+  */
+  @Before
+  public void setUp() throws Exception {
+    server.start();
+    when(serviceManager.findInstance(eq("Ivan"), anySetOf(String.class))).thenReturn(
+        new DefaultServiceInstance("TestId", "127.0.0.1", server.getPort(), false));
+    ReflectionTestUtils.setField(reactor, "context", new ZmqContextContainer());
+    ReflectionTestUtils.setField(reactor, "reactorThreads", 1);
+    ReflectionTestUtils.setField(reactor, "callbackThreads", 2);
+    reactor.start();
+    ReflectionTestUtils.setField(connector, "serviceManager", serviceManager);
+    ReflectionTestUtils.setField(connector, "utils", new UtilityProvider());
+    ReflectionTestUtils.setField(timeoutEstimator, "adaptiveEnabled", true);
+    ReflectionTestUtils.setField(timeoutEstimator, "percentile", 99.0);
+    ReflectionTestUtils.setField(timeoutEstimator, "margin", 50);
+    ReflectionTestUtils.setField(timeoutEstimator, "floor", 100);
+    ReflectionTestUtils.setField(timeoutEstimator, "minSamples", 10);
+    ReflectionTestUtils.setField(timeoutEstimator, "windowSize", 1000);
+    ReflectionTestUtils.setField(connector, "timeoutEstimator", timeoutEstimator);
+    ReflectionTestUtils.setField(retryBudget, "budgetEnabled", true);
+    ReflectionTestUtils.setField(retryBudget, "budgetPercent", 20);
+    ReflectionTestUtils.setField(retryBudget, "budgetMinPerSecond", 0);
+    ReflectionTestUtils.setField(retryBudget, "budgetMax", 10);
+    ReflectionTestUtils.setField(connector, "retryBudget", retryBudget);
+    ReflectionTestUtils.setField(connector, "hedgingEnabled", false);
+    ReflectionTestUtils.setField(connector, "hedgePercentile", 95.0);
+    ReflectionTestUtils.setField(connector, "reactor", reactor);
+  }
+
+  /**
+  * Stop the echo server and reactor.
+  */
+  @After
+  public void tearDown() throws Exception {
+    reactor.destroy();
+    server.stop();
+  }
+
+  // Basic request-reply test
+  @Test
+  public void testSend() {
+    String response = connector.send("{\"msg_type\": 555}", 5000, 3, "Ivan");
+    assert (response.equals("{\"msg_type\": 555}"));
+  }
+
+  // Asynchronous requests complete without a thread waiting on each one
+  @Test
+  public void testSendAsync() throws Exception {
+    List<CompletableFuture<String>> responses = new ArrayList<CompletableFuture<String>>();
+    for (int i = 0; i < 200; i++) {
+      responses.add(connector.sendAsync("{\"msg_type\": " + i + "}", 5000, 3, "Ivan"));
+    }
+    for (int i = 0; i < 200; i++) {
+      assert (responses.get(i).get().equals("{\"msg_type\": " + i + "}"));
+    }
+  }
+
+  // Many concurrent requests share the one Dealer socket
+  @Test
+  public void testConcurrentSend() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    List<Future<String>> responses = new ArrayList<Future<String>>();
+    for (int i = 0; i < 200; i++) {
+      final String msg = "{\"msg_type\": " + i + "}";
+      responses.add(executor.submit(new Callable<String>() {
+        @Override
+        public String call() {
+          return connector.send(msg, 5000, 3, "Ivan");
+        }
+      }));
+    }
+    for (int i = 0; i < 200; i++) {
+      assert (responses.get(i).get().equals("{\"msg_type\": " + i + "}"));
+    }
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,123 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.test.util.ReflectionTestUtils;
+
+import org.zeromq.ZMQ;
+
+/**
+* Testing the ZMQ Reactor with pooled REQ and DEALER Sockets against a local REP Socket.
+*/
+public class ZmqReactorTest {
+
+  private ZmqReactor reactor = new ZmqReactor();
+
+  private ZmqSocketPool pool = new ZmqSocketPool();
+
+  // Echo server, which is slow to reply to any message starting with "slow"
+  private EchoServer server = new EchoServer(300);
+
+  private String serverAddr = null;
+
+  /**
+  * Start an echo server, which is slow to reply to any message starting with "slow".
+  */
+  @Before
+  public void setUp() throws Exception {
+    server.start();
+    serverAddr = server.getAddress();
+
+    ZmqContextContainer context = new ZmqContextContainer();
+    ReflectionTestUtils.setField(reactor, "context", context);
+    ReflectionTestUtils.setField(reactor, "reactorThreads", 2);
+    ReflectionTestUtils.setField(reactor, "callbackThreads", 2);
+    ReflectionTestUtils.setField(reactor, "dealerIdleTimeout", 200);
+    reactor.start();
+    ReflectionTestUtils.setField(pool, "context", context);
+    ReflectionTestUtils.setField(pool, "minSockets", 1);
+    ReflectionTestUtils.setField(pool, "maxSockets", 4);
+    ReflectionTestUtils.setField(pool, "maxWaiters", 4);
+    ReflectionTestUtils.setField(pool, "acquireTimeout", 200);
+    ReflectionTestUtils.setField(pool, "idleTimeout", 60);
+    pool.start();
+  }
+
+  /**
+  * Stop the echo server, reactor and pool.
+  */
+  @After
+  public void tearDown() throws Exception {
+    reactor.destroy();
+    pool.destroy();
+    server.stop();
+  }
+
+  // Basic request-reply test on a pooled socket
+  @Test
+  public void testRequest() throws Exception {
+    ZmqSocketContainer cont = pool.getSocket(serverAddr, ZmqSocketContainer.ivanType);
+    byte[] reply = reactor.request(cont, "{\"msg_type\": 555}".getBytes(ZMQ.CHARSET), 5000).get();
+    assert (new String(reply, ZMQ.CHARSET).equals("{\"msg_type\": 555}"));
+    pool.releaseSocket(cont);
+  }
+
+  // A request with a late reply times out, and the socket can be used after a reset
+  @Test
+  public void testTimeout() throws Exception {
+    ZmqSocketContainer cont = pool.getSocket(serverAddr, ZmqSocketContainer.ivanType);
+    try {
+      reactor.request(cont, "slow".getBytes(ZMQ.CHARSET), 100).get();
+      assert (false);
+    } catch (ExecutionException e) {
+      assert (e.getCause() instanceof TimeoutException);
+    }
+    pool.resetSocket(cont);
+    byte[] reply = reactor.request(cont, "retry".getBytes(ZMQ.CHARSET), 5000).get();
+    assert (new String(reply, ZMQ.CHARSET).equals("retry"));
+    pool.releaseSocket(cont);
+  }
+
+  // A Dealer socket is closed once it sits idle, and re-opened by the next request
+  @Test
+  public void testIdleDealer() throws Exception {
+    byte[] reply = reactor.dealerRequest(serverAddr, "first".getBytes(ZMQ.CHARSET), 5000).get();
+    assert (new String(reply, ZMQ.CHARSET).equals("first"));
+    assert (reactor.getOpenDealers() == 1);
+    Thread.sleep(600);
+    assert (reactor.getOpenDealers() == 0);
+    reply = reactor.dealerRequest(serverAddr, "second".getBytes(ZMQ.CHARSET), 5000).get();
+    assert (new String(reply, ZMQ.CHARSET).equals("second"));
+    assert (reactor.getOpenDealers() == 1);
+  }
+
+  // A Dealer socket is kept open while a request is in flight on it
+  @Test
+  public void testBusyDealer() throws Exception {
+    byte[] reply = reactor.dealerRequest(serverAddr, "slow".getBytes(ZMQ.CHARSET), 5000).get();
+    assert (new String(reply, ZMQ.CHARSET).equals("slow"));
+    assert (reactor.getOpenDealers() == 1);
+  }
+}
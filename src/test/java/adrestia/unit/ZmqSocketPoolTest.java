@@ -0,0 +1,130 @@
+/*
+Apache2 License Notice
+Copyright 2017 Alex Barry
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package adrestia;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+* Testing the ZMQ Socket Pool.
+* Sockets connect lazily, so no server is needed on the other end.
+*/
+public class ZmqSocketPoolTest {
+
+  private static final String testAddr = "tcp://127.0.0.1:5999";
+
+  private ZmqSocketPool pool = null;
+
+  /**
+  * Build a pool with up to two sockets and one waiter per endpoint.
+  */
+  @Before
+  public void setUp() {
+    pool = new ZmqSocketPool();
+    ReflectionTestUtils.setField(pool, "context", new ZmqContextContainer());
+    ReflectionTestUtils.setField(pool, "minSockets", 1);
+    ReflectionTestUtils.setField(pool, "maxSockets", 2);
+    ReflectionTestUtils.setField(pool, "maxWaiters", 1);
+    ReflectionTestUtils.setField(pool, "acquireTimeout", 200);
+    ReflectionTestUtils.setField(pool, "idleTimeout", 60);
+    pool.start();
+  }
+
+  /**
+  * Close the pool.
+  */
+  @After
+  public void tearDown() {
+    pool.destroy();
+  }
+
+  // Multiple sockets may be open to the same endpoint
+  @Test
+  public void testMultipleSockets() {
+    ZmqSocketContainer first = pool.getSocket(testAddr, ZmqSocketContainer.ivanType);
+    ZmqSocketContainer second = pool.getSocket(testAddr, ZmqSocketContainer.ivanType);
+    assert (first != null);
+    assert (second != null);
+    assert (first.getId() != second.getId());
+    assert (pool.socketInUse(testAddr));
+    assert (!pool.socketAvailable(testAddr));
+    pool.releaseSocket(first);
+    assert (pool.socketAvailable(testAddr));
+    // A released socket is re-used rather than opening another
+    ZmqSocketContainer third = pool.getSocket(testAddr, ZmqSocketContainer.ivanType);
+    assert (third.getId() == first.getId());
+    pool.releaseSocket(second);
+    pool.releaseSocket(third);
+  }
+
+  // Waiters time out when the endpoint is exhausted, and receive released sockets
+  @Test
+  public void testWaitQueue() throws Exception {
+    final ZmqSocketContainer first = pool.getSocket(testAddr, ZmqSocketContainer.ivanType);
+    final ZmqSocketContainer second = pool.getSocket(testAddr, ZmqSocketContainer.ivanType);
+    // No socket is released within the acquire timeout
+    assert (pool.getSocket(testAddr, ZmqSocketContainer.ivanType) == null);
+
+    // A socket released while we wait is handed over
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    final Future<ZmqSocketContainer> waiting = executor.submit(new Callable<ZmqSocketContainer>() {
+      @Override
+      public ZmqSocketContainer call() {
+        return pool.getSocket(testAddr, ZmqSocketContainer.ivanType);
+      }
+    });
+    Thread.sleep(50);
+    // The wait queue only holds a single thread
+    assert (pool.getSocket(testAddr, ZmqSocketContainer.ivanType) == null);
+    pool.releaseSocket(first);
+    assert (waiting.get().getId() == first.getId());
+    executor.shutdown();
+
+    // Closing a socket frees up a slot for a new one
+    pool.closeSocket(second);
+    ZmqSocketContainer replacement = pool.getSocket(testAddr, ZmqSocketContainer.ivanType);
+    assert (replacement != null);
+    assert (replacement.getId() != second.getId());
+  }
+
+  // Asynchronous waiters are served in order, and time out with null
+  @Test
+  public void testAcquireAsync() throws Exception {
+    final ZmqSocketContainer first = pool.getSocket(testAddr, ZmqSocketContainer.ivanType);
+    ZmqSocketContainer second = pool.getSocket(testAddr, ZmqSocketContainer.ivanType);
+    CompletableFuture<ZmqSocketContainer> waiting =
+        pool.acquireSocket(testAddr, ZmqSocketContainer.ivanType);
+    assert (!waiting.isDone());
+    pool.releaseSocket(second);
+    assert (waiting.get().getId() == second.getId());
+    // Nothing is released this time, so the waiter gives up
+    waiting = pool.acquireSocket(testAddr, ZmqSocketContainer.ivanType);
+    assert (waiting.get() == null);
+    pool.releaseSocket(first);
+    pool.releaseSocket(second);
+  }
+}